@@ -33,6 +33,44 @@ subprojects {
             // Media decoding (GIF / MP4 support)
             "modImplementation"("org.jcodec:jcodec:0.2.5")?.let { "include"(it) }
             "modImplementation"("org.jcodec:jcodec-javase:0.2.5")?.let { "include"(it) }
+
+            // Unit tests for the pure-Java stages under src/test/java
+            "testImplementation"("org.junit.jupiter:junit-jupiter:5.10.2")
+            "testRuntimeOnly"("org.junit.platform:junit-platform-launcher")
+        }
+
+        tasks.named<Test>("test") {
+            useJUnitPlatform()
+        }
+
+        // Offline renderer for regression and performance runs, e.g.
+        // ./gradlew :versions:1.21.10:renderHeadless --args="--all-presets --frames 120 --golden golden"
+        tasks.register<JavaExec>("renderHeadless") {
+            group = "verification"
+            description = "Renders shaders without a Minecraft client and reports frame timings"
+            classpath = project.the<SourceSetContainer>()["main"].runtimeClasspath
+            mainClass.set("sh.tinywifi.canvasglsl.headless.HeadlessShaderRenderer")
+            workingDir = rootProject.projectDir
+        }
+
+        // Micro-benchmarks for the pure-Java stages (patcher, minifier, editor caches) under src/jmh/java, e.g.
+        // ./gradlew :versions:1.21.10:jmh --args="ShaderPatcherBenchmark -f 1"
+        val sourceSets = project.the<SourceSetContainer>()
+        val jmh = sourceSets.create("jmh") {
+            compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+            runtimeClasspath += sourceSets["main"].output + sourceSets["main"].runtimeClasspath
+        }
+
+        dependencies {
+            "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+            "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+        }
+
+        tasks.register<JavaExec>("jmh") {
+            group = "verification"
+            description = "Runs the JMH benchmarks; pass a benchmark name pattern and JMH options through --args"
+            classpath = jmh.runtimeClasspath
+            mainClass.set("org.openjdk.jmh.Main")
         }
     }
 
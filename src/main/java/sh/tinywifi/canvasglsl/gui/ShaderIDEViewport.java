@@ -2,7 +2,9 @@ package sh.tinywifi.canvasglsl.gui;
 
 import imgui.ImColor;
 import imgui.ImGui;
+import imgui.ImGuiListClipper;
 import imgui.ImGuiStyle;
+import imgui.callback.ImListClipperCallback;
 import imgui.flag.ImGuiCond;
 import imgui.flag.ImGuiKey;
 import imgui.flag.ImGuiTreeNodeFlags;
@@ -15,21 +17,29 @@ import sh.tinywifi.canvasglsl.ide.ShaderCodeEditor;
 import sh.tinywifi.canvasglsl.ide.ShaderIDEController;
 import sh.tinywifi.canvasglsl.ide.ShaderEditorState;
 import sh.tinywifi.canvasglsl.ide.ShaderIDETheme;
+import sh.tinywifi.canvasglsl.ide.ShaderPackImporter;
+import sh.tinywifi.canvasglsl.ide.ShaderSearchIndex;
 import sh.tinywifi.canvasglsl.ide.ShaderWorkspace;
+import sh.tinywifi.canvasglsl.ide.TweakSession;
+import sh.tinywifi.canvasglsl.ide.WorkspaceTree;
 import sh.tinywifi.canvasglsl.media.MediaEntry;
 import sh.tinywifi.canvasglsl.media.MediaType;
 import sh.tinywifi.canvasglsl.modules.ShaderBackground;
+import sh.tinywifi.canvasglsl.render.ShaderTweaks;
 import sh.tinywifi.canvasglsl.shader.ShaderPresets;
 
 import java.awt.Desktop;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -41,6 +51,10 @@ public final class ShaderIDEViewport {
     private static final String POPUP_NEW_FILE = "New Shader";
     private static final String POPUP_SAVE_AS = "Save Shader As";
     private static final String POPUP_DELETE = "Delete Shader";
+    private static final String POPUP_IMPORT = "Import Shader Pack";
+
+    private record TreeRow(WorkspaceTree.Node node, int depth) {
+    }
 
     private final ShaderIDEController controller;
     private final ShaderWorkspace workspace;
@@ -55,18 +69,42 @@ public final class ShaderIDEViewport {
     private final ImBoolean diagnosticLoggingToggle = new ImBoolean(false);
     private final ImBoolean framerateOverrideToggle = new ImBoolean(true);
     private final ImBoolean disableVsyncToggle = new ImBoolean(true);
+    private final ImBoolean specializeConstantsToggle = new ImBoolean(true);
+    private final ImBoolean minifyToggle = new ImBoolean(false);
+    private final ImBoolean syntaxCheckToggle = new ImBoolean(true);
+    private final ImBoolean livePreviewToggle = new ImBoolean(true);
     private final int[] framerateLimitBuffer = new int[]{120};
     private final float[] fontScale = new float[]{1.0f};
+    private final int[] programCacheSizeBuffer = new int[]{8};
+    private final int[] programCacheBudgetBuffer = new int[]{32};
+    private final float[] tierBudgetBuffer = new float[]{4.0f};
+    private final int[] undoBudgetBuffer = new int[]{1024};
+    private final float[] tweakFloatBuffer = new float[1];
+    private final int[] tweakIntBuffer = new int[1];
     private final ImString mediaPathInput = new ImString("", 512);
+    private final ImString importPathInput = new ImString("", 512);
+    private final ImString searchQuery = new ImString("", 256);
+    private final Set<Path> collapsedFolders = new HashSet<>();
+    private final List<TreeRow> treeRows = new ArrayList<>();
+    private final ImListClipperCallback treeRowRenderer = new ImListClipperCallback() {
+        @Override
+        public void accept(int index) {
+            renderTreeRow(treeRows.get(index));
+        }
+    };
 
     private boolean openNewFilePopup;
     private boolean openSaveAsPopup;
     private boolean openDeletePopup;
+    private boolean openImportPopup;
+    private boolean focusSearch;
     private Path pendingDeleteFile;
     private boolean themeApplied;
     private boolean showMediaPickerPopup;
     private Path mediaBrowserDirectory;
     private Path lastMediaDirectory;
+    private WorkspaceTree.Node shownTree;
+    private boolean treeRowsStale;
 
     public ShaderIDEViewport(ShaderIDEController controller) {
         this.controller = controller;
@@ -104,6 +142,8 @@ public final class ShaderIDEViewport {
         ensureReady();
 
         applyKeyboardShortcuts();
+        validateImportedShaders();
+        validateTweakSession();
 
         ImGui.setNextWindowSize(width * 0.75f, height * 0.8f, ImGuiCond.Once);
         ImGui.setNextWindowPos(width * 0.125f, height * 0.1f, ImGuiCond.Once);
@@ -141,7 +181,7 @@ public final class ShaderIDEViewport {
         if (ImGui.beginMenu("File")) {
             if (ImGui.menuItem("New Shader", "Ctrl+N")) openNewShaderPopup();
 
-            boolean canSave = editorState.currentFile().isPresent();
+            boolean canSave = editorState.currentFile().isPresent() && controller.getTweakSession().isEmpty();
             if (ImGui.menuItem("Save", "Ctrl+S", false, canSave)) {
                 attemptSave();
             }
@@ -156,6 +196,12 @@ public final class ShaderIDEViewport {
 
             ImGui.separator();
 
+            if (ImGui.menuItem("Import Shader Pack...")) {
+                openImportPopup = true;
+            }
+
+            ImGui.separator();
+
             if (ImGui.menuItem("Close", "Esc")) {
                 closeScreen();
             }
@@ -163,6 +209,17 @@ public final class ShaderIDEViewport {
             ImGui.endMenu();
         }
 
+        if (ImGui.beginMenu("Edit")) {
+            boolean editable = !editorState.isReadOnly();
+            if (ImGui.menuItem("Undo", "Ctrl+Z", false, editable && editorState.canUndo())) {
+                editorState.undo();
+            }
+            if (ImGui.menuItem("Redo", "Ctrl+Y", false, editable && editorState.canRedo())) {
+                editorState.redo();
+            }
+            ImGui.endMenu();
+        }
+
         if (ImGui.beginMenu("View")) {
             if (ImGui.menuItem("Toggle Auto Compile", "", editorState.isAutoCompileEnabled())) {
                 editorState.setAutoCompile(!editorState.isAutoCompileEnabled());
@@ -192,16 +249,96 @@ public final class ShaderIDEViewport {
         ImGui.sameLine();
 
         ImGui.beginChild("ide-editor-pane", 0f, 0f, false);
+        drawTweakPanel();
         boolean changed = codeEditor.render(editorState);
         if (changed) {
             editorState.markDirty(true);
             if (editorState.isAutoSaveEnabled()) {
                 attemptSave();
+            } else {
+                controller.requestPreview();
             }
         }
         ImGui.endChild();
     }
 
+    private void drawTweakPanel() {
+        Optional<TweakSession> current = controller.getTweakSession();
+        if (current.isEmpty()) {
+            if (ImGui.smallButton("Tweak constants")) {
+                startTweak();
+            }
+            return;
+        }
+
+        TweakSession session = current.get();
+        if (ImGui.smallButton("Apply tweaks")) {
+            finishTweak(true);
+            return;
+        }
+        ImGui.sameLine();
+        if (ImGui.smallButton("Revert")) {
+            finishTweak(false);
+            return;
+        }
+        ImGui.sameLine();
+        ImGui.textDisabled("Tweak mode: editing is paused until the values are applied or reverted");
+
+        List<ShaderTweaks.Tweak> tweaks = session.tweaks();
+        float[] values = session.values();
+        float height = Math.min(tweaks.size() * ImGui.getFrameHeightWithSpacing() + ImGui.getStyle().getWindowPaddingY() * 2f,
+            ImGui.getContentRegionAvailY() * 0.4f);
+        ImGui.beginChild("tweak-sliders", 0f, height, true);
+        for (int i = 0; i < tweaks.size(); i++) {
+            ShaderTweaks.Tweak tweak = tweaks.get(i);
+            String label = tweak.name() + "##tweak" + i;
+            if (tweak.integer()) {
+                tweakIntBuffer[0] = Math.round(values[i]);
+                if (ImGui.sliderInt(label, tweakIntBuffer, (int) Math.floor(session.minimum(i)), (int) Math.ceil(session.maximum(i)))) {
+                    values[i] = tweakIntBuffer[0];
+                }
+            } else {
+                tweakFloatBuffer[0] = values[i];
+                if (ImGui.sliderFloat(label, tweakFloatBuffer, session.minimum(i), session.maximum(i), "%.4f")) {
+                    values[i] = tweakFloatBuffer[0];
+                }
+            }
+            if (ImGui.isItemHovered()) {
+                ImGui.setTooltip("Line " + tweak.line() + ", was " + tweak.literal());
+            }
+        }
+        ImGui.endChild();
+    }
+
+    private void startTweak() {
+        if (controller.beginTweak()) {
+            editorState.setStatus("Tweak mode: sliders update the shader without recompiling");
+            CanvasGLSL.SHADER_BACKGROUND.requestManualCompile();
+        } else {
+            editorState.setStatus("Nothing to tweak: no numeric #define or const that could become a uniform");
+        }
+    }
+
+    private void finishTweak(boolean keep) {
+        boolean changed = controller.endTweak(keep);
+        editorState.setStatus(keep ? (changed ? "Tweaked values written to the source" : "No values changed") : "Tweaks reverted");
+        CanvasGLSL.SHADER_BACKGROUND.requestManualCompile();
+        if (changed && keep && editorState.isAutoSaveEnabled()) {
+            attemptSave();
+        }
+    }
+
+    /**
+     * Ends a tweak session whose buffer was replaced, say by loading another file, leaving the new text alone.
+     */
+    private void validateTweakSession() {
+        Optional<TweakSession> session = controller.getTweakSession();
+        if (session.isPresent() && !session.get().originalSource().equals(editorState.document().text())) {
+            controller.abandonTweak();
+            CanvasGLSL.SHADER_BACKGROUND.requestManualCompile();
+        }
+    }
+
     private void drawSettingsTab() {
         ShaderIDETheme currentTheme = editorState.getTheme();
         ShaderBackground background = CanvasGLSL.SHADER_BACKGROUND;
@@ -274,6 +411,64 @@ public final class ShaderIDEViewport {
             editorState.setFontScale(fontScale[0]);
         }
 
+        specializeConstantsToggle.set(editorState.isSpecializeConstantsEnabled());
+        if (ImGui.checkbox("Fold constant built-ins", specializeConstantsToggle)) {
+            editorState.setSpecializeConstants(specializeConstantsToggle.get());
+            editorState.setStatus(specializeConstantsToggle.get()
+                ? "iSampleRate, iChannelResolution and iChannelTime compiled as constants"
+                : "All built-ins uploaded as uniforms");
+            CanvasGLSL.SHADER_BACKGROUND.requestManualCompile();
+        }
+
+        minifyToggle.set(editorState.isMinifyEnabled());
+        if (ImGui.checkbox("Minify before compile", minifyToggle)) {
+            editorState.setMinify(minifyToggle.get());
+            editorState.setStatus(minifyToggle.get()
+                ? "Comments, unused functions and trivial constants stripped before compiling"
+                : "Shaders compiled as written");
+            CanvasGLSL.SHADER_BACKGROUND.requestManualCompile();
+        }
+
+        syntaxCheckToggle.set(editorState.isSyntaxCheckEnabled());
+        if (ImGui.checkbox("Check syntax before compile", syntaxCheckToggle)) {
+            editorState.setSyntaxCheck(syntaxCheckToggle.get());
+            editorState.setStatus(syntaxCheckToggle.get()
+                ? "Syntax errors are marked while typing and block compiling"
+                : "Every source goes straight to the driver");
+            CanvasGLSL.SHADER_BACKGROUND.requestManualCompile();
+        }
+
+        livePreviewToggle.set(editorState.isLivePreviewEnabled());
+        if (ImGui.checkbox("Live preview while typing", livePreviewToggle)) {
+            editorState.setLivePreview(livePreviewToggle.get());
+            if (!livePreviewToggle.get()) {
+                controller.getLivePreview().cancel();
+            }
+            editorState.setStatus(livePreviewToggle.get()
+                ? "The background shows unsaved edits once typing pauses"
+                : "The background changes on save only");
+        }
+
+        programCacheSizeBuffer[0] = editorState.getProgramCacheSize();
+        if (ImGui.sliderInt("Cached shader programs", programCacheSizeBuffer, 1, 32)) {
+            editorState.setProgramCacheSize(programCacheSizeBuffer[0]);
+        }
+
+        programCacheBudgetBuffer[0] = editorState.getProgramCacheBudgetMb();
+        if (ImGui.sliderInt("Program cache budget", programCacheBudgetBuffer, 1, 256, "%d MiB")) {
+            editorState.setProgramCacheBudgetMb(programCacheBudgetBuffer[0]);
+        }
+
+        tierBudgetBuffer[0] = editorState.getTierBudgetMs();
+        if (ImGui.sliderFloat("Quality tier budget", tierBudgetBuffer, 0.5f, 33.0f, "%.1f ms")) {
+            editorState.setTierBudgetMs(tierBudgetBuffer[0]);
+        }
+
+        undoBudgetBuffer[0] = editorState.getUndoBudgetKb();
+        if (ImGui.sliderInt("Undo history per file", undoBudgetBuffer, 64, 16 * 1024, "%d KiB")) {
+            editorState.setUndoBudgetKb(undoBudgetBuffer[0]);
+        }
+
         ImGui.separator();
 
         ShaderPresets preset = editorState.getActivePreset();
@@ -341,69 +536,152 @@ public final class ShaderIDEViewport {
             editorState.currentFile().ifPresent(editorState::load);
         }
 
+        ShaderPackImporter.Job importJob = controller.getPackImporter().current();
+        if (importJob != null && !importJob.isFinished()) {
+            ImGui.textDisabled(importJob.describe());
+        }
+
+        drawFindInFiles();
+
         ImGui.spacing();
 
-        renderDirectory(workspace.getRoot());
+        renderWorkspaceTree();
     }
 
-    private void renderDirectory(Path directory) {
-        try (Stream<Path> stream = Files.list(directory)) {
-            List<Path> children = stream
-                .sorted((a, b) -> {
-                    boolean dirA = Files.isDirectory(a);
-                    boolean dirB = Files.isDirectory(b);
-                    if (dirA != dirB) return dirA ? -1 : 1;
-                    return a.getFileName().toString().compareToIgnoreCase(b.getFileName().toString());
-                })
-                .collect(Collectors.toList());
-
-            for (Path child : children) {
-                if (Files.isDirectory(child)) {
-                    String label = child.getFileName().toString();
-                    boolean open = ImGui.treeNodeEx(label, ImGuiTreeNodeFlags.SpanFullWidth | ImGuiTreeNodeFlags.DefaultOpen);
-                    if (open) {
-                        renderDirectory(child);
-                        ImGui.treePop();
-                    }
-                } else if (workspace.isMediaDescriptor(child)) {
-                    boolean selected = controller.getCurrentMediaEntry().map(entry -> entry.descriptorFile().equals(child)).orElse(false);
-                    if (ImGui.selectable(child.getFileName().toString(), selected)) {
-                        if (!selected) {
-                            if (!controller.loadMediaDescriptor(child)) {
-                                editorState.setStatus("Failed to load media descriptor");
-                            }
-                        }
-                    }
+    private void drawFindInFiles() {
+        if (focusSearch) {
+            ImGui.setNextItemOpen(true);
+        }
+        if (!ImGui.collapsingHeader("Find in files")) return;
 
-                    if (ImGui.beginPopupContextItem()) {
-                        if (ImGui.menuItem("Delete")) {
-                            pendingDeleteFile = child;
-                            openDeletePopup = true;
-                        }
-                        ImGui.endPopup();
-                    }
-                } else if (workspace.hasSupportedExtension(child)) {
-                    boolean selected = editorState.currentFile().map(child::equals).orElse(false);
-                    if (ImGui.selectable(child.getFileName().toString(), selected)) {
-                        if (!selected) {
-                            if (editorState.load(child)) {
-                                controller.notifyShaderSaved();
-                            }
-                        }
-                    }
+        if (focusSearch) {
+            ImGui.setKeyboardFocusHere();
+            focusSearch = false;
+        }
+        ShaderSearchIndex search = workspace.getSearch();
+        ImGui.setNextItemWidth(-1f);
+        if (ImGui.inputTextWithHint("##find-in-files", "Search all shaders (Ctrl+Shift+F)", searchQuery)) {
+            search.search(searchQuery.get());
+        }
 
-                    if (ImGui.beginPopupContextItem()) {
-                        if (ImGui.menuItem("Delete")) {
-                            pendingDeleteFile = child;
-                            openDeletePopup = true;
-                        }
-                        ImGui.endPopup();
+        String query = searchQuery.get();
+        if (query.length() < ShaderSearchIndex.MIN_QUERY_LENGTH) {
+            if (!query.isEmpty()) {
+                ImGui.textDisabled("Type at least " + ShaderSearchIndex.MIN_QUERY_LENGTH + " characters");
+            }
+            return;
+        }
+        ShaderSearchIndex.Result result = search.result();
+        if (!result.query().equals(query)) {
+            ImGui.textDisabled("Searching...");
+            return;
+        }
+        List<ShaderSearchIndex.Match> matches = result.matches();
+        ImGui.textDisabled(String.format("%d%s matches in %.1f ms", matches.size(), result.truncated() ? "+" : "",
+            result.nanos() / 1_000_000.0));
+        if (matches.isEmpty()) return;
+
+        ImGui.beginChild("find-in-files-results", 0f, Math.min(220f, matches.size() * ImGui.getTextLineHeightWithSpacing() + 8f),
+            true, ImGuiWindowFlags.HorizontalScrollbar);
+        for (int i = 0; i < matches.size(); i++) {
+            ShaderSearchIndex.Match match = matches.get(i);
+            if (ImGui.selectable(match.file() + ":" + (match.line() + 1) + "  " + match.text() + "##match" + i)) {
+                openMatch(match);
+            }
+        }
+        ImGui.endChild();
+    }
+
+    private void openMatch(ShaderSearchIndex.Match match) {
+        Path file = workspace.getRoot().resolve(match.file());
+        boolean open = editorState.currentFile().map(file::equals).orElse(false);
+        if (!open) {
+            if (!editorState.load(file)) return;
+            controller.notifyShaderSaved();
+        }
+        codeEditor.revealLine(editorState, match.line());
+    }
+
+    private void renderWorkspaceTree() {
+        WorkspaceTree.Node root = workspace.getTree().root();
+        if (root == null) {
+            ImGui.textDisabled("Loading workspace...");
+            return;
+        }
+        if (root != shownTree || treeRowsStale) {
+            treeRows.clear();
+            flattenTree(root.children(), 0);
+            shownTree = root;
+            treeRowsStale = false;
+        }
+        // Rows are laid out from this list; folding a folder only marks it stale so it is rebuilt next frame
+        ImGuiListClipper.forEach(treeRows.size(), treeRowRenderer);
+    }
+
+    private void flattenTree(List<WorkspaceTree.Node> nodes, int depth) {
+        for (WorkspaceTree.Node node : nodes) {
+            treeRows.add(new TreeRow(node, depth));
+            if (node.kind() == WorkspaceTree.Kind.DIRECTORY && !collapsedFolders.contains(node.path())) {
+                flattenTree(node.children(), depth + 1);
+            }
+        }
+    }
+
+    private void renderTreeRow(TreeRow row) {
+        WorkspaceTree.Node node = row.node();
+        Path child = node.path();
+        float indent = row.depth() * ImGui.getStyle().getIndentSpacing();
+        if (indent > 0f) {
+            ImGui.indent(indent);
+        }
+        String label = node.name() + "##" + child;
+
+        if (node.kind() == WorkspaceTree.Kind.DIRECTORY) {
+            boolean expanded = !collapsedFolders.contains(child);
+            ImGui.setNextItemOpen(expanded);
+            boolean open = ImGui.treeNodeEx(label, ImGuiTreeNodeFlags.SpanFullWidth | ImGuiTreeNodeFlags.NoTreePushOnOpen);
+            if (open != expanded) {
+                if (open) {
+                    collapsedFolders.remove(child);
+                } else {
+                    collapsedFolders.add(child);
+                }
+                treeRowsStale = true;
+            }
+        } else if (node.kind() == WorkspaceTree.Kind.MEDIA) {
+            boolean selected = controller.getCurrentMediaEntry().map(entry -> entry.descriptorFile().equals(child)).orElse(false);
+            if (ImGui.selectable(label, selected)) {
+                if (!selected) {
+                    if (!controller.loadMediaDescriptor(child)) {
+                        editorState.setStatus("Failed to load media descriptor");
                     }
                 }
             }
-        } catch (IOException ex) {
-            CanvasGLSL.LOG.error("Failed to enumerate shader workspace", ex);
-            ImGui.textColored(ImColor.rgba(255, 85, 85, 255), "Failed to list directory " + directory.getFileName());
+            openDeleteMenu(child);
+        } else {
+            boolean selected = editorState.currentFile().map(child::equals).orElse(false);
+            if (ImGui.selectable(label, selected)) {
+                if (!selected) {
+                    if (editorState.load(child)) {
+                        controller.notifyShaderSaved();
+                    }
+                }
+            }
+            openDeleteMenu(child);
+        }
+
+        if (indent > 0f) {
+            ImGui.unindent(indent);
+        }
+    }
+
+    private void openDeleteMenu(Path file) {
+        if (ImGui.beginPopupContextItem()) {
+            if (ImGui.menuItem("Delete")) {
+                pendingDeleteFile = file;
+                openDeletePopup = true;
+            }
+            ImGui.endPopup();
         }
     }
 
@@ -423,6 +701,28 @@ public final class ShaderIDEViewport {
             openDeletePopup = false;
         }
 
+        if (openImportPopup) {
+            ImGui.openPopup(POPUP_IMPORT);
+            openImportPopup = false;
+        }
+
+        if (ImGui.beginPopupModal(POPUP_IMPORT, ImGuiWindowFlags.AlwaysAutoResize)) {
+            ImGui.textWrapped("Import a folder of shaders or a Shadertoy JSON export into "
+                + workspace.getRoot().getFileName() + "/imports.");
+            ImGui.inputText("Folder or JSON file", importPathInput);
+
+            if (ImGui.button("Import")) {
+                startImport(importPathInput.get());
+                ImGui.closeCurrentPopup();
+            }
+            ImGui.sameLine();
+            if (ImGui.button("Cancel")) {
+                ImGui.closeCurrentPopup();
+            }
+
+            ImGui.endPopup();
+        }
+
         if (ImGui.beginPopupModal(POPUP_NEW_FILE)) {
             ImGui.text("Create a new shader file inside the workspace.");
             ImGui.inputText("File name", newFileName);
@@ -490,9 +790,55 @@ public final class ShaderIDEViewport {
         if (ImGui.getIO().getKeyCtrl() && ImGui.isKeyPressed(ImGuiKey.N, false)) {
             openNewShaderPopup();
         }
+        if (ImGui.getIO().getKeyCtrl() && ImGui.getIO().getKeyShift() && ImGui.isKeyPressed(ImGuiKey.F, false)) {
+            focusSearch = true;
+        }
+    }
+
+    private void startImport(String input) {
+        String trimmed = input.trim();
+        if (trimmed.length() > 1 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            trimmed = trimmed.substring(1, trimmed.length() - 1);
+        }
+        if (trimmed.isEmpty()) {
+            editorState.setStatus("Enter a folder or Shadertoy JSON file to import");
+            return;
+        }
+
+        Path source;
+        try {
+            source = Paths.get(trimmed).toAbsolutePath().normalize();
+        } catch (InvalidPathException ex) {
+            editorState.setStatus("Invalid import path");
+            return;
+        }
+        if (!Files.exists(source)) {
+            editorState.setStatus("File not found: " + source);
+            return;
+        }
+
+        if (controller.getPackImporter().start(source)) {
+            editorState.setStatus("Importing " + source.getFileName() + "...");
+        } else {
+            editorState.setStatus("A shader pack import is already running");
+        }
+    }
+
+    /**
+     * Links a few shaders from a running import each frame; the driver compile has to happen on this thread.
+     */
+    private void validateImportedShaders() {
+        ShaderPackImporter importer = controller.getPackImporter();
+        if (importer.validateBatch()) {
+            editorState.setStatus(importer.current().describe());
+        }
     }
 
     private void attemptSave() {
+        if (controller.getTweakSession().isPresent()) {
+            editorState.setStatus("Apply or revert the tweaks before saving");
+            return;
+        }
         Optional<Path> current = editorState.currentFile();
         if (current.isPresent()) {
             if (editorState.save()) {
@@ -0,0 +1,463 @@
+package sh.tinywifi.canvasglsl.headless;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.glfw.GLFW;
+import org.lwjgl.glfw.GLFWErrorCallback;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.system.MemoryUtil;
+import sh.tinywifi.canvasglsl.render.ChannelTextures;
+import sh.tinywifi.canvasglsl.render.FrameUniforms;
+import sh.tinywifi.canvasglsl.render.FullscreenQuad;
+import sh.tinywifi.canvasglsl.render.GlslMinifier;
+import sh.tinywifi.canvasglsl.render.IncludeResolver;
+import sh.tinywifi.canvasglsl.render.ShaderPatcher;
+import sh.tinywifi.canvasglsl.render.ShaderProgram;
+import sh.tinywifi.canvasglsl.render.SharedVertexStage;
+import sh.tinywifi.canvasglsl.shader.ShaderPresets;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Standalone entry point that renders shaders without a Minecraft client, for CI regression and performance runs.
+ *
+ * Drives {@link ShaderPatcher} and {@link ShaderProgram} exactly as the in-game renderer does, on a hidden GLFW
+ * context created through OSMesa or EGL so it works on a GPU-less box with Mesa llvmpipe. Frames use a fixed
+ * timestep and a fixed {@code iDate}, so output is deterministic and can be compared against golden images.
+ *
+ * <pre>
+ * --preset NAME        render a bundled preset (repeatable)
+ * --all-presets        render every non-empty bundled preset
+ * --file PATH          render a workspace shader file (repeatable)
+ * --workspace DIR      root that {@code #include} paths resolve against (default .)
+ * --size WxH           target resolution (default 640x360)
+ * --frames N           frames per shader (default 60)
+ * --fps N              fixed timestep used for iTime (default 60)
+ * --png-every N        write every Nth frame as PNG; the last frame is always written (default 0)
+ * --out DIR            output directory (default build/headless)
+ * --golden DIR         compare written frames against DIR/&lt;shader&gt;/frame_NNNN.png
+ * --tolerance T        maximum mean absolute channel difference, 0-255 (default 1.5)
+ * --update-golden      write the rendered frames into the golden directory instead of comparing
+ * --verbose            print the time of every frame, not only the summary
+ * --context API        osmesa | egl | native (default osmesa)
+ * --no-specialize      upload iSampleRate, iChannelResolution and iChannelTime as uniforms instead of constants
+ * --minify             run {@link GlslMinifier} before compiling, to compare compile times with and without it
+ * </pre>
+ */
+public final class HeadlessShaderRenderer {
+    private static final LocalDateTime FIXED_DATE = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private final Options options;
+    private final IncludeResolver includes;
+    private int framebuffer;
+    private int colorTexture;
+    private FullscreenQuad quad;
+    private ChannelTextures channels;
+
+    private HeadlessShaderRenderer(Options options) {
+        this.options = options;
+        this.includes = new IncludeResolver(options.workspace);
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        boolean ok = new HeadlessShaderRenderer(options).run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run() {
+        long window = createContext();
+        try {
+            createTargets();
+            boolean ok = true;
+            for (Job job : options.jobs) {
+                ok &= renderJob(job);
+            }
+            return ok;
+        } finally {
+            destroyTargets();
+            GLFW.glfwDestroyWindow(window);
+            GLFW.glfwTerminate();
+        }
+    }
+
+    private long createContext() {
+        GLFWErrorCallback.createPrint(System.err).set();
+        if (options.contextApi != GLFW.GLFW_NATIVE_CONTEXT_API && GLFW.glfwPlatformSupported(GLFW.GLFW_PLATFORM_NULL)) {
+            // No display server needed when the context comes from OSMesa or surfaceless EGL
+            GLFW.glfwInitHint(GLFW.GLFW_PLATFORM, GLFW.GLFW_PLATFORM_NULL);
+        }
+        if (!GLFW.glfwInit()) {
+            throw new IllegalStateException("Failed to initialise GLFW");
+        }
+
+        GLFW.glfwDefaultWindowHints();
+        GLFW.glfwWindowHint(GLFW.GLFW_VISIBLE, GLFW.GLFW_FALSE);
+        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_CREATION_API, options.contextApi);
+        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MAJOR, 3);
+        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MINOR, 3);
+        GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_PROFILE, GLFW.GLFW_OPENGL_CORE_PROFILE);
+        GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_FORWARD_COMPAT, GLFW.GLFW_TRUE);
+
+        long window = GLFW.glfwCreateWindow(options.width, options.height, "CanvasGLSL headless", MemoryUtil.NULL, MemoryUtil.NULL);
+        if (window == MemoryUtil.NULL) {
+            GLFW.glfwTerminate();
+            throw new IllegalStateException("Failed to create a GL 3.3 core context");
+        }
+        GLFW.glfwMakeContextCurrent(window);
+        GL.createCapabilities();
+        System.out.printf(Locale.ROOT, "GL %s on %s%n", GL11.glGetString(GL11.GL_VERSION), GL11.glGetString(GL11.GL_RENDERER));
+        return window;
+    }
+
+    private void createTargets() {
+        colorTexture = GL11.glGenTextures();
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, colorTexture);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, options.width, options.height, 0,
+            GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+
+        framebuffer = GL30.glGenFramebuffers();
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, colorTexture, 0);
+        if (GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) != GL30.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Headless framebuffer is incomplete");
+        }
+
+        quad = FullscreenQuad.create();
+        channels = ChannelTextures.create();
+    }
+
+    private void destroyTargets() {
+        if (channels != null) {
+            channels.close();
+        }
+        if (quad != null) {
+            quad.close();
+        }
+        SharedVertexStage.release();
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+        if (framebuffer != 0) {
+            GL30.glDeleteFramebuffers(framebuffer);
+        }
+        if (colorTexture != 0) {
+            GL11.glDeleteTextures(colorTexture);
+        }
+    }
+
+    private boolean renderJob(Job job) {
+        String source;
+        try {
+            source = job.load();
+        } catch (IOException ex) {
+            System.err.printf(Locale.ROOT, "[%s] failed to read source: %s%n", job.name, ex.getMessage());
+            return false;
+        }
+
+        long compileStart = System.nanoTime();
+        ShaderProgram program;
+        try {
+            String patched = ShaderPatcher.patchFragment(includes.expand(source, job.file), options.specializeConstants);
+            if (options.minify) {
+                GlslMinifier.Result minified = GlslMinifier.minify(patched);
+                System.out.printf(Locale.ROOT, "[%s] minified %d -> %d chars, %d unused functions, %d constants folded%n",
+                    job.name, patched.length(), minified.source().length(), minified.removedFunctions(), minified.foldedConstants());
+                patched = minified.source();
+            }
+            program = ShaderProgram.link(null, patched);
+        } catch (IllegalStateException ex) {
+            System.err.printf(Locale.ROOT, "[%s] %s%n", job.name, ex.getMessage());
+            return false;
+        }
+        GL11.glFinish();
+        double compileMs = (System.nanoTime() - compileStart) / 1_000_000.0;
+
+        boolean ok = true;
+        double[] frameMs = new double[options.frames];
+        int width = options.width;
+        int height = options.height;
+        float step = 1.0f / options.fps;
+
+        try {
+            GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+            GL11.glViewport(0, 0, width, height);
+            GL11.glDisable(GL11.GL_DEPTH_TEST);
+            GL11.glDisable(GL11.GL_BLEND);
+            program.use();
+
+            for (int frame = 0; frame < options.frames; frame++) {
+                long frameStart = System.nanoTime();
+
+                program.applyUniforms(new FrameUniforms(
+                    frame * step,
+                    frame == 0 ? 0f : step,
+                    frame,
+                    frame,
+                    1.0f,
+                    width,
+                    height,
+                    width * 0.5f,
+                    height * 0.5f,
+                    0.5f,
+                    0.5f,
+                    0f,
+                    0f,
+                    FIXED_DATE
+                ), channels);
+                for (int channel = 0; channel < ChannelTextures.COUNT; channel++) {
+                    if (program.usesChannel(channel)) {
+                        GL13.glActiveTexture(GL13.GL_TEXTURE0 + channel);
+                        GL11.glBindTexture(GL11.GL_TEXTURE_2D, channels.texture(channel));
+                    }
+                }
+                GL13.glActiveTexture(GL13.GL_TEXTURE0);
+
+                quad.bind();
+                quad.draw();
+                GL11.glFinish();
+                frameMs[frame] = (System.nanoTime() - frameStart) / 1_000_000.0;
+
+                boolean last = frame == options.frames - 1;
+                if (last || (options.pngEvery > 0 && frame % options.pngEvery == 0)) {
+                    ok &= writeFrame(job, frame);
+                }
+            }
+        } finally {
+            FullscreenQuad.unbind();
+            GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+            program.close();
+        }
+
+        report(job, compileMs, frameMs);
+        return ok;
+    }
+
+    private boolean writeFrame(Job job, int frame) {
+        BufferedImage image = readFramebuffer();
+        String fileName = String.format(Locale.ROOT, "frame_%04d.png", frame);
+        try {
+            Path outFile = options.outDir.resolve(job.name).resolve(fileName);
+            Files.createDirectories(outFile.getParent());
+            ImageIO.write(image, "png", outFile.toFile());
+
+            if (options.goldenDir == null) {
+                return true;
+            }
+
+            Path goldenFile = options.goldenDir.resolve(job.name).resolve(fileName);
+            if (options.updateGolden) {
+                Files.createDirectories(goldenFile.getParent());
+                ImageIO.write(image, "png", goldenFile.toFile());
+                return true;
+            }
+            if (!Files.exists(goldenFile)) {
+                System.err.printf(Locale.ROOT, "[%s] missing golden image %s%n", job.name, goldenFile);
+                return false;
+            }
+            BufferedImage golden = ImageIO.read(goldenFile.toFile());
+            if (golden == null) {
+                System.err.printf(Locale.ROOT, "[%s] cannot read reference image %s: not a supported image%n", job.name, goldenFile);
+                return false;
+            }
+            return compare(job, fileName, image, golden);
+        } catch (IOException ex) {
+            System.err.printf(Locale.ROOT, "[%s] failed to write or read %s: %s%n", job.name, fileName, ex.getMessage());
+            return false;
+        }
+    }
+
+    private BufferedImage readFramebuffer() {
+        int width = options.width;
+        int height = options.height;
+        ByteBuffer pixels = BufferUtils.createByteBuffer(width * height * 4);
+        GL11.glPixelStorei(GL11.GL_PACK_ALIGNMENT, 1);
+        GL11.glReadPixels(0, 0, width, height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            int row = (height - 1 - y) * width * 4;
+            for (int x = 0; x < width; x++) {
+                int i = row + x * 4;
+                int r = pixels.get(i) & 0xFF;
+                int g = pixels.get(i + 1) & 0xFF;
+                int b = pixels.get(i + 2) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private boolean compare(Job job, String fileName, BufferedImage actual, BufferedImage golden) {
+        if (golden.getWidth() != actual.getWidth() || golden.getHeight() != actual.getHeight()) {
+            System.err.printf(Locale.ROOT, "[%s] %s: golden is %dx%d, rendered %dx%d%n", job.name, fileName,
+                golden.getWidth(), golden.getHeight(), actual.getWidth(), actual.getHeight());
+            return false;
+        }
+
+        long total = 0;
+        int max = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                int a = actual.getRGB(x, y);
+                int g = golden.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int diff = Math.abs(((a >> shift) & 0xFF) - ((g >> shift) & 0xFF));
+                    total += diff;
+                    max = Math.max(max, diff);
+                }
+            }
+        }
+
+        double mean = total / (actual.getWidth() * (double) actual.getHeight() * 3);
+        boolean pass = mean <= options.tolerance;
+        System.out.printf(Locale.ROOT, "[%s] %s: mean diff %.3f, max diff %d -> %s%n",
+            job.name, fileName, mean, max, pass ? "ok" : "MISMATCH");
+        return pass;
+    }
+
+    private void report(Job job, double compileMs, double[] frameMs) {
+        double[] sorted = frameMs.clone();
+        Arrays.sort(sorted);
+        double sum = 0;
+        for (double value : sorted) {
+            sum += value;
+        }
+        System.out.printf(Locale.ROOT,
+            "[%s] %dx%d compile %.2f ms | frames %d avg %.3f ms p50 %.3f ms p95 %.3f ms max %.3f ms%n",
+            job.name, options.width, options.height, compileMs, sorted.length,
+            sum / sorted.length, percentile(sorted, 0.50), percentile(sorted, 0.95), sorted[sorted.length - 1]);
+        if (options.verbose) {
+            for (int i = 0; i < frameMs.length; i++) {
+                System.out.printf(Locale.ROOT, "[%s] frame %d %.3f ms%n", job.name, i, frameMs[i]);
+            }
+        }
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private record Job(String name, ShaderPresets preset, Path file) {
+        String load() throws IOException {
+            if (preset != null) {
+                return preset.getShaderCode();
+            }
+            return Files.readString(file, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Options {
+        final List<Job> jobs = new ArrayList<>();
+        int width = 640;
+        int height = 360;
+        int frames = 60;
+        int fps = 60;
+        int pngEvery = 0;
+        Path outDir = Path.of("build", "headless");
+        Path goldenDir;
+        Path workspace = Path.of(".");
+        double tolerance = 1.5;
+        boolean updateGolden;
+        boolean verbose;
+        boolean specializeConstants = true;
+        boolean minify;
+        int contextApi = GLFW.GLFW_OSMESA_CONTEXT_API;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--preset" -> {
+                        String name = value(args, ++i, arg);
+                        ShaderPresets preset;
+                        try {
+                            preset = ShaderPresets.valueOf(name.toUpperCase(Locale.ROOT));
+                        } catch (IllegalArgumentException ex) {
+                            throw new IllegalArgumentException("Unknown preset " + name);
+                        }
+                        options.jobs.add(new Job(preset.name().toLowerCase(Locale.ROOT), preset, null));
+                    }
+                    case "--all-presets" -> {
+                        for (ShaderPresets preset : ShaderPresets.values()) {
+                            if (!preset.getShaderCode().isBlank()) {
+                                options.jobs.add(new Job(preset.name().toLowerCase(Locale.ROOT), preset, null));
+                            }
+                        }
+                    }
+                    case "--file" -> {
+                        Path file = Path.of(value(args, ++i, arg));
+                        String name = file.getFileName().toString();
+                        int dot = name.lastIndexOf('.');
+                        options.jobs.add(new Job(dot > 0 ? name.substring(0, dot) : name, null, file));
+                    }
+                    case "--size" -> {
+                        String[] parts = value(args, ++i, arg).toLowerCase(Locale.ROOT).split("x");
+                        if (parts.length != 2) {
+                            throw new IllegalArgumentException("--size expects WxH");
+                        }
+                        options.width = Math.max(1, Integer.parseInt(parts[0]));
+                        options.height = Math.max(1, Integer.parseInt(parts[1]));
+                    }
+                    case "--frames" -> options.frames = Math.max(1, Integer.parseInt(value(args, ++i, arg)));
+                    case "--fps" -> options.fps = Math.max(1, Integer.parseInt(value(args, ++i, arg)));
+                    case "--png-every" -> options.pngEvery = Math.max(0, Integer.parseInt(value(args, ++i, arg)));
+                    case "--out" -> options.outDir = Path.of(value(args, ++i, arg));
+                    case "--workspace" -> options.workspace = Path.of(value(args, ++i, arg));
+                    case "--golden" -> options.goldenDir = Path.of(value(args, ++i, arg));
+                    case "--tolerance" -> options.tolerance = Double.parseDouble(value(args, ++i, arg));
+                    case "--update-golden" -> options.updateGolden = true;
+                    case "--verbose" -> options.verbose = true;
+                    case "--no-specialize" -> options.specializeConstants = false;
+                    case "--minify" -> options.minify = true;
+                    case "--context" -> options.contextApi = switch (value(args, ++i, arg).toLowerCase(Locale.ROOT)) {
+                        case "osmesa" -> GLFW.GLFW_OSMESA_CONTEXT_API;
+                        case "egl" -> GLFW.GLFW_EGL_CONTEXT_API;
+                        case "native" -> GLFW.GLFW_NATIVE_CONTEXT_API;
+                        default -> throw new IllegalArgumentException("--context expects osmesa, egl or native");
+                    };
+                    default -> throw new IllegalArgumentException("Unknown argument " + arg);
+                }
+            }
+
+            if (options.jobs.isEmpty()) {
+                throw new IllegalArgumentException("Nothing to render: pass --preset, --all-presets or --file");
+            }
+            if (options.updateGolden && options.goldenDir == null) {
+                throw new IllegalArgumentException("--update-golden needs --golden DIR");
+            }
+            return options;
+        }
+
+        private static String value(String[] args, int index, String flag) {
+            if (index >= args.length) {
+                throw new IllegalArgumentException(flag + " expects a value");
+            }
+            return args[index];
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Text of the shader being edited, kept as a piece table: the text as loaded, an append-only buffer of everything
+ * typed since, and a list of pieces stitching the two together. An edit splits at most two pieces and appends to the
+ * buffer. {@link #text()} builds a string once per change and hands out that same instance until the next one, so
+ * readers share one snapshot instead of copying the text each. Reads are safe from any thread; listeners hear
+ * every edit, with the text it removed and inserted, after it was applied.
+ * <p>
+ * Both buffers only ever grow, so the offsets of their line breaks are indexed once as they are written. With
+ * running totals over the pieces, rebuilt on the first lookup after an edit, finding a line is a binary search over
+ * the pieces and one over the breaks, and {@link #line(int)} copies only that line.
+ */
+public final class ShaderDocument {
+    /**
+     * Told about an edit that replaced {@code removed} at {@code start} with {@code inserted}.
+     */
+    public interface Listener {
+        void onChange(int start, String removed, String inserted);
+    }
+
+    // Typing appends to the last piece, so this is mostly reached by scattered edits; folding everything back into
+    // one piece keeps lookups short
+    private static final int MAX_PIECES = 512;
+
+    private record Piece(boolean added, int start, int length, int lineBreaks) {}
+
+    private final List<Piece> pieces = new ArrayList<>();
+    private final StringBuilder added = new StringBuilder();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private String original = "";
+    // Offsets of the line breaks in original and in added, ascending
+    private int[] originalBreaks = new int[0];
+    private int[] addedBreaks = new int[16];
+    private int addedBreakCount;
+    // End offset and line breaks up to and including each piece; null until a lookup needs them after an edit
+    private int[] pieceEnds;
+    private int[] pieceBreakEnds;
+    private int length;
+    private int lineBreaks;
+    private long version;
+    private String snapshot = "";
+
+    public void addListener(Listener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The whole text. Unchanged documents return the same instance on every call.
+     */
+    public synchronized String text() {
+        if (snapshot == null) {
+            StringBuilder builder = new StringBuilder(length);
+            for (Piece piece : pieces) {
+                builder.append(source(piece), piece.start, piece.start + piece.length);
+            }
+            snapshot = builder.toString();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Counts edits; equal versions mean equal text.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized int length() {
+        return length;
+    }
+
+    public synchronized char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside document of length " + length);
+        }
+        if (snapshot != null) {
+            return snapshot.charAt(index);
+        }
+        index();
+        int i = firstAbove(pieceEnds, index);
+        Piece piece = pieces.get(i);
+        return source(piece).charAt(piece.start + index - (i > 0 ? pieceEnds[i - 1] : 0));
+    }
+
+    public synchronized int lineCount() {
+        return lineBreaks + 1;
+    }
+
+    /**
+     * Offset of the first character of {@code line}, counted from zero.
+     */
+    public synchronized int lineStart(int line) {
+        if (line < 0 || line > lineBreaks) {
+            throw new IndexOutOfBoundsException("Line " + line + " outside document of " + (lineBreaks + 1) + " lines");
+        }
+        if (line == 0) {
+            return 0;
+        }
+        index();
+        // The piece holding the line break that ends line - 1
+        int i = firstAbove(pieceBreakEnds, line - 1);
+        Piece piece = pieces.get(i);
+        int before = i > 0 ? pieceBreakEnds[i - 1] : 0;
+        int pos = i > 0 ? pieceEnds[i - 1] : 0;
+        int[] breaks = piece.added ? addedBreaks : originalBreaks;
+        int first = firstAtLeast(breaks, breakCount(piece), piece.start);
+        return pos + breaks[first + line - 1 - before] - piece.start + 1;
+    }
+
+    /**
+     * The line holding {@code offset}, counted from zero; an offset on a line break belongs to the line it ends.
+     */
+    public synchronized int lineAt(int offset) {
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " outside document of length " + length);
+        }
+        if (offset == 0) {
+            return 0;
+        }
+        index();
+        // The piece holding the character before offset; its breaks up to there end the lines before it
+        int i = firstAbove(pieceEnds, offset - 1);
+        Piece piece = pieces.get(i);
+        int before = i > 0 ? pieceBreakEnds[i - 1] : 0;
+        int pos = i > 0 ? pieceEnds[i - 1] : 0;
+        int[] breaks = piece.added ? addedBreaks : originalBreaks;
+        int count = breakCount(piece);
+        return before + firstAtLeast(breaks, count, piece.start + offset - pos) - firstAtLeast(breaks, count, piece.start);
+    }
+
+    /**
+     * Text of {@code line} without its line break.
+     */
+    public synchronized String line(int line) {
+        int start = lineStart(line);
+        int end = line < lineBreaks ? lineStart(line + 1) - 1 : length;
+        return slice(start, end);
+    }
+
+    /**
+     * Replaces the whole text, as when a file is opened.
+     */
+    public void setText(String text) {
+        String removed;
+        synchronized (this) {
+            removed = text();
+            pieces.clear();
+            added.setLength(0);
+            addedBreakCount = 0;
+            original = text;
+            originalBreaks = breakOffsets(text);
+            if (!text.isEmpty()) {
+                pieces.add(new Piece(false, 0, text.length(), originalBreaks.length));
+            }
+            pieceEnds = null;
+            length = text.length();
+            lineBreaks = pieces.isEmpty() ? 0 : pieces.get(0).lineBreaks;
+            snapshot = text;
+            version++;
+        }
+        fire(0, removed, text);
+    }
+
+    /**
+     * Replaces the characters in {@code [start, end)} with {@code replacement}.
+     */
+    public void replace(int start, int end, String replacement) {
+        String removed;
+        synchronized (this) {
+            if (start < 0 || end < start || end > length) {
+                throw new IndexOutOfBoundsException("Range " + start + ".." + end + " outside document of length " + length);
+            }
+            if (start == end && replacement.isEmpty()) {
+                return;
+            }
+            removed = slice(start, end);
+            applyReplace(start, end, replacement);
+        }
+        fire(start, removed, replacement);
+    }
+
+    /**
+     * Brings the document in line with {@code edited}, a copy of its text changed by a text widget, as one edit over
+     * the range the two differ in. Returns {@code false} when they are already equal.
+     */
+    public boolean sync(String edited) {
+        int start;
+        String removed;
+        String inserted;
+        synchronized (this) {
+            String current = text();
+            if (edited == current || edited.equals(current)) {
+                return false;
+            }
+            int currentLength = current.length();
+            int editedLength = edited.length();
+            int shorter = Math.min(currentLength, editedLength);
+            int prefix = 0;
+            while (prefix < shorter && current.charAt(prefix) == edited.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < shorter - prefix
+                && current.charAt(currentLength - 1 - suffix) == edited.charAt(editedLength - 1 - suffix)) {
+                suffix++;
+            }
+            start = prefix;
+            removed = current.substring(prefix, currentLength - suffix);
+            inserted = edited.substring(prefix, editedLength - suffix);
+            applyReplace(prefix, currentLength - suffix, inserted);
+            // The widget's copy is the new text already; no need to rebuild it from the pieces
+            snapshot = edited;
+        }
+        fire(start, removed, inserted);
+        return true;
+    }
+
+    private String slice(int start, int end) {
+        if (snapshot != null) {
+            return snapshot.substring(start, end);
+        }
+        StringBuilder out = new StringBuilder(end - start);
+        index();
+        int first = firstAbove(pieceEnds, start);
+        int pos = first > 0 ? pieceEnds[first - 1] : 0;
+        for (int i = first; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            int from = Math.max(start, pos);
+            int to = Math.min(end, pos + piece.length);
+            if (from < to) {
+                out.append(source(piece), piece.start + from - pos, piece.start + to - pos);
+            }
+            pos += piece.length;
+            if (pos >= end) break;
+        }
+        return out.toString();
+    }
+
+    private void applyReplace(int start, int end, String replacement) {
+        int first = splitAt(start);
+        int last = splitAt(end);
+        for (int i = first; i < last; i++) {
+            Piece piece = pieces.get(i);
+            length -= piece.length;
+            lineBreaks -= piece.lineBreaks;
+        }
+        pieces.subList(first, last).clear();
+
+        if (!replacement.isEmpty()) {
+            int insertedBreaks = countLineBreaks(replacement, 0, replacement.length());
+            Piece previous = first > 0 ? pieces.get(first - 1) : null;
+            if (previous != null && previous.added && previous.start + previous.length == added.length()) {
+                // Typing continues the piece it typed last
+                pieces.set(first - 1, new Piece(true, previous.start, previous.length + replacement.length(),
+                    previous.lineBreaks + insertedBreaks));
+            } else {
+                pieces.add(first, new Piece(true, added.length(), replacement.length(), insertedBreaks));
+            }
+            for (int i = 0; i < replacement.length(); i++) {
+                if (replacement.charAt(i) == '\n') {
+                    addBreak(added.length() + i);
+                }
+            }
+            added.append(replacement);
+            length += replacement.length();
+            lineBreaks += insertedBreaks;
+        }
+
+        snapshot = null;
+        pieceEnds = null;
+        version++;
+        if (pieces.size() > MAX_PIECES) {
+            compact();
+        }
+    }
+
+    /**
+     * Splits the piece containing {@code offset} so a piece starts there, and returns that piece's index.
+     */
+    private int splitAt(int offset) {
+        int pos = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            if (pos == offset) {
+                return i;
+            }
+            Piece piece = pieces.get(i);
+            if (offset < pos + piece.length) {
+                int head = offset - pos;
+                int[] breaks = piece.added ? addedBreaks : originalBreaks;
+                int count = breakCount(piece);
+                int headBreaks = firstAtLeast(breaks, count, piece.start + head) - firstAtLeast(breaks, count, piece.start);
+                pieces.set(i, new Piece(piece.added, piece.start, head, headBreaks));
+                pieces.add(i + 1, new Piece(piece.added, piece.start + head, piece.length - head,
+                    piece.lineBreaks - headBreaks));
+                return i + 1;
+            }
+            pos += piece.length;
+        }
+        return pieces.size();
+    }
+
+    private void compact() {
+        String text = text();
+        original = text;
+        originalBreaks = breakOffsets(text);
+        added.setLength(0);
+        addedBreakCount = 0;
+        pieces.clear();
+        if (!text.isEmpty()) {
+            pieces.add(new Piece(false, 0, text.length(), lineBreaks));
+        }
+        pieceEnds = null;
+    }
+
+    private void index() {
+        if (pieceEnds != null) {
+            return;
+        }
+        int[] ends = new int[pieces.size()];
+        int[] breakEnds = new int[pieces.size()];
+        int pos = 0;
+        int breaks = 0;
+        for (int i = 0; i < ends.length; i++) {
+            Piece piece = pieces.get(i);
+            pos += piece.length;
+            breaks += piece.lineBreaks;
+            ends[i] = pos;
+            breakEnds[i] = breaks;
+        }
+        pieceEnds = ends;
+        pieceBreakEnds = breakEnds;
+    }
+
+    private int breakCount(Piece piece) {
+        return piece.added ? addedBreakCount : originalBreaks.length;
+    }
+
+    private void addBreak(int offset) {
+        if (addedBreakCount == addedBreaks.length) {
+            int[] grown = new int[addedBreaks.length * 2];
+            System.arraycopy(addedBreaks, 0, grown, 0, addedBreakCount);
+            addedBreaks = grown;
+        }
+        addedBreaks[addedBreakCount++] = offset;
+    }
+
+    /**
+     * Index of the first of the ascending {@code values} greater than {@code key}; {@code values.length} if none is.
+     */
+    private static int firstAbove(int[] values, int key) {
+        return firstAtLeast(values, values.length, key + 1);
+    }
+
+    /**
+     * Index of the first of {@code values[0, count)}, ascending, at least {@code key}; {@code count} if none is.
+     */
+    private static int firstAtLeast(int[] values, int count, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private CharSequence source(Piece piece) {
+        return piece.added ? added : original;
+    }
+
+    private void fire(int start, String removed, String inserted) {
+        for (Listener listener : listeners) {
+            listener.onChange(start, removed, inserted);
+        }
+    }
+
+    private static int countLineBreaks(CharSequence text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    private static int[] breakOffsets(String text) {
+        int[] offsets = new int[countLineBreaks(text, 0, text.length())];
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            offsets[count++] = i;
+        }
+        return offsets;
+    }
+}
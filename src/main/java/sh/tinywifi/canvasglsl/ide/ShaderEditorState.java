@@ -3,11 +3,15 @@ package sh.tinywifi.canvasglsl.ide;
 import imgui.type.ImString;
 import sh.tinywifi.canvasglsl.CanvasGLSL;
 import sh.tinywifi.canvasglsl.modules.ShaderBackground;
+import sh.tinywifi.canvasglsl.render.ProgramCache;
+import sh.tinywifi.canvasglsl.render.TierGovernor;
 import sh.tinywifi.canvasglsl.shader.ShaderPresets;
 
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -16,10 +20,26 @@ import java.util.Optional;
  * dirty flagging, active theme, and various toggles influencing behaviour.
  */
 public final class ShaderEditorState {
-    private static final int DEFAULT_BUFFER_CAPACITY = 256 * 1024; // 256 KiB
+    /**
+     * Documents longer than this many characters are edited in large-file mode, see {@link #isLargeFile()}.
+     */
+    public static final int LARGE_FILE_THRESHOLD = 512 * 1024;
+    private static final int INITIAL_BUFFER_CAPACITY = 16 * 1024;
+    private static final int MAX_HISTORIES = 16;
 
     private final ShaderWorkspace workspace;
+    private final ShaderDocument document = new ShaderDocument();
     private final ImString buffer;
+    private boolean bufferStale;
+    // Undo histories of files switched away from this session, most recently used last
+    private final Map<Path, UndoHistory> histories = new LinkedHashMap<>(MAX_HISTORIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, UndoHistory> eldest) {
+            return size() > MAX_HISTORIES;
+        }
+    };
+    private UndoHistory history;
+    private boolean recordingEdits = true;
 
     private Path currentFile;
     private boolean dirty;
@@ -32,6 +52,15 @@ public final class ShaderEditorState {
     private int framerateLimit = 120;
     private boolean disableVsyncDuringOverride = true;
     private float fontScale = 1.0f;
+    private boolean specializeConstants = true;
+    private boolean minify = false;
+    private boolean syntaxCheck = true;
+    private boolean livePreview = true;
+    private boolean readOnly;
+    private int programCacheSize = ProgramCache.DEFAULT_MAX_PROGRAMS;
+    private int programCacheBudgetMb = (int) (ProgramCache.DEFAULT_MAX_BYTES / (1024 * 1024));
+    private float tierBudgetMs = (float) TierGovernor.DEFAULT_BUDGET_MILLIS;
+    private int undoBudgetKb = 1024;
     private ShaderPresets activePreset = ShaderPresets.TRIPPY;
 
     private String statusMessage = "";
@@ -39,19 +68,109 @@ public final class ShaderEditorState {
 
     public ShaderEditorState(ShaderWorkspace workspace) {
         this.workspace = workspace;
-        this.buffer = new ImString(DEFAULT_BUFFER_CAPACITY);
+        this.buffer = new ImString(INITIAL_BUFFER_CAPACITY);
+        this.buffer.inputData.isResizable = true;
         this.theme = ShaderIDETheme.MONOKAI;
+        this.history = new UndoHistory(getUndoBudgetBytes());
+        document.addListener((start, removed, inserted) -> {
+            if (recordingEdits) {
+                history.record(start, removed, inserted, System.nanoTime());
+            }
+        });
         resetToPreset(ShaderPresets.TRIPPY.getShaderCode());
+        history.clear();
     }
 
     public ShaderWorkspace getWorkspace() {
         return workspace;
     }
 
+    /**
+     * The text being edited. Everything that reads the source goes through this.
+     */
+    public ShaderDocument document() {
+        return document;
+    }
+
+    /**
+     * Scratch copy of the document for the ImGui text widget, grown as needed. Edits made by the widget reach the
+     * document through {@link #syncFromWidget()}; other edits go through this class, which marks the copy stale so
+     * it is refreshed here the next time the widget asks for it.
+     */
     public ImString buffer() {
+        if (bufferStale) {
+            buffer.set(document.text(), true);
+            bufferStale = false;
+        }
         return buffer;
     }
 
+    /**
+     * Whether the document is too long for the ImGui text widget, which lays out and copies the whole text every
+     * frame. The editor then draws only the visible lines and edits one line at a time, and never asks for
+     * {@link #buffer()}.
+     */
+    public boolean isLargeFile() {
+        return document.length() > LARGE_FILE_THRESHOLD;
+    }
+
+    /**
+     * Applies what the text widget changed to the document. Returns {@code false} when nothing changed.
+     */
+    public boolean syncFromWidget() {
+        return document.sync(buffer.get());
+    }
+
+    /**
+     * Replaces {@code [start, end)} of the text, marking it unsaved.
+     */
+    public void replaceRange(int start, int end, String replacement) {
+        document.replace(start, end, replacement);
+        bufferStale = true;
+        dirty = true;
+    }
+
+    /**
+     * Reverts the newest edit. Returns where the caret belongs afterwards, or {@code -1} when there was nothing to
+     * undo.
+     */
+    public int undo() {
+        UndoHistory.Edit edit = applyHistory(true);
+        return edit == null ? -1 : edit.start() + edit.removed().length();
+    }
+
+    /**
+     * Applies the newest undone edit again. Returns where the caret belongs afterwards, or {@code -1}.
+     */
+    public int redo() {
+        UndoHistory.Edit edit = applyHistory(false);
+        return edit == null ? -1 : edit.start() + edit.inserted().length();
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    private UndoHistory.Edit applyHistory(boolean undo) {
+        if (readOnly) return null;
+        UndoHistory.Edit edit;
+        recordingEdits = false;
+        try {
+            edit = undo ? history.undo(document) : history.redo(document);
+        } finally {
+            recordingEdits = true;
+        }
+        if (edit != null) {
+            bufferStale = true;
+            dirty = true;
+        }
+        return edit;
+    }
+
     public Optional<Path> currentFile() {
         return Optional.ofNullable(currentFile);
     }
@@ -65,7 +184,7 @@ public final class ShaderEditorState {
     }
 
     public void resetToPreset(String source) {
-        buffer.set(source);
+        open(null, source);
         dirty = true;
         currentFile = null;
         requestFocus = true;
@@ -74,7 +193,7 @@ public final class ShaderEditorState {
     }
 
     public void resetToEmpty() {
-        buffer.set("");
+        open(null, "");
         dirty = true;
         currentFile = null;
         requestFocus = true;
@@ -85,13 +204,30 @@ public final class ShaderEditorState {
     public void applyPreset(ShaderPresets preset) {
         if (preset == null) return;
         activePreset = preset;
-        buffer.set(preset.getShaderCode());
+        open(null, preset.getShaderCode());
         dirty = true;
         currentFile = null;
         requestFocus = true;
         setStatus("Loaded preset " + preset.name());
     }
 
+    /**
+     * Replaces the text of the current file without touching its path, marking it unsaved.
+     */
+    public void replaceText(String source) {
+        document.sync(source);
+        bufferStale = true;
+        dirty = true;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
     public boolean load(Path file) {
         Objects.requireNonNull(file, "file");
 
@@ -101,11 +237,12 @@ public final class ShaderEditorState {
             return false;
         }
 
-        buffer.set(contents);
+        open(file, contents);
         currentFile = file;
         dirty = false;
         requestFocus = true;
-        setStatus("Loaded " + workspace.getRoot().relativize(file));
+        setStatus("Loaded " + workspace.getRoot().relativize(file)
+            + (isLargeFile() ? " (large file, edited line by line)" : ""));
         return true;
     }
 
@@ -116,7 +253,7 @@ public final class ShaderEditorState {
 
     public boolean saveAs(Path file) {
         Objects.requireNonNull(file, "file");
-        boolean ok = workspace.writeFile(file, buffer.get());
+        boolean ok = workspace.writeFile(file, document.text());
         if (ok) {
             currentFile = file;
             dirty = false;
@@ -125,6 +262,31 @@ public final class ShaderEditorState {
         return ok;
     }
 
+    /**
+     * Puts {@code source} in the editor as the text of {@code file}, {@code null} for an unsaved buffer. Staying on
+     * the same file records the change as one undoable edit. Switching files parks the current history and picks up
+     * the new file's if it was left with this very text.
+     */
+    private void open(Path file, String source) {
+        if (Objects.equals(file, currentFile)) {
+            document.sync(source);
+            bufferStale = true;
+            return;
+        }
+        history.leave(document.text());
+        histories.put(currentFile, history);
+        UndoHistory next = histories.remove(file);
+        history = next != null && next.resumesWith(source) ? next : new UndoHistory(getUndoBudgetBytes());
+
+        recordingEdits = false;
+        try {
+            document.setText(source);
+        } finally {
+            recordingEdits = true;
+        }
+        bufferStale = true;
+    }
+
     public void setTheme(ShaderIDETheme theme) {
         if (theme == null) return;
         this.theme = theme;
@@ -208,6 +370,88 @@ public final class ShaderEditorState {
         this.fontScale = Math.max(0.8f, Math.min(2.0f, fontScale));
     }
 
+    public boolean isSpecializeConstantsEnabled() {
+        return specializeConstants;
+    }
+
+    public void setSpecializeConstants(boolean specializeConstants) {
+        this.specializeConstants = specializeConstants;
+    }
+
+    public boolean isMinifyEnabled() {
+        return minify;
+    }
+
+    public void setMinify(boolean minify) {
+        this.minify = minify;
+    }
+
+    public boolean isSyntaxCheckEnabled() {
+        return syntaxCheck;
+    }
+
+    public void setSyntaxCheck(boolean syntaxCheck) {
+        this.syntaxCheck = syntaxCheck;
+    }
+
+    public boolean isLivePreviewEnabled() {
+        return livePreview;
+    }
+
+    public void setLivePreview(boolean livePreview) {
+        this.livePreview = livePreview;
+    }
+
+    public int getProgramCacheSize() {
+        return programCacheSize;
+    }
+
+    public void setProgramCacheSize(int size) {
+        this.programCacheSize = Math.max(1, Math.min(32, size));
+    }
+
+    public int getProgramCacheBudgetMb() {
+        return programCacheBudgetMb;
+    }
+
+    public long getProgramCacheBudgetBytes() {
+        return programCacheBudgetMb * 1024L * 1024L;
+    }
+
+    public void setProgramCacheBudgetMb(int megabytes) {
+        this.programCacheBudgetMb = Math.max(1, Math.min(256, megabytes));
+    }
+
+    /**
+     * GPU time per frame that shaders declaring quality tiers are kept under.
+     */
+    public float getTierBudgetMs() {
+        return tierBudgetMs;
+    }
+
+    public void setTierBudgetMs(float millis) {
+        this.tierBudgetMs = Math.max(0.5f, Math.min(33.0f, millis));
+    }
+
+    /**
+     * Memory each file's undo history may use before its oldest edits are forgotten.
+     */
+    public int getUndoBudgetKb() {
+        return undoBudgetKb;
+    }
+
+    public long getUndoBudgetBytes() {
+        return undoBudgetKb * 1024L;
+    }
+
+    public void setUndoBudgetKb(int kilobytes) {
+        this.undoBudgetKb = Math.max(64, Math.min(16 * 1024, kilobytes));
+        history.setBudget(getUndoBudgetBytes());
+        for (UndoHistory parked : histories.values()) {
+            parked.setBudget(getUndoBudgetBytes());
+        }
+    }
+
     public void setStatus(String message) {
         this.statusMessage = message;
         this.statusSince = Instant.now();
@@ -0,0 +1,376 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import sh.tinywifi.canvasglsl.CanvasGLSL;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Trigram index over the workspace's shaders for find-in-files. Every file is reduced to the sorted set of
+ * case-folded three-character sequences it contains; a query only reads the files holding all of its trigrams to
+ * find the matching lines. Indexing and queries run on a background thread, files are re-read only when their
+ * modification time or size changes, and the index is saved in the workspace root so the next session starts from
+ * it instead of reading every file again.
+ */
+public final class ShaderSearchIndex {
+    public static final int MIN_QUERY_LENGTH = 3;
+
+    private static final String INDEX_FILE = ".canvasglsl-search.bin";
+    private static final int FORMAT = 0x43475431;
+    private static final long MAX_FILE_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_RESULTS = 200;
+    private static final int MAX_PREVIEW = 160;
+    private static final long SAVE_DELAY_MS = 2000L;
+    private static final int[] NO_TRIGRAMS = new int[0];
+
+    /**
+     * A line containing the query. {@code file} is relative to the workspace root and {@code line} counts from zero.
+     */
+    public record Match(Path file, int line, String text) {
+    }
+
+    /**
+     * The newest finished query. {@code truncated} means matches past the first {@value #MAX_RESULTS} were left out.
+     */
+    public record Result(String query, List<Match> matches, boolean truncated, long nanos) {
+        static final Result EMPTY = new Result("", List.of(), false, 0L);
+    }
+
+    private record FileTrigrams(long modified, long size, int[] trigrams) {
+    }
+
+    private final ShaderWorkspace workspace;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CanvasGLSL search index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the worker thread
+    private final Map<Path, FileTrigrams> files = new HashMap<>();
+    private boolean loaded;
+    private boolean unsaved;
+    private ScheduledFuture<?> pendingSave;
+
+    private volatile String requested = "";
+    private volatile Result result = Result.EMPTY;
+
+    ShaderSearchIndex(ShaderWorkspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Walks the workspace and re-indexes files that changed since they were last indexed, starting from the saved
+     * index the first time.
+     */
+    public void refresh() {
+        executor.execute(() -> {
+            try {
+                if (!loaded) {
+                    loaded = true;
+                    load();
+                }
+                scan();
+            } catch (RuntimeException ex) {
+                CanvasGLSL.LOG.warn("Search index scan failed", ex);
+            }
+        });
+    }
+
+    /**
+     * Re-indexes {@code file}, or drops it when it no longer exists.
+     */
+    public void fileChanged(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        executor.execute(() -> {
+            index(key);
+            scheduleSave();
+        });
+    }
+
+    /**
+     * Starts looking for lines containing {@code query}, ignoring case. The answer shows up in {@link #result()};
+     * a query still waiting when a newer one arrives is skipped.
+     */
+    public void search(String query) {
+        requested = query;
+        if (query.length() < MIN_QUERY_LENGTH) {
+            result = new Result(query, List.of(), false, 0L);
+            return;
+        }
+        executor.execute(() -> {
+            if (!query.equals(requested)) return;
+            Result found = find(query);
+            if (found != null) {
+                result = found;
+            }
+        });
+    }
+
+    public Result result() {
+        return result;
+    }
+
+    private Path indexFile() {
+        return workspace.getRoot().resolve(INDEX_FILE);
+    }
+
+    private void scan() {
+        Path root = workspace.getRoot().toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) return;
+
+        Set<Path> seen = new HashSet<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(path -> Files.isRegularFile(path) && workspace.hasSupportedExtension(path))
+                .forEach(path -> {
+                    Path key = path.toAbsolutePath().normalize();
+                    seen.add(key);
+                    index(key);
+                });
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Unable to walk shader workspace for search", ex);
+            return;
+        }
+        unsaved |= files.keySet().retainAll(seen);
+        scheduleSave();
+    }
+
+    private void index(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() > MAX_FILE_BYTES) {
+                unsaved |= files.remove(file) != null;
+                return;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            FileTrigrams known = files.get(file);
+            if (known != null && known.modified() == modified && known.size() == attributes.size()) {
+                return;
+            }
+            String source = Files.readString(file, StandardCharsets.UTF_8);
+            files.put(file, new FileTrigrams(modified, attributes.size(), trigrams(source)));
+            unsaved = true;
+        } catch (IOException ex) {
+            // Deleted, not UTF-8, or unreadable for now
+            unsaved |= files.remove(file) != null;
+        }
+    }
+
+    /**
+     * Lines of the candidate files containing {@code query}, or {@code null} when a newer query superseded it.
+     */
+    private Result find(String query) {
+        long started = System.nanoTime();
+        int[] wanted = trigrams(query);
+        Path root = workspace.getRoot().toAbsolutePath().normalize();
+
+        List<Path> candidates = new ArrayList<>();
+        files.forEach((file, indexed) -> {
+            if (containsAll(indexed.trigrams(), wanted)) {
+                candidates.add(file);
+            }
+        });
+        candidates.sort(null);
+
+        List<Match> matches = new ArrayList<>();
+        boolean truncated = false;
+        for (Path file : candidates) {
+            if (!query.equals(requested)) return null;
+            String text;
+            try {
+                text = Files.readString(file, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                continue;
+            }
+            if (!collectLines(root.relativize(file), text, query, matches)) {
+                truncated = true;
+                break;
+            }
+        }
+        return new Result(query, List.copyOf(matches), truncated, System.nanoTime() - started);
+    }
+
+    /**
+     * Adds each line of {@code text} containing {@code query} once. Returns {@code false} when the result limit was
+     * reached.
+     */
+    private static boolean collectLines(Path file, String text, String query, List<Match> matches) {
+        int line = 0;
+        int lineStart = 0;
+        int scanned = 0;
+        int from = 0;
+        for (int at = indexOfIgnoreCase(text, query, from); at >= 0; at = indexOfIgnoreCase(text, query, from)) {
+            for (; scanned < at; scanned++) {
+                if (text.charAt(scanned) == '\n') {
+                    line++;
+                    lineStart = scanned + 1;
+                }
+            }
+            int lineEnd = text.indexOf('\n', at);
+            if (lineEnd < 0) lineEnd = text.length();
+            if (matches.size() >= MAX_RESULTS) return false;
+            matches.add(new Match(file, line, preview(text, lineStart, lineEnd)));
+            from = lineEnd + 1;
+        }
+        return true;
+    }
+
+    private static int indexOfIgnoreCase(String text, String query, int from) {
+        int last = text.length() - query.length();
+        for (int i = from; i <= last; i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String preview(String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        return end - start > MAX_PREVIEW ? text.substring(start, start + MAX_PREVIEW) + "..." : text.substring(start, end);
+    }
+
+    /**
+     * Sorted distinct trigrams of {@code text}, each character lower-cased and folded into ten bits. Folding lets
+     * unrelated characters collide, which only adds candidates that the line scan then rejects.
+     */
+    static int[] trigrams(CharSequence text) {
+        int length = text.length();
+        if (length < 3) return NO_TRIGRAMS;
+        int[] all = new int[length - 2];
+        int a = fold(text.charAt(0));
+        int b = fold(text.charAt(1));
+        for (int i = 2; i < length; i++) {
+            int c = fold(text.charAt(i));
+            all[i - 2] = a << 20 | b << 10 | c;
+            a = b;
+            b = c;
+        }
+        Arrays.sort(all);
+        int distinct = 1;
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] != all[distinct - 1]) {
+                all[distinct++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, distinct);
+    }
+
+    private static int fold(char c) {
+        return Character.toLowerCase(c) & 0x3FF;
+    }
+
+    private static boolean containsAll(int[] trigrams, int[] wanted) {
+        for (int trigram : wanted) {
+            if (Arrays.binarySearch(trigrams, trigram) < 0) return false;
+        }
+        return true;
+    }
+
+    private void scheduleSave() {
+        if (!unsaved || pendingSave != null) return;
+        pendingSave = executor.schedule(() -> {
+            pendingSave = null;
+            save();
+        }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the saved index: per file its path relative to the workspace root, modification time, size and
+     * trigrams, delta-encoded as variable-length integers.
+     */
+    private void load() {
+        Path indexFile = indexFile();
+        if (!Files.exists(indexFile)) return;
+        Path root = workspace.getRoot().toAbsolutePath().normalize();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT) {
+                CanvasGLSL.LOG.info("Ignoring search index {} written by another version", indexFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Path file = root.resolve(in.readUTF()).normalize();
+                long modified = in.readLong();
+                long size = in.readLong();
+                int[] trigrams = new int[in.readInt()];
+                int previous = 0;
+                for (int t = 0; t < trigrams.length; t++) {
+                    previous += readVarInt(in);
+                    trigrams[t] = previous;
+                }
+                files.put(file, new FileTrigrams(modified, size, trigrams));
+            }
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Discarding unreadable search index {}", indexFile, ex);
+            files.clear();
+        }
+    }
+
+    private void save() {
+        Path indexFile = indexFile();
+        Path temp = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        Path root = workspace.getRoot().toAbsolutePath().normalize();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FORMAT);
+                out.writeInt(files.size());
+                for (Map.Entry<Path, FileTrigrams> entry : files.entrySet()) {
+                    FileTrigrams indexed = entry.getValue();
+                    out.writeUTF(root.relativize(entry.getKey()).toString());
+                    out.writeLong(indexed.modified());
+                    out.writeLong(indexed.size());
+                    out.writeInt(indexed.trigrams().length);
+                    int previous = 0;
+                    for (int trigram : indexed.trigrams()) {
+                        writeVarInt(out, trigram - previous);
+                        previous = trigram;
+                    }
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            unsaved = false;
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Failed to save search index {}", indexFile, ex);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
@@ -1,6 +1,7 @@
 package sh.tinywifi.canvasglsl.ide;
 
 import sh.tinywifi.canvasglsl.CanvasGLSL;
+import sh.tinywifi.canvasglsl.render.IncludeResolver;
 
 import net.minecraft.client.MinecraftClient;
 
@@ -26,10 +27,21 @@ public final class ShaderWorkspace {
     private static final String MEDIA_DESCRIPTOR_EXTENSION = ".media.json";
 
     private final Path root;
+    private final IncludeResolver includes;
+    private final ShaderSymbolIndex symbols;
+    private final ShaderSearchIndex search;
+    private final WorkspaceTree tree;
 
     private ShaderWorkspace(Path root) {
         this.root = root;
+        this.includes = new IncludeResolver(root);
+        this.symbols = new ShaderSymbolIndex(this);
+        this.search = new ShaderSearchIndex(this);
+        this.tree = new WorkspaceTree(this);
         ensureExists();
+        symbols.refresh();
+        search.refresh();
+        tree.start();
     }
 
     public static ShaderWorkspace open() {
@@ -50,6 +62,35 @@ public final class ShaderWorkspace {
         return root;
     }
 
+    /**
+     * Resolves {@code #include} directives relative to the workspace root and tracks which shaders use which library.
+     */
+    public IncludeResolver getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Declarations across the workspace, for completion. Files written or deleted through this class are re-indexed
+     * automatically.
+     */
+    public ShaderSymbolIndex getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Trigram index of the workspace's text, for find-in-files. Kept up to date like {@link #getSymbols()}.
+     */
+    public ShaderSearchIndex getSearch() {
+        return search;
+    }
+
+    /**
+     * Folders and files for the file pane, loaded in the background and updated as the workspace changes on disk.
+     */
+    public WorkspaceTree getTree() {
+        return tree;
+    }
+
     public List<Entry> listEntries() {
         if (!Files.exists(root)) return Collections.emptyList();
 
@@ -82,6 +123,10 @@ public final class ShaderWorkspace {
         try {
             Files.createDirectories(path.getParent());
             Files.writeString(path, contents, StandardCharsets.UTF_8);
+            if (hasSupportedExtension(path)) {
+                symbols.fileChanged(path);
+                search.fileChanged(path);
+            }
             return true;
         } catch (IOException ex) {
             CanvasGLSL.LOG.error("Failed to write shader file {}", path, ex);
@@ -92,6 +137,8 @@ public final class ShaderWorkspace {
     public boolean deleteFile(Path path) {
         try {
             Files.deleteIfExists(path);
+            symbols.fileChanged(path);
+            search.fileChanged(path);
             return true;
         } catch (IOException ex) {
             CanvasGLSL.LOG.error("Failed to delete shader file {}", path, ex);
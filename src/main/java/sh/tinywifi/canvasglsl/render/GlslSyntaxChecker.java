@@ -0,0 +1,747 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Java-side GLSL check for the mistakes a driver would reject: unbalanced brackets, stray characters, unmatched
+ * conditionals, missing semicolons and undeclared identifiers. It needs no GL context, so the editor can run it
+ * while typing and the renderer only hands the driver sources that pass.
+ *
+ * This is a token-level check rather than a parser. Declarations are recognised by shape (a type followed by a
+ * name, or a comma inside a declaration), locals are scoped by braces, and code inside {@code #if 0} is ignored.
+ * Only the first live arm of each conditional is checked, as if every condition held. When the source defines
+ * function-like macros, has includes that could not be expanded or has {@code #else}/{@code #elif} arms that were
+ * left out, anything the preprocessor might hide is reported as a warning instead of an error, brackets included.
+ */
+public final class GlslSyntaxChecker {
+    public enum Severity {
+        ERROR,
+        WARNING
+    }
+
+    /**
+     * One finding. {@code line} is 1-based, {@code start} and {@code end} are offsets into the checked source.
+     */
+    public record Diagnostic(Severity severity, int line, int start, int end, String message) {
+    }
+
+    private static final int MAX_DIAGNOSTICS = 200;
+
+    private static final Set<String> KEYWORDS = Set.of(
+        "attribute", "const", "uniform", "varying", "buffer", "shared", "coherent", "volatile", "restrict",
+        "readonly", "writeonly", "layout", "centroid", "flat", "smooth", "noperspective", "patch", "sample",
+        "in", "out", "inout", "invariant", "precise", "lowp", "mediump", "highp", "precision", "subroutine",
+        "break", "continue", "do", "for", "while", "switch", "case", "default", "if", "else", "discard", "return",
+        "struct", "true", "false"
+    );
+
+    // Qualifiers that can start an interface block: uniform Params { ... } params;
+    private static final Set<String> BLOCK_QUALIFIERS = Set.of("uniform", "buffer", "in", "out");
+
+    private static final Set<String> TYPES = Set.of(
+        "void", "bool", "int", "uint", "float", "double",
+        "vec2", "vec3", "vec4", "dvec2", "dvec3", "dvec4", "ivec2", "ivec3", "ivec4",
+        "uvec2", "uvec3", "uvec4", "bvec2", "bvec3", "bvec4",
+        "mat2", "mat3", "mat4", "mat2x2", "mat2x3", "mat2x4", "mat3x2", "mat3x3", "mat3x4",
+        "mat4x2", "mat4x3", "mat4x4", "dmat2", "dmat3", "dmat4", "atomic_uint"
+    );
+
+    private static final Set<String> BUILT_INS = Set.of(
+        // Uniforms and outputs ShaderPatcher declares
+        "iTime", "iResolution", "iMouse", "iFrame", "iTimeDelta", "iDate", "iSampleRate", "iChannelTime",
+        "iChannelResolution", "iChannel0", "iChannel1", "iChannel2", "iChannel3", "fragColor", "fragmentColor",
+        // Predefined macros
+        "__LINE__", "__FILE__", "__VERSION__", "GL_ES", "GL_core_profile", "defined",
+        // Functions
+        "radians", "degrees", "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh", "asinh",
+        "acosh", "atanh", "pow", "exp", "log", "exp2", "log2", "sqrt", "inversesqrt", "abs", "sign", "floor",
+        "trunc", "round", "roundEven", "ceil", "fract", "mod", "modf", "min", "max", "clamp", "mix", "step",
+        "smoothstep", "isnan", "isinf", "floatBitsToInt", "floatBitsToUint", "intBitsToFloat", "uintBitsToFloat",
+        "fma", "frexp", "ldexp", "packUnorm2x16", "packSnorm2x16", "packUnorm4x8", "packSnorm4x8",
+        "unpackUnorm2x16", "unpackSnorm2x16", "unpackUnorm4x8", "unpackSnorm4x8", "packHalf2x16",
+        "unpackHalf2x16", "packDouble2x32", "unpackDouble2x32", "length", "distance", "dot", "cross",
+        "normalize", "faceforward", "reflect", "refract", "matrixCompMult", "outerProduct", "transpose",
+        "determinant", "inverse", "lessThan", "lessThanEqual", "greaterThan", "greaterThanEqual", "equal",
+        "notEqual", "any", "all", "not", "uaddCarry", "usubBorrow", "umulExtended", "imulExtended",
+        "bitfieldExtract", "bitfieldInsert", "bitfieldReverse", "bitCount", "findLSB", "findMSB",
+        "textureSize", "textureQueryLod", "textureQueryLevels", "textureSamples", "texture", "textureProj",
+        "textureLod", "textureOffset", "texelFetch", "texelFetchOffset", "textureProjOffset", "textureLodOffset",
+        "textureProjLod", "textureProjLodOffset", "textureGrad", "textureGradOffset", "textureProjGrad",
+        "textureProjGradOffset", "textureGather", "textureGatherOffset", "textureGatherOffsets",
+        "texture1D", "texture2D", "texture3D", "textureCube", "texture2DLod", "texture2DProj", "texture2DProjLod",
+        "textureCubeLod", "shadow2D", "shadow2DProj", "dFdx", "dFdy", "dFdxFine", "dFdyFine", "dFdxCoarse",
+        "dFdyCoarse", "fwidth", "fwidthFine", "fwidthCoarse", "interpolateAtCentroid", "interpolateAtSample",
+        "interpolateAtOffset", "noise1", "noise2", "noise3", "noise4", "imageSize", "imageLoad", "imageStore",
+        "atomicAdd", "atomicMin", "atomicMax", "atomicAnd", "atomicOr", "atomicXor", "atomicExchange",
+        "atomicCompSwap", "atomicCounter", "atomicCounterIncrement", "atomicCounterDecrement", "barrier",
+        "memoryBarrier", "groupMemoryBarrier"
+    );
+
+    private static final Set<String> STATEMENTS = Set.of(
+        "return", "if", "for", "while", "do", "switch", "discard", "break", "continue"
+    );
+
+    private static final Set<String> DIRECTIVES = Set.of(
+        "define", "undef", "if", "ifdef", "ifndef", "else", "elif", "endif", "error", "pragma", "extension",
+        "version", "line", "include"
+    );
+
+    private GlslSyntaxChecker() {
+    }
+
+    /**
+     * Checks {@code source}. {@code context} is the include-expanded shader the source belongs to, used only to
+     * learn which names exist; pass {@code null} when the source is already self-contained. With
+     * {@code requireEntryPoint} a source without {@code main} or {@code mainImage} is an error, which suits whole
+     * shaders but not the libraries they include.
+     */
+    public static List<Diagnostic> check(String source, String context, boolean requireEntryPoint) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        Tokens tokens = Tokens.of(source, diagnostics);
+
+        Set<String> globals = new HashSet<>(tokens.macros);
+        boolean relaxed = tokens.functionMacros || tokens.skippedArms;
+        if (context != null && context != source) {
+            Tokens expanded = Tokens.of(context, new ArrayList<>());
+            globals.addAll(expanded.macros);
+            relaxed |= expanded.functionMacros || expanded.skippedArms;
+            if (expanded.balanced(null)) {
+                Checker contextChecker = new Checker(expanded, relaxed, new ArrayList<>());
+                contextChecker.classify();
+                contextChecker.collectGlobals(globals);
+            }
+        } else if (tokens.hasIncludes) {
+            // Declarations from the libraries are unknown
+            relaxed = true;
+        }
+
+        if (!tokens.balanced(diagnostics)) {
+            // Scopes cannot be trusted once brackets are off; the bracket errors are the useful part
+            return sorted(diagnostics);
+        }
+
+        Checker checker = new Checker(tokens, relaxed, diagnostics);
+        checker.classify();
+        boolean hasEntryPoint = checker.collectGlobals(globals);
+        checker.checkUses(globals);
+
+        if (requireEntryPoint && !hasEntryPoint) {
+            diagnostics.add(new Diagnostic(Severity.ERROR, 1, 0, Math.min(1, source.length()),
+                "No main() or mainImage() function"));
+        }
+        return sorted(diagnostics);
+    }
+
+    public static boolean hasErrors(List<Diagnostic> diagnostics) {
+        for (Diagnostic diagnostic : diagnostics) {
+            if (diagnostic.severity() == Severity.ERROR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The first error, or {@code null} when there is none.
+     */
+    public static Diagnostic firstError(List<Diagnostic> diagnostics) {
+        for (Diagnostic diagnostic : diagnostics) {
+            if (diagnostic.severity() == Severity.ERROR) {
+                return diagnostic;
+            }
+        }
+        return null;
+    }
+
+    private static List<Diagnostic> sorted(List<Diagnostic> diagnostics) {
+        diagnostics.sort((a, b) -> Integer.compare(a.start(), b.start()));
+        if (diagnostics.size() > MAX_DIAGNOSTICS) {
+            return new ArrayList<>(diagnostics.subList(0, MAX_DIAGNOSTICS));
+        }
+        return diagnostics;
+    }
+
+    private static boolean isType(String name) {
+        return TYPES.contains(name)
+            || name.startsWith("sampler") || name.startsWith("isampler") || name.startsWith("usampler")
+            || name.startsWith("image") || name.startsWith("iimage") || name.startsWith("uimage");
+    }
+
+    /**
+     * Source tokens outside directives, {@code #if 0} blocks and the alternative arms of conditionals, with matched
+     * brackets.
+     */
+    private static final class Tokens {
+        final String source;
+        GlslLexer.Token[] kinds = new GlslLexer.Token[256];
+        int[] starts = new int[256];
+        int[] ends = new int[256];
+        int[] lines = new int[256];
+        int[] match;
+        int count;
+
+        final Set<String> macros = new HashSet<>();
+        boolean functionMacros;
+        boolean hasIncludes;
+        // An #else or #elif arm was left out, so declarations and brackets in it are unseen
+        boolean skippedArms;
+
+        private Tokens(String source) {
+            this.source = source;
+        }
+
+        static Tokens of(String source, List<Diagnostic> diagnostics) {
+            Tokens tokens = new Tokens(source);
+            GlslLexer lexer = new GlslLexer(source);
+            List<int[]> conditionals = new ArrayList<>();
+            int skipDepth = 0;
+            boolean first = true;
+
+            while (lexer.next() != GlslLexer.Token.END) {
+                if (lexer.token() == GlslLexer.Token.DIRECTIVE) {
+                    skipDepth = tokens.directive(lexer, first, skipDepth, conditionals, diagnostics);
+                } else if (skipDepth == 0) {
+                    tokens.add(lexer);
+                    if (lexer.token() == GlslLexer.Token.OPERATOR && isStray(source.charAt(lexer.start()))) {
+                        diagnostics.add(new Diagnostic(Severity.ERROR, lexer.line(), lexer.start(), lexer.end(),
+                            "Unexpected character '" + source.charAt(lexer.start()) + "'"));
+                    }
+                }
+                first = false;
+            }
+
+            for (int[] open : conditionals) {
+                diagnostics.add(new Diagnostic(Severity.ERROR, open[0], open[1], open[2], "#if without #endif"));
+            }
+            return tokens;
+        }
+
+        private int directive(GlslLexer lexer, boolean first, int skipDepth, List<int[]> conditionals,
+                              List<Diagnostic> diagnostics) {
+            String name = lexer.directiveName();
+            if (name == null) {
+                return skipDepth;
+            }
+            int line = lexer.line();
+            int start = lexer.start();
+            int end = lexer.end();
+
+            switch (name) {
+                case "if", "ifdef", "ifndef" -> {
+                    // The fourth slot records whether an arm of this conditional is being or has been checked
+                    int[] conditional = {line, start, end, 0};
+                    conditionals.add(conditional);
+                    if (skipDepth > 0) {
+                        return skipDepth + 1;
+                    }
+                    if ("if".equals(name) && isDisabledIf(start, end)) {
+                        return 1;
+                    }
+                    conditional[3] = 1;
+                    return 0;
+                }
+                case "else", "elif" -> {
+                    if (conditionals.isEmpty()) {
+                        diagnostics.add(new Diagnostic(Severity.ERROR, line, start, end, "#" + name + " without #if"));
+                        return skipDepth;
+                    }
+                    int[] conditional = conditionals.get(conditionals.size() - 1);
+                    if (skipDepth == 0) {
+                        // Checking both arms together would pair brackets that never coexist
+                        skippedArms = true;
+                        return 1;
+                    }
+                    if (skipDepth == 1 && conditional[3] == 0) {
+                        conditional[3] = 1;
+                        return 0;
+                    }
+                    return skipDepth;
+                }
+                case "endif" -> {
+                    if (conditionals.isEmpty()) {
+                        diagnostics.add(new Diagnostic(Severity.ERROR, line, start, end, "#endif without #if"));
+                        return skipDepth;
+                    }
+                    conditionals.remove(conditionals.size() - 1);
+                    return Math.max(0, skipDepth - 1);
+                }
+                default -> {
+                }
+            }
+
+            if (skipDepth > 0) {
+                return skipDepth;
+            }
+
+            switch (name) {
+                case "version" -> {
+                    if (!first) {
+                        diagnostics.add(new Diagnostic(Severity.ERROR, line, start, end,
+                            "#version must come before anything else"));
+                    }
+                }
+                case "define" -> define(start, end, line, diagnostics);
+                case "include" -> hasIncludes = true;
+                case "pragma" -> {
+                    // Tier keys are defined by the patcher in every variant
+                    ShaderPatcher.Tier tier = ShaderPatcher.parseTier(source.substring(start, end));
+                    if (tier != null) {
+                        macros.addAll(tier.defines().keySet());
+                    }
+                }
+                case "error" -> {
+                    if (conditionals.isEmpty()) {
+                        diagnostics.add(new Diagnostic(Severity.ERROR, line, start, end, source.substring(start, end)));
+                    }
+                }
+                default -> {
+                    if (!DIRECTIVES.contains(name)) {
+                        diagnostics.add(new Diagnostic(Severity.ERROR, line, start, end, "Unknown directive #" + name));
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private void define(int start, int end, int line, List<Diagnostic> diagnostics) {
+            GlslLexer body = new GlslLexer(source, start + 1, end);
+            body.next();
+            if (body.next() != GlslLexer.Token.IDENTIFIER) {
+                diagnostics.add(new Diagnostic(Severity.ERROR, line, start, end, "#define needs a macro name"));
+                return;
+            }
+            macros.add(body.text());
+            int nameEnd = body.end();
+            if (body.next() == GlslLexer.Token.OPERATOR && body.isOperator('(') && body.start() == nameEnd) {
+                functionMacros = true;
+            }
+        }
+
+        private boolean isDisabledIf(int start, int end) {
+            GlslLexer body = new GlslLexer(source, start + 1, end);
+            body.next();
+            return body.next() == GlslLexer.Token.NUMBER && body.is("0") && body.next() == GlslLexer.Token.END;
+        }
+
+        private void add(GlslLexer lexer) {
+            if (count == kinds.length) {
+                int size = count * 2;
+                kinds = Arrays.copyOf(kinds, size);
+                starts = Arrays.copyOf(starts, size);
+                ends = Arrays.copyOf(ends, size);
+                lines = Arrays.copyOf(lines, size);
+            }
+            kinds[count] = lexer.token();
+            starts[count] = lexer.start();
+            ends[count] = lexer.end();
+            lines[count] = lexer.line();
+            count++;
+        }
+
+        /**
+         * Pairs every bracket with its partner in {@link #match}. Returns whether all of them pair up, reporting the
+         * ones that do not when {@code diagnostics} is given.
+         */
+        boolean balanced(List<Diagnostic> diagnostics) {
+            match = new int[count];
+            Arrays.fill(match, -1);
+            int[] stack = new int[16];
+            int depth = 0;
+            boolean balanced = true;
+
+            for (int i = 0; i < count; i++) {
+                char c = bracket(i);
+                if (c == '(' || c == '[' || c == '{') {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = i;
+                } else if (c == ')' || c == ']' || c == '}') {
+                    char open = c == ')' ? '(' : c == ']' ? '[' : '{';
+                    int at = depth - 1;
+                    while (at >= 0 && bracket(stack[at]) != open) {
+                        at--;
+                    }
+                    if (at < 0) {
+                        balanced = false;
+                        report(diagnostics, i, "Unmatched '" + c + "'");
+                        continue;
+                    }
+                    for (int j = depth - 1; j > at; j--) {
+                        balanced = false;
+                        report(diagnostics, stack[j], "'" + bracket(stack[j]) + "' is never closed");
+                    }
+                    match[stack[at]] = i;
+                    match[i] = stack[at];
+                    depth = at;
+                }
+            }
+            for (int j = 0; j < depth; j++) {
+                balanced = false;
+                report(diagnostics, stack[j], "'" + bracket(stack[j]) + "' is never closed");
+            }
+            return balanced;
+        }
+
+        private void report(List<Diagnostic> diagnostics, int token, String message) {
+            if (diagnostics != null) {
+                Severity severity = skippedArms ? Severity.WARNING : Severity.ERROR;
+                diagnostics.add(new Diagnostic(severity, lines[token], starts[token], ends[token], message));
+            }
+        }
+
+        char bracket(int i) {
+            if (kinds[i] != GlslLexer.Token.OPERATOR || ends[i] - starts[i] != 1) {
+                return 0;
+            }
+            return source.charAt(starts[i]);
+        }
+
+        boolean is(int i, String text) {
+            return source.startsWith(text, starts[i]) && ends[i] - starts[i] == text.length();
+        }
+
+        String text(int i) {
+            return source.substring(starts[i], ends[i]);
+        }
+
+        private static boolean isStray(char c) {
+            return c == '@' || c == '$' || c == '`' || c == '"' || c == '\'' || c == '\\';
+        }
+    }
+
+    /**
+     * Classifies identifiers as declarations or uses and walks the scopes.
+     */
+    private static final class Checker {
+        private static final byte USE = 0;
+        private static final byte DECLARATION = 1;
+        private static final byte IGNORED = 2;
+
+        private final Tokens tokens;
+        private final boolean relaxed;
+        private final List<Diagnostic> diagnostics;
+        private final byte[] roles;
+        private final boolean[] functionBodies;
+        private final Set<String> structs = new HashSet<>();
+
+        Checker(Tokens tokens, boolean relaxed, List<Diagnostic> diagnostics) {
+            this.tokens = tokens;
+            this.relaxed = relaxed;
+            this.diagnostics = diagnostics;
+            this.roles = new byte[tokens.count];
+            this.functionBodies = new boolean[tokens.count];
+        }
+
+        void classify() {
+            for (int i = 0; i + 1 < tokens.count; i++) {
+                if (tokens.kinds[i] == GlslLexer.Token.IDENTIFIER && tokens.is(i, "struct")
+                    && tokens.kinds[i + 1] == GlslLexer.Token.IDENTIFIER) {
+                    structs.add(tokens.text(i + 1));
+                }
+            }
+
+            int depth = 0;
+            int braceDepth = 0;
+            int listDepth = -1;
+            for (int i = 0; i < tokens.count; i++) {
+                GlslLexer.Token kind = tokens.kinds[i];
+                if (kind == GlslLexer.Token.OPERATOR) {
+                    char c = tokens.bracket(i);
+                    if (c == '{') {
+                        functionBodies[i] = braceDepth == 0 && i > 0 && tokens.bracket(i - 1) == ')';
+                        braceDepth++;
+                        depth++;
+                        listDepth = -1;
+                    } else if (c == '(' || c == '[') {
+                        depth++;
+                    } else if (c == ')' || c == ']' || c == '}') {
+                        depth--;
+                        if (c == '}') {
+                            braceDepth--;
+                        }
+                        if (depth < listDepth) {
+                            listDepth = -1;
+                        }
+                    } else if (c == ';') {
+                        listDepth = -1;
+                    }
+                    continue;
+                }
+                if (kind != GlslLexer.Token.IDENTIFIER) {
+                    continue;
+                }
+
+                String name = tokens.text(i);
+                if (KEYWORDS.contains(name) || isType(name)) {
+                    roles[i] = IGNORED;
+                    if ("layout".equals(name) && i + 1 < tokens.count && tokens.bracket(i + 1) == '(') {
+                        // layout(location = 0): qualifier names, not identifiers
+                        for (int j = i + 1; j <= tokens.match[i + 1]; j++) {
+                            roles[j] = IGNORED;
+                        }
+                        i = tokens.match[i + 1];
+                    }
+                    continue;
+                }
+
+                int previous = i - 1;
+                if (previous < 0) {
+                    roles[i] = USE;
+                } else if (tokens.bracket(previous) == '.') {
+                    roles[i] = IGNORED;
+                } else if (isBlockName(i)) {
+                    roles[i] = DECLARATION;
+                } else if (tokens.kinds[previous] == GlslLexer.Token.IDENTIFIER) {
+                    roles[i] = declaresAfterIdentifier(previous, i) ? DECLARATION : USE;
+                } else if (tokens.bracket(previous) == ']' && isTypeAt(tokens.match[previous] - 1)) {
+                    // float[3] values
+                    roles[i] = DECLARATION;
+                } else if (tokens.bracket(previous) == '}' && braceDepth == 0
+                    && (isTypeAt(tokens.match[previous] - 1) || isBlockName(tokens.match[previous] - 1))) {
+                    // struct Light { ... } light; and the instance of uniform Params { ... } params;
+                    roles[i] = DECLARATION;
+                } else if (tokens.bracket(previous) == ',' && depth == listDepth) {
+                    roles[i] = DECLARATION;
+                } else {
+                    roles[i] = USE;
+                }
+
+                if (roles[i] == DECLARATION && !(previous >= 0 && tokens.is(previous, "struct"))) {
+                    listDepth = depth;
+                }
+            }
+        }
+
+        private boolean declaresAfterIdentifier(int previous, int current) {
+            String type = tokens.text(previous);
+            if ("struct".equals(type)) {
+                return true;
+            }
+            if (KEYWORDS.contains(type)) {
+                // Qualifiers come before a type, and return/else/case before an expression
+                return false;
+            }
+            // Two names on separate lines are more likely a missing semicolon than a declaration
+            return isTypeName(type) || tokens.lines[previous] == tokens.lines[current];
+        }
+
+        /**
+         * Whether token {@code i} names an interface block, as {@code Params} in {@code uniform Params { ... }}.
+         */
+        private boolean isBlockName(int i) {
+            return i > 0 && i + 1 < tokens.count && tokens.kinds[i] == GlslLexer.Token.IDENTIFIER
+                && tokens.kinds[i - 1] == GlslLexer.Token.IDENTIFIER && BLOCK_QUALIFIERS.contains(tokens.text(i - 1))
+                && tokens.bracket(i + 1) == '{';
+        }
+
+        private boolean isTypeAt(int i) {
+            return i >= 0 && tokens.kinds[i] == GlslLexer.Token.IDENTIFIER
+                && (isTypeName(tokens.text(i)) || i > 0 && tokens.is(i - 1, "struct"));
+        }
+
+        private boolean isTypeName(String name) {
+            return isType(name) || structs.contains(name) || tokens.macros.contains(name);
+        }
+
+        private boolean isInsideBody(int token) {
+            for (int i = token; i >= 0; i--) {
+                char c = tokens.bracket(i);
+                if (c == '}' || c == ')' || c == ']') {
+                    i = tokens.match[i];
+                } else if (c == '(' || c == '[') {
+                    return false;
+                } else if (c == '{') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Adds every name declared outside function bodies to {@code globals}. Returns whether {@code main} or
+         * {@code mainImage} is defined.
+         */
+        boolean collectGlobals(Set<String> globals) {
+            boolean entryPoint = false;
+            int bodyDepth = 0;
+            int parenDepth = 0;
+            for (int i = 0; i < tokens.count; i++) {
+                char c = tokens.bracket(i);
+                if (c == '{') {
+                    if (functionBodies[i] || bodyDepth > 0) {
+                        bodyDepth++;
+                    }
+                } else if (c == '}') {
+                    if (bodyDepth > 0) {
+                        bodyDepth--;
+                    }
+                } else if (c == '(') {
+                    parenDepth++;
+                } else if (c == ')') {
+                    parenDepth--;
+                } else if (roles[i] == DECLARATION && tokens.kinds[i] == GlslLexer.Token.IDENTIFIER
+                    && bodyDepth == 0 && parenDepth == 0) {
+                    String name = tokens.text(i);
+                    globals.add(name);
+                    if (("main".equals(name) || "mainImage".equals(name))
+                        && i + 1 < tokens.count && tokens.bracket(i + 1) == '(') {
+                        entryPoint = true;
+                    }
+                }
+            }
+            return entryPoint;
+        }
+
+        /**
+         * Walks the tokens with a scope per brace and reports names that are neither built in, global nor declared
+         * earlier in an enclosing scope. Also flags statements that run into the next line without a semicolon.
+         */
+        void checkUses(Set<String> globals) {
+            List<Set<String>> scopes = new ArrayList<>();
+            Set<String> parameters = new HashSet<>();
+            int braceDepth = 0;
+            int parenDepth = 0;
+
+            for (int i = 0; i < tokens.count; i++) {
+                GlslLexer.Token kind = tokens.kinds[i];
+                if (kind == GlslLexer.Token.OPERATOR) {
+                    char c = tokens.bracket(i);
+                    if (c == '{') {
+                        Set<String> scope = new HashSet<>();
+                        if (functionBodies[i]) {
+                            scope.addAll(parameters);
+                        }
+                        parameters.clear();
+                        scopes.add(scope);
+                        braceDepth++;
+                    } else if (c == '}') {
+                        checkBlockEnd(i);
+                        scopes.remove(scopes.size() - 1);
+                        braceDepth--;
+                    } else if (c == '(') {
+                        parenDepth++;
+                    } else if (c == ')') {
+                        parenDepth--;
+                    } else if (c == ';' && braceDepth == 0) {
+                        parameters.clear();
+                    }
+                    continue;
+                }
+
+                if (startsStatement(i)) {
+                    checkStatementBoundary(i, braceDepth, parenDepth);
+                }
+                if (kind != GlslLexer.Token.IDENTIFIER || roles[i] == IGNORED) {
+                    continue;
+                }
+
+                String name = tokens.text(i);
+                if (roles[i] == DECLARATION) {
+                    if (braceDepth == 0 && parenDepth > 0) {
+                        parameters.add(name);
+                    } else if (!scopes.isEmpty()) {
+                        scopes.get(scopes.size() - 1).add(name);
+                    }
+                    continue;
+                }
+
+                if (isKnown(name, globals, scopes)) {
+                    continue;
+                }
+                add(relaxed ? Severity.WARNING : Severity.ERROR, i, "'" + name + "' is not declared");
+            }
+        }
+
+        private boolean startsStatement(int i) {
+            GlslLexer.Token kind = tokens.kinds[i];
+            if (kind == GlslLexer.Token.NUMBER) {
+                return true;
+            }
+            if (kind != GlslLexer.Token.IDENTIFIER) {
+                return false;
+            }
+            String name = tokens.text(i);
+            return roles[i] == USE || isType(name) || STATEMENTS.contains(name);
+        }
+
+        /**
+         * A value, declaration or statement on a later line straight after a finished expression means the previous
+         * statement lacks its semicolon: {@code x = 1.0} followed by {@code y = 2.0;}.
+         */
+        private void checkStatementBoundary(int i, int braceDepth, int parenDepth) {
+            if (i == 0 || braceDepth == 0 || parenDepth > 0) {
+                return;
+            }
+            int previous = i - 1;
+            if (tokens.lines[previous] == tokens.lines[i]) {
+                return;
+            }
+            if (endsExpression(previous) && isInsideBody(previous)) {
+                add(relaxed ? Severity.WARNING : Severity.ERROR, previous,
+                    "Missing ';' after '" + tokens.text(previous) + "'");
+            }
+        }
+
+        /**
+         * A block closing straight after an expression, as in {@code { x = 1.0 }}. Initializer lists such as
+         * {@code {1.0, 2.0}} legitimately end that way and are told apart by what precedes their opening brace.
+         */
+        private void checkBlockEnd(int close) {
+            int previous = close - 1;
+            int open = tokens.match[close];
+            if (previous <= open || !endsExpression(previous)) {
+                return;
+            }
+            char before = open > 0 ? tokens.bracket(open - 1) : 0;
+            if (before == '=' || before == ',' || before == '{' || before == '(') {
+                return;
+            }
+            add(relaxed ? Severity.WARNING : Severity.ERROR, previous,
+                "Missing ';' after '" + tokens.text(previous) + "'");
+        }
+
+        private boolean endsExpression(int i) {
+            GlslLexer.Token kind = tokens.kinds[i];
+            char c = tokens.bracket(i);
+            return kind == GlslLexer.Token.NUMBER
+                || kind == GlslLexer.Token.IDENTIFIER && !KEYWORDS.contains(tokens.text(i))
+                || c == ']'
+                || c == ')' && !closesHeader(i)
+                || tokens.is(i, "++") || tokens.is(i, "--");
+        }
+
+        /**
+         * Whether the {@code )} at {@code close} ends an {@code if}/{@code for}/{@code while}/{@code switch} header
+         * or a macro call, after which a statement may legally start on the next line.
+         */
+        private boolean closesHeader(int close) {
+            int before = tokens.match[close] - 1;
+            if (before < 0 || tokens.kinds[before] != GlslLexer.Token.IDENTIFIER) {
+                return false;
+            }
+            return tokens.is(before, "if") || tokens.is(before, "for") || tokens.is(before, "while")
+                || tokens.is(before, "switch") || tokens.macros.contains(tokens.text(before));
+        }
+
+        private boolean isKnown(String name, Set<String> globals, List<Set<String>> scopes) {
+            if (BUILT_INS.contains(name) || name.startsWith("gl_") || globals.contains(name)) {
+                return true;
+            }
+            for (int s = scopes.size() - 1; s >= 0; s--) {
+                if (scopes.get(s).contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void add(Severity severity, int token, String message) {
+            diagnostics.add(new Diagnostic(severity, tokens.lines[token], tokens.starts[token], tokens.ends[token], message));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Least-recently-used pool of linked programs keyed by a hash of their patched sources, so switching back to a
+ * shader that was shown recently skips the compile and link. The pool owns every program it holds: callers must
+ * not close them, and eviction deletes them. All methods touch GL and must run on the render thread.
+ */
+public final class ProgramCache {
+    public static final int DEFAULT_MAX_PROGRAMS = 8;
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxPrograms = DEFAULT_MAX_PROGRAMS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes;
+
+    /**
+     * Returns the pooled program linked from exactly these sources and marks it most recently used, or {@code null}.
+     */
+    public ShaderProgram find(String vertexSource, String fragmentSource) {
+        Entry entry = entries.get(hash(vertexSource, fragmentSource));
+        if (entry == null || !entry.matches(vertexSource, fragmentSource)) {
+            return null;
+        }
+        return entry.program;
+    }
+
+    /**
+     * Adds a freshly linked program as most recently used and evicts older ones that no longer fit the budget.
+     */
+    public void put(String vertexSource, String fragmentSource, ShaderProgram program) {
+        Objects.requireNonNull(program, "program");
+        Entry previous = entries.put(hash(vertexSource, fragmentSource), new Entry(vertexSource, fragmentSource, program));
+        if (previous != null && previous.program != program) {
+            bytes -= previous.program.approximateSize();
+            previous.program.close();
+        }
+        bytes += program.approximateSize();
+        trim();
+    }
+
+    /**
+     * Updates the budget. The most recently used program is always kept, even if it alone exceeds {@code maxBytes}.
+     */
+    public void setBudget(int maxPrograms, long maxBytes) {
+        this.maxPrograms = Math.max(1, maxPrograms);
+        this.maxBytes = Math.max(0L, maxBytes);
+        trim();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public void clear() {
+        for (Entry entry : entries.values()) {
+            entry.program.close();
+        }
+        entries.clear();
+        bytes = 0L;
+    }
+
+    @Override
+    public String toString() {
+        return "ProgramCache[" + entries.size() + "/" + maxPrograms + " programs, "
+            + (bytes / 1024) + "/" + (maxBytes / 1024) + " KiB]";
+    }
+
+    private void trim() {
+        // Access-ordered, so iteration starts at the least recently used entry
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > 1 && (entries.size() > maxPrograms || bytes > maxBytes) && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.program.approximateSize();
+            eldest.program.close();
+        }
+    }
+
+    private static long hash(String vertexSource, String fragmentSource) {
+        // 64-bit FNV-1a; a null vertex source (shared vertex stage) hashes differently from an empty one
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, vertexSource != null ? vertexSource : "\u0000");
+        hash = (hash ^ 0x1F) * 0x100000001b3L;
+        return mix(hash, fragmentSource);
+    }
+
+    private static long mix(long hash, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private record Entry(String vertexSource, String fragmentSource, ShaderProgram program) {
+        boolean matches(String vertex, String fragment) {
+            return Objects.equals(vertexSource, vertex) && fragmentSource.equals(fragment);
+        }
+    }
+}
@@ -1,117 +1,445 @@
 package sh.tinywifi.canvasglsl.render;
 
-import sh.tinywifi.canvasglsl.CanvasGLSL;
-
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Turns Shadertoy-style and legacy fragment sources into GLSL 330 the renderer can link: adds the
+ * {@code #version}, declares missing built-in uniforms and outputs, renames {@code gl_FragColor} and wraps
+ * {@code mainImage}. The source is scanned once with {@link GlslLexer}, so comments and preprocessor lines never
+ * count as declarations, and the result is written with a single builder.
+ *
+ * With {@code specializeConstants}, built-ins whose value never changes ({@code iSampleRate},
+ * {@code iChannelResolution}, and {@code iChannelTime}, which always equals {@code iTime}) are emitted as
+ * constants instead of uniforms so the driver can fold code that depends on them. Names the shader declares
+ * itself are left as uniforms.
+ *
+ * Shaders may declare quality tiers with {@code #pragma canvasglsl tier NAME KEY=VALUE ...}, cheapest first. Each
+ * tier is patched into its own variant with its keys emitted as {@code #define}s right after the {@code #version}.
+ * A shader's own {@code #define} of a tier key is its default when no tier applies; variants drop it (keeping the
+ * line break) so the tier's value wins without a redefinition error, and no {@code #ifndef} guard is needed.
+ */
 public class ShaderPatcher {
     private static final String FRAGMENT_OLD = "gl_FragColor";
     private static final String FRAGMENT_NEW = "fragmentColor";
+    private static final String DEFAULT_VERSION = "#version 330\n";
+
+    private static final String[] BUILT_IN_NAMES = {
+        "iTime",
+        "iResolution",
+        "iMouse",
+        "iFrame",
+        "iTimeDelta",
+        "iDate",
+        "iSampleRate",
+        "iChannelTime",
+        "iChannelResolution",
+        "iChannel0",
+        "iChannel1",
+        "iChannel2",
+        "iChannel3"
+    };
+
+    private static final String[] BUILT_IN_DECLARATIONS = {
+        "uniform float iTime;\n",
+        "uniform vec3 iResolution;\n",
+        "uniform vec4 iMouse;\n",
+        "uniform int iFrame;\n",
+        "uniform float iTimeDelta;\n",
+        "uniform vec4 iDate;\n",
+        "uniform float iSampleRate;\n",
+        "uniform float iChannelTime[4];\n",
+        "uniform vec3 iChannelResolution[4];\n",
+        "uniform sampler2D iChannel0;\n",
+        "uniform sampler2D iChannel1;\n",
+        "uniform sampler2D iChannel2;\n",
+        "uniform sampler2D iChannel3;\n"
+    };
+
+    private static final String CHANNEL_RESOLUTION = "vec3(" + ChannelTextures.SIZE + ".0, " + ChannelTextures.SIZE + ".0, 0.0)";
+
+    // Replacements for BUILT_IN_DECLARATIONS when specializing; null where the value changes per frame
+    private static final String[] BUILT_IN_CONSTANTS = {
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        "const float iSampleRate = " + ShaderProgram.SAMPLE_RATE + ";\n",
+        "#define iChannelTime float[4](iTime, iTime, iTime, iTime)\n",
+        "const vec3 iChannelResolution[4] = vec3[4](" + CHANNEL_RESOLUTION + ", " + CHANNEL_RESOLUTION + ", "
+            + CHANNEL_RESOLUTION + ", " + CHANNEL_RESOLUTION + ");\n",
+        null,
+        null,
+        null,
+        null
+    };
+
+    private static final String TIER_PRAGMA = "canvasglsl";
+
+    private static final String MAIN_IMAGE_WRAPPER = """
+
+        out vec4 fragColor;
+
+        void main() {
+            mainImage(fragColor, gl_FragCoord.xy);
+            // Force opaque alpha to prevent UI flickering
+            fragColor.a = 1.0;
+        }
+        """;
 
     public static String patch(String shader) {
         return patchFragment(shader);
     }
 
     public static String patchFragment(String shader) {
-        String working = shader;
+        return patchFragment(shader, false);
+    }
+
+    public static String patchFragment(String shader, boolean specializeConstants) {
+        return patchFragment(shader, specializeConstants, null);
+    }
+
+    /**
+     * Patches the variant of {@code shader} for {@code tier}, one of {@link #tiers(String)}; {@code null} patches the
+     * source as written.
+     */
+    public static String patchFragment(String shader, boolean specializeConstants, Tier tier) {
+        Scan scan = Scan.of(shader);
+
+        int extra = scan.legacyOutputCount * (FRAGMENT_NEW.length() - FRAGMENT_OLD.length());
+        StringBuilder out = new StringBuilder(shader.length() + Math.max(0, extra) + 512);
 
-        int insertPos;
-        if (working.trim().startsWith("#version")) {
-            int versionStart = working.indexOf("#version");
-            int lineEnd = working.indexOf('\n', versionStart);
-            insertPos = lineEnd >= 0 ? lineEnd + 1 : working.length();
+        if (scan.versionEnd < 0) {
+            out.append(DEFAULT_VERSION);
         } else {
-            working = "#version 330\n" + working;
-            insertPos = "#version 330\n".length();
+            out.append(shader, 0, scan.versionEnd);
+            if (scan.versionEnd == 0 || shader.charAt(scan.versionEnd - 1) != '\n') {
+                out.append('\n');
+            }
         }
 
-        StringBuilder header = new StringBuilder();
-
-        // Check if mainImage function exists - if so, we'll need fragColor output
-        boolean hasMainImage = working.contains("mainImage");
+        if (tier != null) {
+            for (Map.Entry<String, String> define : tier.defines().entrySet()) {
+                out.append("#define ").append(define.getKey()).append(' ').append(define.getValue()).append('\n');
+            }
+        }
 
-        if (working.contains(FRAGMENT_OLD)) {
-            working = working.replace(FRAGMENT_OLD, FRAGMENT_NEW);
-            header.append("out vec4 ").append(FRAGMENT_NEW).append(";\n");
-            CanvasGLSL.LOG.warn("Loaded shader uses outdated OpenGL keyword 'gl_FragColor'!");
-        } else if (!hasMainImage && !working.contains("out vec4")) {
+        if (scan.legacyOutputCount > 0) {
+            out.append("out vec4 ").append(FRAGMENT_NEW).append(";\n");
+        } else if (!scan.hasMainImage && !scan.hasOutput) {
             // For regular shaders (not mainImage), add default fragColor output
-            header.append("out vec4 fragColor;\n");
+            out.append("out vec4 fragColor;\n");
         }
 
         // Note: Ensure your fragment shader outputs opaque alpha (e.g., vec4(color.rgb, 1.0))
         // to prevent UI flickering issues. Semi-transparent backgrounds can cause rendering artifacts.
 
-        if (!containsUniform(working, "iTime")) {
-            header.append("uniform float iTime;\n");
-        }
-        if (!containsUniform(working, "iResolution")) {
-            header.append("uniform vec3 iResolution;\n");
+        for (int i = 0; i < BUILT_IN_NAMES.length; i++) {
+            if ((scan.declaredUniforms & (1 << i)) == 0) {
+                String constant = specializeConstants ? BUILT_IN_CONSTANTS[i] : null;
+                out.append(constant != null ? constant : BUILT_IN_DECLARATIONS[i]);
+            }
         }
-        if (!containsUniform(working, "iMouse")) {
-            header.append("uniform vec4 iMouse;\n");
+
+        List<Scan.Define> overridden = tier != null ? scan.definesOf(tier.defines().keySet()) : List.of();
+        int copied = Math.max(scan.versionEnd, 0);
+        int next = 0;
+        for (int i = 0; i < scan.legacyOutputCount; i++) {
+            int at = scan.legacyOutputs[i];
+            while (next < overridden.size() && overridden.get(next).start() <= at) {
+                copied = blank(out, shader, copied, overridden.get(next++));
+            }
+            if (at < copied) {
+                // Inside a dropped #define
+                continue;
+            }
+            out.append(shader, copied, at).append(FRAGMENT_NEW);
+            copied = at + FRAGMENT_OLD.length();
         }
-        if (!containsUniform(working, "iFrame")) {
-            header.append("uniform int iFrame;\n");
+        while (next < overridden.size()) {
+            copied = blank(out, shader, copied, overridden.get(next++));
         }
-        if (!containsUniform(working, "iTimeDelta")) {
-            header.append("uniform float iTimeDelta;\n");
+        out.append(shader, copied, shader.length());
+
+        // Handle Shadertoy's mainImage function
+        if (scan.hasMainImage && !scan.hasMain) {
+            // fragColor is declared here rather than in the header because mainImage takes it as an 'out' parameter
+            out.append(MAIN_IMAGE_WRAPPER);
         }
-        if (!containsUniform(working, "iDate")) {
-            header.append("uniform vec4 iDate;\n");
+
+        return out.toString();
+    }
+
+    /**
+     * Copies up to {@code define} and replaces it with its line breaks, so later line numbers do not move.
+     */
+    private static int blank(StringBuilder out, String shader, int copied, Scan.Define define) {
+        out.append(shader, copied, define.start());
+        for (int i = define.start(); i < define.end(); i++) {
+            if (shader.charAt(i) == '\n') {
+                out.append('\n');
+            }
         }
-        if (!containsUniform(working, "iSampleRate")) {
-            header.append("uniform float iSampleRate;\n");
+        return define.end();
+    }
+
+    /**
+     * The quality tiers declared by {@code #pragma canvasglsl tier} lines, in declaration order. A key without a
+     * value is defined as {@code 1}. A tier declared twice keeps its last declaration.
+     */
+    public static List<Tier> tiers(String shader) {
+        if (!shader.contains(TIER_PRAGMA)) {
+            return List.of();
         }
-        if (!containsUniform(working, "iChannelTime")) {
-            header.append("uniform float iChannelTime[4];\n");
+        Map<String, Tier> tiers = new LinkedHashMap<>();
+        GlslLexer lexer = new GlslLexer(shader);
+        while (lexer.next() != GlslLexer.Token.END) {
+            if (lexer.token() == GlslLexer.Token.DIRECTIVE && "pragma".equals(lexer.directiveName())) {
+                Tier tier = parseTier(shader.substring(lexer.start(), lexer.end()));
+                if (tier != null) {
+                    tiers.remove(tier.name());
+                    tiers.put(tier.name(), tier);
+                }
+            }
         }
-        if (!containsUniform(working, "iChannelResolution")) {
-            header.append("uniform vec3 iChannelResolution[4];\n");
+        return List.copyOf(tiers.values());
+    }
+
+    /**
+     * Parses one {@code #pragma} line, returning {@code null} unless it is a well-formed tier declaration.
+     */
+    static Tier parseTier(String directive) {
+        String[] words = directive.replace("\\\n", " ").trim().split("\\s+");
+        // words[0] is "#pragma", or "#" when written as "# pragma"
+        int at = "#".equals(words[0]) ? 2 : 1;
+        if (words.length < at + 3 || !TIER_PRAGMA.equals(words[at]) || !"tier".equals(words[at + 1])) {
+            return null;
         }
-        for (int i = 0; i < 4; i++) {
-            String sampler = "iChannel" + i;
-            if (!containsUniform(working, sampler)) {
-                header.append("uniform sampler2D ").append(sampler).append(";\n");
+        String name = words[at + 2];
+        Map<String, String> defines = new LinkedHashMap<>();
+        for (int i = at + 3; i < words.length; i++) {
+            if (words[i].startsWith("//")) {
+                break;
+            }
+            int equals = words[i].indexOf('=');
+            String key = equals < 0 ? words[i] : words[i].substring(0, equals);
+            String value = equals < 0 ? "1" : words[i].substring(equals + 1);
+            if (!isIdentifier(key) || value.isEmpty()) {
+                return null;
             }
+            defines.put(key, value);
         }
+        return new Tier(name, defines);
+    }
 
-        if (header.length() > 0) {
-            working = working.substring(0, insertPos) + header + working.substring(insertPos);
+    private static boolean isIdentifier(String text) {
+        if (text.isEmpty() || !GlslLexer.isIdentifierStart(text.charAt(0))) {
+            return false;
         }
-
-        // Handle Shadertoy's mainImage function
-        if (hasMainImage) {
-            // Check if there's already a main() function
-            if (!working.matches("(?s).*\\bvoid\\s+main\\s*\\(.*")) {
-                // Declare fragColor as global output BEFORE main() for mainImage shaders
-                // This is separate from the header because mainImage defines fragColor as 'out' parameter
-                String mainImageWrapper = "\nout vec4 fragColor;\n\n";
-                mainImageWrapper += "void main() {\n";
-                mainImageWrapper += "    mainImage(fragColor, gl_FragCoord.xy);\n";
-                mainImageWrapper += "    // Force opaque alpha to prevent UI flickering\n";
-                mainImageWrapper += "    fragColor.a = 1.0;\n";
-                mainImageWrapper += "}\n";
-                working += mainImageWrapper;
-            }
-        }
-
-        return working;
+        for (int i = 1; i < text.length(); i++) {
+            if (!GlslLexer.isIdentifierPart(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static String patchVertex(String shader) {
-        String working = shader;
-
         // For vertex shaders, just ensure version is present
-        if (!working.trim().startsWith("#version")) {
-            working = "#version 330\n" + working;
+        GlslLexer lexer = new GlslLexer(shader);
+        lexer.next();
+        if ("version".equals(lexer.directiveName())) {
+            return shader;
+        }
+        return DEFAULT_VERSION + shader;
+    }
+
+    /**
+     * Everything the patch needs to know about a source, gathered in one pass over its tokens.
+     */
+    private static final class Scan {
+        int versionEnd = -1;
+        int declaredUniforms;
+        boolean hasOutput;
+        boolean hasMain;
+        boolean hasMainImage;
+        int[] legacyOutputs = new int[4];
+        int legacyOutputCount;
+        List<Define> defines = List.of();
+
+        /**
+         * A {@code #define} directive of {@code name}, spanning {@code [start, end)} of the source.
+         */
+        record Define(String name, int start, int end) {
         }
 
-        return working;
+        static Scan of(String source) {
+            Scan scan = new Scan();
+            GlslLexer lexer = new GlslLexer(source);
+
+            int braceDepth = 0;
+            int parenDepth = 0;
+            boolean first = true;
+            boolean afterVoid = false;
+            // 0 = none, 1 = main, 2 = mainImage; confirmed when the next token is '('
+            int entryCandidate = 0;
+
+            boolean inUniform = false;
+            int uniformBraceDepth = 0;
+            int pendingBuiltIn = -1;
+
+            while (lexer.next() != GlslLexer.Token.END) {
+                GlslLexer.Token token = lexer.token();
+
+                if (token == GlslLexer.Token.DIRECTIVE) {
+                    if (first && "version".equals(lexer.directiveName())) {
+                        int lineEnd = source.indexOf('\n', lexer.end());
+                        scan.versionEnd = lineEnd >= 0 ? lineEnd + 1 : source.length();
+                    } else {
+                        if ("define".equals(lexer.directiveName())) {
+                            scan.addDefine(source, lexer.start(), lexer.end());
+                        }
+                        scan.collectLegacyOutputs(source, lexer.start(), lexer.end());
+                    }
+                    first = false;
+                    continue;
+                }
+                first = false;
+
+                if (entryCandidate != 0) {
+                    if (lexer.isOperator('(')) {
+                        if (entryCandidate == 1) {
+                            scan.hasMain = true;
+                        } else {
+                            scan.hasMainImage = true;
+                        }
+                    }
+                    entryCandidate = 0;
+                }
+
+                if (token == GlslLexer.Token.IDENTIFIER) {
+                    if (lexer.is(FRAGMENT_OLD)) {
+                        scan.addLegacyOutput(lexer.start());
+                    } else if (inUniform) {
+                        pendingBuiltIn = builtInIndex(lexer);
+                    } else if (braceDepth == 0 && parenDepth == 0) {
+                        if (lexer.is("uniform")) {
+                            inUniform = true;
+                            uniformBraceDepth = 0;
+                            pendingBuiltIn = -1;
+                        } else if (lexer.is("out")) {
+                            scan.hasOutput = true;
+                        } else if (afterVoid && lexer.is("main")) {
+                            entryCandidate = 1;
+                        } else if (afterVoid && lexer.is("mainImage")) {
+                            entryCandidate = 2;
+                        }
+                    }
+                    afterVoid = braceDepth == 0 && lexer.is("void");
+                    continue;
+                }
+                afterVoid = false;
+
+                if (token != GlslLexer.Token.OPERATOR) {
+                    continue;
+                }
+
+                if (lexer.isOperator('{')) {
+                    braceDepth++;
+                    if (inUniform) {
+                        uniformBraceDepth++;
+                    }
+                } else if (lexer.isOperator('}')) {
+                    braceDepth = Math.max(0, braceDepth - 1);
+                    if (inUniform) {
+                        uniformBraceDepth--;
+                    }
+                } else if (lexer.isOperator('(')) {
+                    parenDepth++;
+                } else if (lexer.isOperator(')')) {
+                    parenDepth = Math.max(0, parenDepth - 1);
+                }
+
+                if (inUniform && (lexer.isOperator(';') || lexer.isOperator(',')
+                    || lexer.isOperator('[') || lexer.isOperator('='))) {
+                    if (pendingBuiltIn >= 0) {
+                        scan.declaredUniforms |= 1 << pendingBuiltIn;
+                    }
+                    pendingBuiltIn = -1;
+                    if (lexer.isOperator(';') && uniformBraceDepth <= 0) {
+                        inUniform = false;
+                    }
+                }
+            }
+
+            return scan;
+        }
+
+        private static int builtInIndex(GlslLexer lexer) {
+            for (int i = 0; i < BUILT_IN_NAMES.length; i++) {
+                if (lexer.is(BUILT_IN_NAMES[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void collectLegacyOutputs(String source, int from, int to) {
+            GlslLexer body = new GlslLexer(source, from, to);
+            while (body.next() != GlslLexer.Token.END) {
+                if (body.token() == GlslLexer.Token.IDENTIFIER && body.is(FRAGMENT_OLD)) {
+                    addLegacyOutput(body.start());
+                }
+            }
+        }
+
+        private void addDefine(String source, int from, int to) {
+            GlslLexer body = new GlslLexer(source, from + 1, to);
+            body.next();
+            if (body.next() != GlslLexer.Token.IDENTIFIER) {
+                return;
+            }
+            if (defines.isEmpty()) {
+                defines = new ArrayList<>();
+            }
+            defines.add(new Define(body.text(), from, to));
+        }
+
+        /**
+         * The {@code #define}s of any of {@code names}, in source order.
+         */
+        List<Define> definesOf(Set<String> names) {
+            List<Define> matching = new ArrayList<>();
+            for (Define define : defines) {
+                if (names.contains(define.name())) {
+                    matching.add(define);
+                }
+            }
+            return matching;
+        }
+
+        private void addLegacyOutput(int offset) {
+            if (legacyOutputCount == legacyOutputs.length) {
+                int[] grown = new int[legacyOutputs.length * 2];
+                System.arraycopy(legacyOutputs, 0, grown, 0, legacyOutputCount);
+                legacyOutputs = grown;
+            }
+            legacyOutputs[legacyOutputCount++] = offset;
+        }
     }
 
-    private static boolean containsUniform(String shader, String name) {
-        Pattern pattern = Pattern.compile("\\buniform\\s+[\\w\\[\\]]+\\s+" + Pattern.quote(name) + "\\b");
-        return pattern.matcher(shader).find();
+    /**
+     * One {@code #pragma canvasglsl tier} declaration: its name and the macros its variant defines.
+     */
+    public record Tier(String name, Map<String, String> defines) {
+        public Tier {
+            defines = Collections.unmodifiableMap(new LinkedHashMap<>(defines));
+        }
     }
 }
@@ -0,0 +1,90 @@
+package sh.tinywifi.canvasglsl.render;
+
+import com.mojang.blaze3d.opengl.GlStateManager;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * GL state bracket around the shader background pass.
+ *
+ * Blaze3D re-applies blend, depth, cull, scissor, colour mask and texture bindings from {@link GlStateManager}'s
+ * cache on every pipeline draw, so the pass only has to keep that cache truthful by routing its changes through
+ * it. Bindings Blaze3D tracks on its own (program, vertex array, array buffer) and the viewport are put back
+ * once the pass is done.
+ */
+public final class ShaderRenderState {
+    private final int prevViewportX;
+    private final int prevViewportY;
+    private final int prevViewportWidth;
+    private final int prevViewportHeight;
+    private final int prevActiveTexture;
+    private final int prevProgram;
+    private final int prevVAO;
+    private final int prevArrayBuffer;
+    private final boolean framebufferSrgbEnabled;
+
+    private ShaderRenderState(int[] viewport, int activeTexture, int program, int vao, int arrayBuffer,
+                              boolean framebufferSrgbEnabled) {
+        this.prevViewportX = viewport[0];
+        this.prevViewportY = viewport[1];
+        this.prevViewportWidth = viewport[2];
+        this.prevViewportHeight = viewport[3];
+        this.prevActiveTexture = activeTexture;
+        this.prevProgram = program;
+        this.prevVAO = vao;
+        this.prevArrayBuffer = arrayBuffer;
+        this.framebufferSrgbEnabled = framebufferSrgbEnabled;
+    }
+
+    public static ShaderRenderState capture() {
+        int[] viewport = new int[4];
+        GL11.glGetIntegerv(GL11.GL_VIEWPORT, viewport);
+        return new ShaderRenderState(
+            viewport,
+            GlStateManager._getActiveTexture(),
+            GL11.glGetInteger(GL20.GL_CURRENT_PROGRAM),
+            GL11.glGetInteger(GL30.GL_VERTEX_ARRAY_BINDING),
+            GL15.glGetInteger(GL15.GL_ARRAY_BUFFER_BINDING),
+            GL11.glIsEnabled(GL30.GL_FRAMEBUFFER_SRGB)
+        );
+    }
+
+    public static void bindTexture(int unit, int texture) {
+        GlStateManager._activeTexture(GL13.GL_TEXTURE0 + unit);
+        GlStateManager._bindTexture(texture);
+    }
+
+    public void beginPass(int width, int height) {
+        GlStateManager._viewport(0, 0, width, height);
+        GlStateManager._disableDepthTest();
+        GlStateManager._depthMask(false);
+        GlStateManager._enableBlend();
+        GlStateManager._blendFuncSeparate(
+            GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA,
+            GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA
+        );
+        GlStateManager._disableCull();
+        GlStateManager._disableScissorTest();
+        GlStateManager._colorMask(true, true, true, true);
+        if (framebufferSrgbEnabled) {
+            GL11.glDisable(GL30.GL_FRAMEBUFFER_SRGB);
+        }
+    }
+
+    public void restore() {
+        GlStateManager._viewport(prevViewportX, prevViewportY, prevViewportWidth, prevViewportHeight);
+
+        // Vanilla never turns sRGB conversion on, but put it back if someone else did
+        if (framebufferSrgbEnabled) {
+            GL11.glEnable(GL30.GL_FRAMEBUFFER_SRGB);
+        }
+
+        GlStateManager._activeTexture(prevActiveTexture);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, prevArrayBuffer);
+        GlStateManager._glUseProgram(prevProgram);
+        GL30.glBindVertexArray(prevVAO);
+    }
+}
@@ -0,0 +1,333 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the numeric constants of a shader that can be tuned live and rewrites the source so they become uniforms.
+ * Tweakable are {@code #define NAME <number>} and scalar {@code const float|int NAME = <number>;} declarations.
+ * Constants the GLSL rules need to stay compile-time (used in array sizes, {@code case} labels, other constants,
+ * {@code layout} qualifiers, global initializers or preprocessor conditions) are left alone.
+ *
+ * Defines and local constants read a hidden {@code cgTweak<n>} uniform declared on one extra line after the
+ * {@code #version}; global constants become uniforms of the same name, since global initializers must be constant.
+ */
+public final class ShaderTweaks {
+    private static final String HIDDEN_PREFIX = "cgTweak";
+
+    private ShaderTweaks() {}
+
+    /**
+     * One tweakable constant.
+     *
+     * @param uniform      name of the uniform carrying the value in the promoted source
+     * @param literal      the literal as written, sign included
+     * @param start        offset of the literal (or its minus sign) in the source
+     * @param end          offset just past the literal
+     * @param keywordStart offset of the {@code const} keyword, or {@code -1} for a define
+     * @param assignStart  offset of the {@code =} of a const, or {@code -1} for a define
+     * @param global       whether a const is declared outside any function
+     */
+    public record Tweak(String name, String uniform, boolean integer, double value, String literal, int line,
+                        int start, int end, int keywordStart, int assignStart, boolean global) {
+    }
+
+    public static List<Tweak> find(String source) {
+        List<Candidate> candidates = new ArrayList<>();
+        Set<String> unusable = new HashSet<>();
+        scan(source, candidates, unusable);
+
+        // A name declared twice (say in #if branches) is ambiguous to write back
+        Set<String> seen = new HashSet<>();
+        for (Candidate candidate : candidates) {
+            if (!seen.add(candidate.name)) {
+                unusable.add(candidate.name);
+            }
+        }
+
+        List<Tweak> tweaks = new ArrayList<>();
+        int hidden = 0;
+        for (Candidate candidate : candidates) {
+            if (unusable.contains(candidate.name)) {
+                continue;
+            }
+            String uniform = candidate.global ? candidate.name : HIDDEN_PREFIX + hidden++;
+            tweaks.add(new Tweak(candidate.name, uniform, candidate.integer, candidate.value,
+                source.substring(candidate.start, candidate.end), candidate.line, candidate.start, candidate.end,
+                candidate.keywordStart, candidate.assignStart, candidate.global));
+        }
+        return tweaks;
+    }
+
+    /**
+     * Rewrites {@code source}, which {@code tweaks} were found in, so every tweak reads its uniform.
+     */
+    public static String promote(String source, List<Tweak> tweaks) {
+        List<Edit> edits = new ArrayList<>();
+        StringBuilder declarations = new StringBuilder();
+        for (Tweak tweak : tweaks) {
+            String type = tweak.integer() ? "int" : "float";
+            if (tweak.keywordStart() < 0) {
+                edits.add(new Edit(tweak.start(), tweak.end(), tweak.uniform()));
+                declarations.append("uniform ").append(type).append(' ').append(tweak.uniform()).append(';');
+            } else if (tweak.global()) {
+                edits.add(new Edit(tweak.keywordStart(), tweak.keywordStart() + "const".length(), "uniform"));
+                edits.add(new Edit(tweak.assignStart(), tweak.end(), ""));
+            } else {
+                edits.add(new Edit(tweak.keywordStart(), tweak.keywordStart() + "const".length(), ""));
+                edits.add(new Edit(tweak.start(), tweak.end(), tweak.uniform()));
+                declarations.append("uniform ").append(type).append(' ').append(tweak.uniform()).append(';');
+            }
+        }
+        if (!declarations.isEmpty()) {
+            int insertAt = afterVersion(source);
+            boolean needsBreak = insertAt > 0 && source.charAt(insertAt - 1) != '\n';
+            edits.add(new Edit(insertAt, insertAt, (needsBreak ? "\n" : "") + declarations + "\n"));
+        }
+        return apply(source, edits);
+    }
+
+    /**
+     * {@code source} with each tweak's literal replaced by {@code values[i]}. Unchanged values keep their original
+     * spelling.
+     */
+    public static String writeBack(String source, List<Tweak> tweaks, float[] values) {
+        List<Edit> edits = new ArrayList<>();
+        for (int i = 0; i < tweaks.size(); i++) {
+            Tweak tweak = tweaks.get(i);
+            String text = format(tweak, values[i]);
+            if (!text.equals(tweak.literal())) {
+                edits.add(new Edit(tweak.start(), tweak.end(), text));
+            }
+        }
+        return apply(source, edits);
+    }
+
+    static String format(Tweak tweak, float value) {
+        if (tweak.integer()) {
+            long rounded = Math.round(value);
+            return rounded == Math.round(tweak.value()) ? tweak.literal() : Long.toString(rounded);
+        }
+        if (value == (float) tweak.value()) {
+            return tweak.literal();
+        }
+        String text = new BigDecimal(Float.toString(value)).round(MathContext.DECIMAL32).stripTrailingZeros()
+            .toPlainString();
+        if (text.indexOf('.') < 0) {
+            text += ".0";
+        }
+        char last = tweak.literal().charAt(tweak.literal().length() - 1);
+        return last == 'f' || last == 'F' ? text + last : text;
+    }
+
+    private record Edit(int from, int to, String text) {
+    }
+
+    private static String apply(String source, List<Edit> edits) {
+        edits.sort((a, b) -> a.from != b.from ? Integer.compare(a.from, b.from) : Integer.compare(a.to, b.to));
+        StringBuilder out = new StringBuilder(source.length() + 64);
+        int copied = 0;
+        for (Edit edit : edits) {
+            out.append(source, copied, edit.from).append(edit.text);
+            copied = edit.to;
+        }
+        return out.append(source, copied, source.length()).toString();
+    }
+
+    private static int afterVersion(String source) {
+        GlslLexer lexer = new GlslLexer(source);
+        if (lexer.next() == GlslLexer.Token.DIRECTIVE && "version".equals(lexer.directiveName())) {
+            int lineEnd = source.indexOf('\n', lexer.end());
+            return lineEnd >= 0 ? lineEnd + 1 : source.length();
+        }
+        return 0;
+    }
+
+    private static final class Candidate {
+        String name;
+        boolean integer;
+        double value;
+        int line;
+        int start;
+        int end;
+        int keywordStart = -1;
+        int assignStart = -1;
+        boolean global;
+    }
+
+    /**
+     * Collects candidates, and every name used somewhere only a compile-time constant is allowed.
+     */
+    private static void scan(String source, List<Candidate> candidates, Set<String> unusable) {
+        List<GlslLexer.Token> kinds = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<int[]> spans = new ArrayList<>();
+        GlslLexer lexer = new GlslLexer(source);
+        while (lexer.next() != GlslLexer.Token.END) {
+            if (lexer.token() == GlslLexer.Token.DIRECTIVE) {
+                directive(source, lexer.start(), lexer.end(), lexer.line(), candidates, unusable);
+            } else {
+                kinds.add(lexer.token());
+                texts.add(lexer.text());
+                spans.add(new int[] {lexer.start(), lexer.end(), lexer.line()});
+            }
+        }
+
+        int braceDepth = 0;
+        int bracketDepth = 0;
+        boolean afterCase = false;
+        int constInitializerEnd = -1;
+        int declaredName = -1;
+
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (kinds.get(i) == GlslLexer.Token.OPERATOR) {
+                switch (text) {
+                    case "{" -> braceDepth++;
+                    case "}" -> braceDepth = Math.max(0, braceDepth - 1);
+                    case "[" -> bracketDepth++;
+                    case "]" -> bracketDepth = Math.max(0, bracketDepth - 1);
+                    case ":" -> afterCase = false;
+                    default -> {
+                    }
+                }
+                continue;
+            }
+            if (kinds.get(i) != GlslLexer.Token.IDENTIFIER) {
+                continue;
+            }
+
+            if (text.equals("const")) {
+                int semicolon = indexOf(texts, ";", i);
+                int assign = indexOf(texts, "=", i);
+                if (assign >= 0 && assign < semicolon) {
+                    constInitializerEnd = semicolon;
+                    declaredName = assign - 1;
+                    Candidate candidate = constCandidate(kinds, texts, spans, i, braceDepth == 0);
+                    if (candidate != null) {
+                        candidates.add(candidate);
+                    }
+                }
+                continue;
+            }
+            if (text.equals("case")) {
+                afterCase = true;
+                continue;
+            }
+
+            boolean initializer = i < constInitializerEnd && i != declaredName;
+            if ((braceDepth == 0 && i != declaredName) || bracketDepth > 0 || afterCase || initializer) {
+                unusable.add(text);
+            }
+        }
+    }
+
+    /**
+     * The candidate for {@code const int|float NAME = [-]<number>;} starting at token {@code at}, or {@code null}.
+     */
+    private static Candidate constCandidate(List<GlslLexer.Token> kinds, List<String> texts, List<int[]> spans,
+                                            int at, boolean global) {
+        int i = at + 1;
+        if (i + 3 >= texts.size() || !(texts.get(i).equals("int") || texts.get(i).equals("float"))
+            || kinds.get(i + 1) != GlslLexer.Token.IDENTIFIER || !texts.get(i + 2).equals("=")) {
+            return null;
+        }
+        Candidate candidate = new Candidate();
+        candidate.integer = texts.get(i).equals("int");
+        candidate.name = texts.get(i + 1);
+        candidate.keywordStart = spans.get(at)[0];
+        candidate.assignStart = spans.get(i + 2)[0];
+        candidate.line = spans.get(at)[2];
+        candidate.global = global;
+
+        int literal = i + 3;
+        candidate.start = spans.get(literal)[0];
+        if (texts.get(literal).equals("-") && kinds.get(literal) == GlslLexer.Token.OPERATOR) {
+            literal++;
+        }
+        if (literal + 1 >= texts.size() || kinds.get(literal) != GlslLexer.Token.NUMBER
+            || !texts.get(literal + 1).equals(";")) {
+            return null;
+        }
+        candidate.end = spans.get(literal)[1];
+        return setValue(candidate, texts.get(literal)) ? candidate : null;
+    }
+
+    private static int indexOf(List<String> texts, String text, int from) {
+        for (int i = from; i < texts.size(); i++) {
+            if (texts.get(i).equals(text)) {
+                return i;
+            }
+        }
+        return texts.size();
+    }
+
+    private static boolean setValue(Candidate candidate, String literal) {
+        String lower = literal.toLowerCase(Locale.ROOT);
+        if (lower.endsWith("u") || lower.endsWith("lf") || lower.startsWith("0x")
+            || (lower.length() > 1 && lower.startsWith("0") && Character.isDigit(lower.charAt(1)))) {
+            return false;
+        }
+        boolean integerLiteral = lower.indexOf('.') < 0 && lower.indexOf('e') < 0 && !lower.endsWith("f");
+        if (candidate.keywordStart < 0) {
+            candidate.integer = integerLiteral;
+        } else if (candidate.integer && !integerLiteral) {
+            return false;
+        }
+        double value = ShaderCostEstimator.parseNumber(literal);
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        candidate.value = candidate.start < candidate.end - literal.length() ? -value : value;
+        return true;
+    }
+
+    private static void directive(String source, int start, int end, int line, List<Candidate> candidates,
+                                  Set<String> unusable) {
+        GlslLexer body = new GlslLexer(source, start + 1, end);
+        if (body.next() != GlslLexer.Token.IDENTIFIER) {
+            return;
+        }
+        boolean define = body.is("define");
+        if (define && body.next() == GlslLexer.Token.IDENTIFIER) {
+            Candidate candidate = new Candidate();
+            candidate.name = body.text();
+            candidate.line = line;
+            int nameEnd = body.end();
+            GlslLexer.Token next = body.next();
+            if (next == GlslLexer.Token.OPERATOR && body.isOperator('(') && body.start() == nameEnd) {
+                // Function-like macro: its parameters and body are not constants
+                while (body.next() != GlslLexer.Token.END) {
+                    if (body.token() == GlslLexer.Token.IDENTIFIER) {
+                        unusable.add(body.text());
+                    }
+                }
+                return;
+            }
+            candidate.start = body.start();
+            if (next == GlslLexer.Token.OPERATOR && body.isOperator('-')) {
+                next = body.next();
+            }
+            if (next == GlslLexer.Token.NUMBER) {
+                candidate.end = body.end();
+                String literal = body.text();
+                if (body.next() == GlslLexer.Token.END && setValue(candidate, literal)) {
+                    candidates.add(candidate);
+                    return;
+                }
+            }
+            // Other macro bodies may expand anywhere, so the names they use must stay constant
+            body = new GlslLexer(source, candidate.start, end);
+        }
+        while (body.next() != GlslLexer.Token.END) {
+            if (body.token() == GlslLexer.Token.IDENTIFIER) {
+                unusable.add(body.text());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+
+/**
+ * Fullscreen vertex stage shared by every program the mod links. It is compiled once per GL context and
+ * attached next to each fragment stage, so switching shaders or building a canvas only pays for the
+ * fragment compile and the link.
+ */
+public final class SharedVertexStage {
+    public static final String SOURCE = """
+        #version 330 core
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec2 uv;
+        out vec2 vUv;
+
+        void main() {
+            gl_Position = vec4(position, 1.0);
+            vUv = uv;
+        }
+        """;
+
+    private static int shader = -1;
+
+    private SharedVertexStage() {}
+
+    /**
+     * Returns the compiled vertex shader object, compiling it on first use. Must be called on the render thread.
+     */
+    public static int get() {
+        if (shader != -1) {
+            return shader;
+        }
+
+        int compiled = GL20.glCreateShader(GL20.GL_VERTEX_SHADER);
+        GL20.glShaderSource(compiled, SOURCE);
+        GL20.glCompileShader(compiled);
+        if (GL20.glGetShaderi(compiled, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+            String info = GL20.glGetShaderInfoLog(compiled);
+            GL20.glDeleteShader(compiled);
+            throw new IllegalStateException("Failed to compile shared vertex stage: " + info);
+        }
+
+        shader = compiled;
+        return shader;
+    }
+
+    /**
+     * Attaches the shared stage and {@code fragmentShader} to {@code program}, links it and detaches both again.
+     * The caller checks {@link GL20#GL_LINK_STATUS}.
+     */
+    public static void link(int program, int fragmentShader) {
+        int vertex = get();
+        GL20.glAttachShader(program, vertex);
+        GL20.glAttachShader(program, fragmentShader);
+        GL20.glLinkProgram(program);
+        GL20.glDetachShader(program, vertex);
+        GL20.glDetachShader(program, fragmentShader);
+    }
+
+    /**
+     * Deletes the shared stage. Programs that were already linked keep working; the next {@link #get()} recompiles.
+     */
+    public static void release() {
+        if (shader != -1) {
+            GL20.glDeleteShader(shader);
+            shader = -1;
+        }
+    }
+}
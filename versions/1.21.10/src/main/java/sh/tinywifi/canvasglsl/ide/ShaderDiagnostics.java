@@ -0,0 +1,68 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import sh.tinywifi.canvasglsl.CanvasGLSL;
+import sh.tinywifi.canvasglsl.render.GlslSyntaxChecker;
+import sh.tinywifi.canvasglsl.render.IncludeResolver;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link GlslSyntaxChecker} on a background thread a short while after the editor text stops changing, so
+ * typing never waits on it. Only the newest submission is checked; older ones still waiting are dropped.
+ */
+public final class ShaderDiagnostics {
+    private static final long DEBOUNCE_MS = 300L;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CanvasGLSL syntax check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ScheduledFuture<?> pending;
+    private volatile Report report = new Report(null, List.of());
+
+    /**
+     * Schedules a check of {@code source}. {@code file} is the buffer's path, used to expand its includes so names
+     * declared in libraries are known; it may be {@code null}.
+     */
+    public synchronized void submit(String source, IncludeResolver includes, Path file) {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(() -> run(source, includes, file), DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The latest finished check. Its {@link Report#source()} is the exact string instance that was submitted, so
+     * callers can tell whether it still describes what is on screen.
+     */
+    public Report report() {
+        return report;
+    }
+
+    private void run(String source, IncludeResolver includes, Path file) {
+        try {
+            String context = null;
+            if (source.contains("#include")) {
+                try {
+                    context = includes.expand(source, file);
+                } catch (IllegalStateException ex) {
+                    // Reported by the compile; check the buffer on its own meanwhile
+                }
+            }
+            boolean wholeShader = file == null || includes.dependentsOf(file).isEmpty();
+            report = new Report(source, GlslSyntaxChecker.check(source, context, wholeShader));
+        } catch (RuntimeException ex) {
+            CanvasGLSL.LOG.warn("Syntax check failed", ex);
+        }
+    }
+
+    public record Report(String source, List<GlslSyntaxChecker.Diagnostic> diagnostics) {
+    }
+}
@@ -0,0 +1,93 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable prefix tree over symbol names, matched case-insensitively. Children are kept in sorted arrays, so a
+ * lookup walks one node per prefix character and completions come out in alphabetical order.
+ */
+final class SymbolTrie {
+    static final SymbolTrie EMPTY = new SymbolTrie(List.of());
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final ShaderSymbolIndex.Symbol[] NO_SYMBOLS = new ShaderSymbolIndex.Symbol[0];
+
+    private static final class Node {
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        ShaderSymbolIndex.Symbol[] symbols = NO_SYMBOLS;
+    }
+
+    private record Entry(String key, ShaderSymbolIndex.Symbol symbol) {}
+
+    private final Node root = new Node();
+
+    SymbolTrie(Collection<ShaderSymbolIndex.Symbol> symbols) {
+        // Inserting in sorted order means a node's new child always goes last, so the arrays stay sorted
+        List<Entry> sorted = new ArrayList<>(symbols.size());
+        for (ShaderSymbolIndex.Symbol symbol : symbols) {
+            sorted.add(new Entry(symbol.name().toLowerCase(Locale.ROOT), symbol));
+        }
+        sorted.sort(Comparator.comparing(Entry::key));
+        for (Entry entry : sorted) {
+            insert(entry.key(), entry.symbol());
+        }
+    }
+
+    /**
+     * Up to {@code limit} symbols whose name starts with {@code prefix}, ignoring case.
+     */
+    List<ShaderSymbolIndex.Symbol> complete(String prefix, int limit) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = child(node, Character.toLowerCase(prefix.charAt(i)));
+        }
+        List<ShaderSymbolIndex.Symbol> results = new ArrayList<>();
+        if (node != null) {
+            collect(node, limit, results);
+        }
+        return results;
+    }
+
+    private void insert(String lowerName, ShaderSymbolIndex.Symbol symbol) {
+        Node node = root;
+        for (int i = 0; i < lowerName.length(); i++) {
+            char key = lowerName.charAt(i);
+            int last = node.keys.length - 1;
+            if (last >= 0 && node.keys[last] == key) {
+                node = node.children[last];
+                continue;
+            }
+            Node child = new Node();
+            node.keys = Arrays.copyOf(node.keys, last + 2);
+            node.children = Arrays.copyOf(node.children, last + 2);
+            node.keys[last + 1] = key;
+            node.children[last + 1] = child;
+            node = child;
+        }
+        node.symbols = Arrays.copyOf(node.symbols, node.symbols.length + 1);
+        node.symbols[node.symbols.length - 1] = symbol;
+    }
+
+    private static Node child(Node node, char key) {
+        int index = Arrays.binarySearch(node.keys, key);
+        return index >= 0 ? node.children[index] : null;
+    }
+
+    private static void collect(Node node, int limit, List<ShaderSymbolIndex.Symbol> results) {
+        for (ShaderSymbolIndex.Symbol symbol : node.symbols) {
+            if (results.size() >= limit) return;
+            results.add(symbol);
+        }
+        for (Node child : node.children) {
+            if (results.size() >= limit) return;
+            collect(child, limit, results);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import sh.tinywifi.canvasglsl.CanvasGLSL;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The workspace's folders, shaders and media descriptors, held in memory for the file pane. A background thread
+ * lists the workspace once and then waits on a {@link WatchService} registered on every folder, listing again only
+ * the folders an event names. Readers get an immutable snapshot that is replaced after each change.
+ */
+public final class WorkspaceTree {
+    // Saves and imports touch several files at once; their events are gathered into one update
+    private static final long SETTLE_MS = 50L;
+
+    public enum Kind {
+        DIRECTORY,
+        SHADER,
+        MEDIA
+    }
+
+    /**
+     * One entry. Folders list their children folders first, then by name ignoring case; files have none.
+     */
+    public record Node(Path path, String name, Kind kind, List<Node> children) {
+    }
+
+    private record Entry(Path path, Kind kind) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator
+        .comparing((Entry entry) -> entry.kind() != Kind.DIRECTORY)
+        .thenComparing(entry -> entry.path().getFileName().toString(), String.CASE_INSENSITIVE_ORDER);
+
+    private final ShaderWorkspace workspace;
+    private volatile Node root;
+
+    // Only touched on the watcher thread
+    private final Map<Path, List<Entry>> listings = new HashMap<>();
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private WatchService watcher;
+
+    WorkspaceTree(ShaderWorkspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * The latest snapshot, rooted at the workspace folder; {@code null} until the first listing finished.
+     */
+    public Node root() {
+        return root;
+    }
+
+    void start() {
+        Thread thread = new Thread(this::run, "CanvasGLSL workspace watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        Path top = workspace.getRoot();
+        try {
+            watcher = top.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            CanvasGLSL.LOG.warn("Cannot watch shader workspace; the file pane will not follow outside changes", ex);
+        }
+
+        load(top);
+        publish();
+        if (watcher == null) return;
+
+        try (WatchService service = watcher) {
+            while (true) {
+                WatchKey key = service.take();
+                Set<Path> changed = new HashSet<>();
+                boolean overflow = false;
+                do {
+                    Path directory = watched.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        overflow |= event.kind() == StandardWatchEventKinds.OVERFLOW;
+                    }
+                    if (directory != null) {
+                        changed.add(directory);
+                    }
+                    if (!key.reset()) {
+                        watched.remove(key);
+                    }
+                    key = service.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (overflow) {
+                    // Events were lost; only a full listing is sure to be right
+                    listings.clear();
+                    load(top);
+                } else {
+                    for (Path directory : changed) {
+                        reload(directory);
+                    }
+                }
+                publish();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | ClosedWatchServiceException ex) {
+            CanvasGLSL.LOG.warn("Shader workspace watcher stopped", ex);
+        }
+    }
+
+    /**
+     * Lists {@code directory} and every folder below it that is not listed yet, and watches them. A folder that links
+     * back to one of its own ancestors is left empty and unwatched instead of being followed forever.
+     */
+    private void load(Path directory) {
+        if (loops(directory)) {
+            listings.put(directory, List.of());
+            return;
+        }
+        List<Entry> entries = list(directory);
+        listings.put(directory, entries);
+        watch(directory);
+        for (Entry entry : entries) {
+            if (entry.kind() == Kind.DIRECTORY && !listings.containsKey(entry.path())) {
+                load(entry.path());
+            }
+        }
+    }
+
+    private void reload(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            forget(directory);
+            return;
+        }
+        List<Entry> previous = listings.getOrDefault(directory, List.of());
+        List<Entry> entries = list(directory);
+        listings.put(directory, entries);
+        for (Entry entry : previous) {
+            if (entry.kind() == Kind.DIRECTORY && !entries.contains(entry)) {
+                forget(entry.path());
+            }
+        }
+        for (Entry entry : entries) {
+            if (entry.kind() == Kind.DIRECTORY && !listings.containsKey(entry.path())) {
+                load(entry.path());
+            }
+        }
+    }
+
+    private boolean loops(Path directory) {
+        Path top = workspace.getRoot();
+        try {
+            Path real = directory.toRealPath();
+            for (Path parent = directory.getParent(); parent != null && parent.startsWith(top); parent = parent.getParent()) {
+                if (parent.toRealPath().equals(real)) {
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Failed to resolve shader workspace folder {}", directory, ex);
+            return true;
+        }
+        return false;
+    }
+
+    private void forget(Path directory) {
+        listings.keySet().removeIf(path -> path.startsWith(directory));
+    }
+
+    private List<Entry> list(Path directory) {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.forEach(child -> {
+                if (Files.isDirectory(child)) {
+                    entries.add(new Entry(child, Kind.DIRECTORY));
+                } else if (workspace.isMediaDescriptor(child)) {
+                    entries.add(new Entry(child, Kind.MEDIA));
+                } else if (workspace.hasSupportedExtension(child)) {
+                    entries.add(new Entry(child, Kind.SHADER));
+                }
+            });
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Failed to list shader workspace folder {}", directory, ex);
+        }
+        entries.sort(ORDER);
+        return entries;
+    }
+
+    private void watch(Path directory) {
+        if (watcher == null) return;
+        try {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            watched.put(key, directory);
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Cannot watch shader workspace folder {}", directory, ex);
+        }
+    }
+
+    private void publish() {
+        Path top = workspace.getRoot();
+        root = new Node(top, top.getFileName().toString(), Kind.DIRECTORY, children(top));
+    }
+
+    private List<Node> children(Path directory) {
+        List<Entry> entries = listings.getOrDefault(directory, List.of());
+        List<Node> nodes = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            List<Node> children = entry.kind() == Kind.DIRECTORY ? children(entry.path()) : List.of();
+            nodes.add(new Node(entry.path(), entry.path().getFileName().toString(), entry.kind(), children));
+        }
+        return List.copyOf(nodes);
+    }
+}
@@ -9,12 +9,20 @@ import sh.tinywifi.canvasglsl.ide.MediaChangeListener;
 import sh.tinywifi.canvasglsl.ide.ShaderChangeListener;
 import sh.tinywifi.canvasglsl.ide.ShaderEditorState;
 import sh.tinywifi.canvasglsl.ide.ShaderIDEController;
+import sh.tinywifi.canvasglsl.ide.ShaderLivePreview;
+import sh.tinywifi.canvasglsl.ide.TweakSession;
 import sh.tinywifi.canvasglsl.media.MediaEntry;
+import sh.tinywifi.canvasglsl.render.GlslSyntaxChecker;
 import sh.tinywifi.canvasglsl.render.MediaRenderer;
 import sh.tinywifi.canvasglsl.shader.ShaderPresets;
 import sh.tinywifi.canvasglsl.shader.ShaderRenderer;
 
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Standalone background controller that swaps the main menu panorama with either static media or GLSL shaders.
@@ -32,7 +40,18 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
     private boolean enabled = true;
     private boolean compileQueued;
     private String queuedSource;
+    private Path queuedFile;
     private boolean compilationFailed = false;
+    private long compiledSourceHash;
+    // Queued compiles are syntax checked on a worker; only the newest check is linked once it is back
+    private final ExecutorService checkExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CanvasGLSL compile check");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong checkGeneration = new AtomicLong();
+    private final AtomicReference<CheckedSource> checkedSource = new AtomicReference<>();
+    private boolean compileChecking;
     private boolean renderLoopStarted = false;
 
     private boolean framerateOverrideApplied = false;
@@ -91,7 +110,18 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
         // Don't compile immediately during initialization - let the render loop handle it
         // Only queue compile if we're already on the render thread (user manually saving)
         if (enabled && editorState.isAutoCompileEnabled() && RenderSystem.isOnRenderThread()) {
-            queueCompile(source);
+            queueCompile(source, file);
+        }
+    }
+
+    @Override
+    public void onIncludeSaved(Path library) {
+        needsCompile = true;
+        compilationFailed = false;
+        logDiagnostic("Include {} changed; rebuilding the displayed shader", library.getFileName());
+
+        if (enabled && editorState.isAutoCompileEnabled() && RenderSystem.isOnRenderThread()) {
+            queueCompile(controller.getCompileSource(), controller.getCompileFile().orElse(null));
         }
     }
 
@@ -108,7 +138,7 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
             return;
         }
         logDiagnostic("compileCurrentShader invoked (autoCompile={})", editorState.isAutoCompileEnabled());
-        queueCompile(controller.getCurrentSource());
+        queueCompile(controller.getCompileSource(), controller.getCompileFile().orElse(null));
     }
 
     public void requestManualCompile() {
@@ -117,11 +147,12 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
             return;
         }
         logDiagnostic("Manual compile requested");
-        queueCompile(controller.getCurrentSource());
+        queueCompile(controller.getCompileSource(), controller.getCompileFile().orElse(null));
     }
 
-    private void queueCompile(String fragmentSource) {
+    private void queueCompile(String fragmentSource, Path file) {
         queuedSource = fragmentSource;
+        queuedFile = file;
         compileQueued = true;
         needsCompile = true;
         int length = fragmentSource != null ? fragmentSource.length() : -1;
@@ -151,31 +182,159 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
     }
 
     private void flushQueuedCompile(ShaderRenderer renderer) {
-        if (!compileQueued) {
+        if (compileQueued) {
+            startQueuedCompile(renderer);
+        } else if (!compileChecking) {
             logDiagnostic("flushQueuedCompile: nothing queued (needsCompile={})", needsCompile);
-            return;
         }
+
+        CheckedSource checked = checkedSource.getAndSet(null);
+        if (checked != null && checked.generation() == checkGeneration.get()) {
+            compileChecking = false;
+            finishCheckedCompile(renderer, checked);
+        }
+    }
+
+    private void startQueuedCompile(ShaderRenderer renderer) {
         compileQueued = false;
+        // Whatever is still being checked is older than this request
+        long generation = checkGeneration.incrementAndGet();
+        compileChecking = false;
         String shaderCode = queuedSource;
+        Path shaderFile = queuedFile;
         queuedSource = null;
+        queuedFile = null;
 
         if (shaderCode == null || shaderCode.isBlank()) {
             CanvasGLSL.LOG.warn("Current shader buffer empty; using TRIPPY preset as fallback");
             shaderCode = ShaderPresets.TRIPPY.getShaderCode();
+            shaderFile = null;
+        }
+
+        String unexpanded = shaderCode;
+        try {
+            shaderCode = editorState.getWorkspace().getIncludes().expand(shaderCode, shaderFile);
+        } catch (IllegalStateException ex) {
+            CanvasGLSL.LOG.error(ex.getMessage());
+            editorState.setStatus(ex.getMessage());
+            needsCompile = true;
+            compilationFailed = true;
+            return;
         }
 
+        applySettings(renderer);
+        boolean minify = editorState.isMinifyEnabled();
+        long sourceHash = ShaderRenderer.sourceHash(shaderCode, editorState.isSpecializeConstantsEnabled(), minify);
+        if (renderer.isCompiled() && sourceHash == compiledSourceHash) {
+            // Only comments or whitespace changed; keep the linked program and its clock
+            logDiagnostic("Skipping compile: no semantic change since the last linked program");
+            needsCompile = false;
+            compilationFailed = false;
+            return;
+        }
+
+        if (editorState.isSyntaxCheckEnabled()) {
+            // Sources that cannot compile never reach the driver; the check runs off the render thread and a later
+            // frame links the source once it passes
+            compileChecking = true;
+            String expanded = shaderCode;
+            boolean hasIncludes = !shaderCode.equals(unexpanded);
+            checkExecutor.execute(() -> checkQueuedSource(generation, expanded, hasIncludes, sourceHash));
+            return;
+        }
+
+        compile(renderer, shaderCode, sourceHash);
+    }
+
+    private void checkQueuedSource(long generation, String shaderCode, boolean expanded, long sourceHash) {
+        if (generation != checkGeneration.get()) return;
+        try {
+            GlslSyntaxChecker.Diagnostic error = GlslSyntaxChecker.firstError(GlslSyntaxChecker.check(shaderCode, null, true));
+            String message = null;
+            if (error != null) {
+                String where = expanded ? " of the expanded shader" : "";
+                message = "Syntax error on line " + error.line() + where + ": " + error.message();
+            }
+            checkedSource.set(new CheckedSource(generation, shaderCode, sourceHash, message));
+        } catch (RuntimeException ex) {
+            // A checker bug must not block the compile; the driver has the final word
+            CanvasGLSL.LOG.warn("Syntax check failed", ex);
+            checkedSource.set(new CheckedSource(generation, shaderCode, sourceHash, null));
+        }
+    }
+
+    private void finishCheckedCompile(ShaderRenderer renderer, CheckedSource checked) {
+        if (checked.error() != null) {
+            CanvasGLSL.LOG.error("Shader not compiled. {}", checked.error());
+            editorState.setStatus(checked.error());
+            needsCompile = true;
+            compilationFailed = true;
+            return;
+        }
+        if (renderer.isCompiled() && checked.sourceHash() == compiledSourceHash) {
+            logDiagnostic("Skipping compile: a live preview already linked the same source");
+            needsCompile = false;
+            compilationFailed = false;
+            return;
+        }
+        applySettings(renderer);
+        compile(renderer, checked.shaderCode(), checked.sourceHash());
+    }
+
+    private void compile(ShaderRenderer renderer, String shaderCode, long sourceHash) {
         boolean success = renderer.compileShader(shaderCode);
 
         if (success) {
             needsCompile = false;
             compilationFailed = false;
+            compiledSourceHash = sourceHash;
             renderer.resetTime();
+            if (editorState.isMinifyEnabled() || renderer.getActiveTierName() != null) {
+                editorState.setStatus(renderer.getLastCompileReport());
+            }
+        } else {
+            needsCompile = true;
+            compilationFailed = true;
+        }
+    }
+
+    /**
+     * Links a live-preview build prepared off the render thread. A build rejected by the include expansion or the
+     * syntax check only reports why, so the shader on screen stays until a later build passes.
+     */
+    private void applyPreview(ShaderLivePreview.Build build) {
+        if (build.error() != null) {
+            editorState.setStatus(build.error());
+            return;
+        }
+
+        ShaderRenderer shaderRenderer = getOrCreateRenderer();
+        applySettings(shaderRenderer);
+        long sourceHash = build.shader().sourceHash();
+        if (shaderRenderer.isCompiled() && sourceHash == compiledSourceHash) {
+            logDiagnostic("Skipping live preview: no semantic change since the last linked program");
+            return;
+        }
+
+        if (shaderRenderer.compilePrepared(build.shader())) {
+            needsCompile = false;
+            compilationFailed = false;
+            compiledSourceHash = sourceHash;
+            logDiagnostic("Live preview of {} linked ({})",
+                build.file() != null ? build.file().getFileName() : "<unsaved>", shaderRenderer.getLastCompileReport());
         } else {
             needsCompile = true;
             compilationFailed = true;
+            editorState.setStatus("Live preview failed to compile; see the log");
         }
     }
 
+    private void applySettings(ShaderRenderer renderer) {
+        renderer.setProgramCacheBudget(editorState.getProgramCacheSize(), editorState.getProgramCacheBudgetBytes());
+        renderer.setSpecializeConstants(editorState.isSpecializeConstantsEnabled());
+        renderer.setMinify(editorState.isMinifyEnabled());
+    }
+
     private ShaderRenderer getOrCreateRenderer() {
         if (renderer == null) {
             renderer = new ShaderRenderer();
@@ -188,7 +347,10 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
         ShaderRenderer toCleanup = renderer;
         renderer = null;
         compileQueued = false;
+        compileChecking = false;
+        checkGeneration.incrementAndGet();
         queuedSource = null;
+        queuedFile = null;
         needsCompile = true;
 
         logDiagnostic("Destroying shader renderer; scheduling cleanup on render thread");
@@ -244,10 +406,15 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
             return;
         }
 
+        ShaderLivePreview.Build preview = controller.getLivePreview().take();
+        if (preview != null) {
+            applyPreview(preview);
+        }
+
         // Don't retry compilation if it already failed - wait for user to fix and reload
-        if (needsCompile && !compilationFailed && editorState.isAutoCompileEnabled() && !compileQueued) {
+        if (needsCompile && !compilationFailed && editorState.isAutoCompileEnabled() && !compileQueued && !compileChecking) {
             logDiagnostic("Auto-compiling shader during render pass");
-            queueCompile(controller.getCurrentSource());
+            queueCompile(controller.getCompileSource(), controller.getCompileFile().orElse(null));
         } else if (needsCompile && !editorState.isAutoCompileEnabled()) {
             logDiagnostic("Shader requires manual compile; skipping render");
         } else if (compilationFailed) {
@@ -258,7 +425,10 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
         flushQueuedCompile(shaderRenderer);
 
         if (shaderRenderer.isCompiled()) {
-            shaderRenderer.render(width, height, alpha, 1.0);
+            shaderRenderer.setFrameBudget(editorState.getTierBudgetMs());
+            TweakSession tweaks = controller.getTweakSession().orElse(null);
+            shaderRenderer.setTweaks(tweaks != null ? tweaks.tweaks() : List.of(), tweaks != null ? tweaks.values() : null);
+            shaderRenderer.render(width, height, alpha, shaderRenderer.getRenderQuality());
             logDiagnostic("Shader draw completed for frame {}", frame);
             logFpsDiagnostics(frame);
         } else {
@@ -368,6 +538,10 @@ public class ShaderBackground implements ShaderChangeListener, MediaChangeListen
 
         framerateOverrideApplied = false;
     }
-}
-
 
+    /**
+     * The outcome of a queued compile's syntax check. {@code error} is the status message when the check failed.
+     */
+    private record CheckedSource(long generation, String shaderCode, long sourceHash, String error) {
+    }
+}
@@ -0,0 +1,26 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.time.LocalDateTime;
+
+/**
+ * Per-frame values fed to the built-in uniforms. Mouse coordinates are in target pixels with a bottom-left
+ * origin, the normalized pair is the raw window position in {@code [0, 1]} as the legacy {@code mouse} uniform
+ * expects. {@code date} may be {@code null} when the program has no {@code iDate} uniform.
+ */
+public record FrameUniforms(
+    float time,
+    float timeDelta,
+    int frame,
+    int persistentFrame,
+    float speed,
+    int width,
+    int height,
+    float mouseX,
+    float mouseY,
+    float normalizedMouseX,
+    float normalizedMouseY,
+    float clickX,
+    float clickY,
+    LocalDateTime date
+) {
+}
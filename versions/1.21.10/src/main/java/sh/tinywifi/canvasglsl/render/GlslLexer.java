@@ -0,0 +1,311 @@
+package sh.tinywifi.canvasglsl.render;
+
+/**
+ * Single-pass GLSL tokenizer. Whitespace and comments are skipped, a preprocessor directive comes back as one
+ * {@link Token#DIRECTIVE} covering the logical line (backslash continuations included, trailing comment excluded).
+ * Tokens are exposed as offsets into the source, so scanning allocates nothing; use {@link #GlslLexer(CharSequence,
+ * int, int)} over a directive's range to tokenize its body.
+ */
+public final class GlslLexer {
+    public enum Token {
+        IDENTIFIER,
+        NUMBER,
+        OPERATOR,
+        DIRECTIVE,
+        END
+    }
+
+    private final CharSequence source;
+    private final int limit;
+    private int pos;
+    private int line = 1;
+    private boolean lineStart;
+
+    private Token token;
+    private int start;
+    private int end;
+    private int tokenLine = 1;
+
+    public GlslLexer(CharSequence source) {
+        this(source, 0, source.length());
+        this.lineStart = true;
+    }
+
+    /**
+     * Tokenizes {@code source[from, to)}. A {@code #} in the range is returned as an operator rather than a directive.
+     */
+    public GlslLexer(CharSequence source, int from, int to) {
+        this.source = source;
+        this.pos = from;
+        this.limit = to;
+    }
+
+    public Token next() {
+        skipTrivia();
+        start = pos;
+        tokenLine = line;
+
+        if (pos >= limit) {
+            token = Token.END;
+            end = pos;
+            return token;
+        }
+
+        char c = source.charAt(pos);
+        boolean directive = lineStart && c == '#';
+        lineStart = false;
+
+        if (directive) {
+            scanDirective();
+            token = Token.DIRECTIVE;
+            return token;
+        }
+
+        if (isIdentifierStart(c)) {
+            pos++;
+            while (pos < limit && isIdentifierPart(source.charAt(pos))) {
+                pos++;
+            }
+            token = Token.IDENTIFIER;
+        } else if (isDigit(c) || (c == '.' && isDigit(peek(1)))) {
+            scanNumber();
+            token = Token.NUMBER;
+        } else {
+            pos += operatorLength(c, peek(1), peek(2));
+            token = Token.OPERATOR;
+        }
+
+        end = pos;
+        return token;
+    }
+
+    public Token token() {
+        return token;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    /**
+     * 1-based line of the current token's first character.
+     */
+    public int line() {
+        return tokenLine;
+    }
+
+    public String text() {
+        return source.subSequence(start, end).toString();
+    }
+
+    /**
+     * Whether the current token's text equals {@code text}, without allocating.
+     */
+    public boolean is(String text) {
+        int length = end - start;
+        if (length != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isOperator(char c) {
+        return token == Token.OPERATOR && end - start == 1 && source.charAt(start) == c;
+    }
+
+    /**
+     * Name of the current directive ({@code "version"} for {@code #version 330}), or {@code null} if the current
+     * token is not a directive or has no name.
+     */
+    public String directiveName() {
+        if (token != Token.DIRECTIVE) {
+            return null;
+        }
+        GlslLexer body = new GlslLexer(source, start + 1, end);
+        return body.next() == Token.IDENTIFIER ? body.text() : null;
+    }
+
+    /**
+     * 64-bit hash of the token stream, so sources that differ only in comments, whitespace or line breaks hash
+     * the same. Directives are hashed token by token with their line ends, and inside them a {@code (} glued to the
+     * previous token is told apart from a separated one, since {@code #define F(x)} and {@code #define F (x)} differ.
+     */
+    public static long semanticHash(CharSequence source) {
+        long hash = 0xcbf29ce484222325L;
+        GlslLexer lexer = new GlslLexer(source);
+        while (lexer.next() != Token.END) {
+            if (lexer.token() == Token.DIRECTIVE) {
+                GlslLexer body = new GlslLexer(source, lexer.start(), lexer.end());
+                int previousEnd = -1;
+                while (body.next() != Token.END) {
+                    boolean glued = body.start() == previousEnd && body.isOperator('(');
+                    hash = mix(hash, glued ? '\u0002' : '\u0001');
+                    hash = mix(hash, source, body.start(), body.end());
+                    previousEnd = body.end();
+                }
+                hash = mix(hash, '\n');
+            } else {
+                hash = mix(hash, '\u0001');
+                hash = mix(hash, source, lexer.start(), lexer.end());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, char c) {
+        return (hash ^ c) * 0x100000001b3L;
+    }
+
+    private static long mix(long hash, CharSequence source, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ source.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void skipTrivia() {
+        while (pos < limit) {
+            char c = source.charAt(pos);
+            if (c == '\n') {
+                line++;
+                lineStart = true;
+                pos++;
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B) {
+                pos++;
+            } else if (c == '\\' && isNewlineAt(pos + 1)) {
+                // Line continuation outside a directive joins the two lines
+                pos = skipNewline(pos + 1);
+                line++;
+            } else if (c == '/' && peek(1) == '/') {
+                while (pos < limit && source.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == '/' && peek(1) == '*') {
+                skipBlockComment();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipBlockComment() {
+        pos += 2;
+        while (pos < limit) {
+            char c = source.charAt(pos);
+            if (c == '*' && peek(1) == '/') {
+                pos += 2;
+                return;
+            }
+            if (c == '\n') {
+                line++;
+            }
+            pos++;
+        }
+    }
+
+    private void scanDirective() {
+        end = pos + 1;
+        pos++;
+        while (pos < limit) {
+            char c = source.charAt(pos);
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\\' && isNewlineAt(pos + 1)) {
+                pos = skipNewline(pos + 1);
+                line++;
+                continue;
+            }
+            if (c == '/' && peek(1) == '/') {
+                break;
+            }
+            if (c == '/' && peek(1) == '*') {
+                skipBlockComment();
+                end = pos;
+                continue;
+            }
+            pos++;
+            if (c != ' ' && c != '\t' && c != '\r') {
+                end = pos;
+            }
+        }
+    }
+
+    private void scanNumber() {
+        if (source.charAt(pos) == '0' && (peek(1) == 'x' || peek(1) == 'X')) {
+            pos += 2;
+            while (pos < limit && Character.digit(source.charAt(pos), 16) >= 0) {
+                pos++;
+            }
+        } else {
+            while (pos < limit && (isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                pos++;
+            }
+            char c = peek(0);
+            if (c == 'e' || c == 'E') {
+                pos++;
+                if (peek(0) == '+' || peek(0) == '-') {
+                    pos++;
+                }
+                while (pos < limit && isDigit(source.charAt(pos))) {
+                    pos++;
+                }
+            }
+        }
+        // Suffixes: u, f, lf
+        while (pos < limit && isIdentifierPart(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static int operatorLength(char c, char next, char afterNext) {
+        if ((c == '<' || c == '>') && next == c) {
+            return afterNext == '=' ? 3 : 2;
+        }
+        if (next == '=' && "+-*/%<>=!&|^".indexOf(c) >= 0) {
+            return 2;
+        }
+        if (next == c && "+-&|^".indexOf(c) >= 0) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private char peek(int offset) {
+        int index = pos + offset;
+        return index < limit ? source.charAt(index) : '\0';
+    }
+
+    private boolean isNewlineAt(int index) {
+        if (index >= limit) {
+            return false;
+        }
+        char c = source.charAt(index);
+        return c == '\n' || (c == '\r' && index + 1 < limit && source.charAt(index + 1) == '\n');
+    }
+
+    private int skipNewline(int index) {
+        return source.charAt(index) == '\r' ? index + 2 : index + 1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    public static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+}
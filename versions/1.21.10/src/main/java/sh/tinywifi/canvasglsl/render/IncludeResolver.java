@@ -0,0 +1,319 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expands {@code #include "lib/noise.glsl"} directives against a workspace root before a source is patched.
+ *
+ * Included files are read once and kept with their modification time, size and content hash; later expansions
+ * only stat them. Every file is inlined at most once per expansion, a {@code #version} inside a library is dropped,
+ * and include cycles fail. The resolver also records which files include which, so saving a library can be mapped
+ * back to the shaders that need rebuilding, and caches each shader's expansion until its source or one of its
+ * dependencies changes.
+ */
+public final class IncludeResolver {
+    private static final int MAX_DEPTH = 32;
+
+    private final Path root;
+    private final Map<Path, Node> nodes = new HashMap<>();
+    private final Map<Path, Set<Path>> includesOf = new HashMap<>();
+    private final Map<Path, Set<Path>> includedBy = new HashMap<>();
+    private final Map<Path, Expansion> expansions = new HashMap<>();
+
+    public IncludeResolver(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns {@code source} with every include inlined. {@code file} is the shader's own path and may be
+     * {@code null} for unsaved buffers and presets.
+     *
+     * @throws IllegalStateException when an include is missing, escapes the workspace or forms a cycle
+     */
+    public synchronized String expand(String source, Path file) {
+        Path key = file != null ? normalize(file) : root;
+        if (source.indexOf("#include") < 0) {
+            expansions.remove(key);
+            if (file != null) {
+                updateEdges(key, Collections.emptySet());
+            }
+            return source;
+        }
+
+        long sourceHash = hash(source);
+        Expansion cached = expansions.get(key);
+        if (cached != null && cached.sourceHash() == sourceHash && cached.source().equals(source)
+            && isCurrent(cached.dependencies())) {
+            return cached.expanded();
+        }
+
+        List<Include> directives = parse(source, key, false);
+        StringBuilder out = new StringBuilder(source.length() + 4096);
+        Map<Path, Long> dependencies = new LinkedHashMap<>();
+        Deque<Path> stack = new ArrayDeque<>();
+        stack.push(key);
+        append(out, source, directives, key, dependencies, stack);
+
+        if (file != null) {
+            updateEdges(key, targets(directives));
+        }
+        String expanded = out.toString();
+        expansions.put(key, new Expansion(sourceHash, source, dependencies, expanded));
+        return expanded;
+    }
+
+    /**
+     * Drops cached state for a file that was just written. Returns whether the file was a known include whose
+     * content differs from what was cached, i.e. whether shaders including it need rebuilding.
+     */
+    public synchronized boolean invalidate(Path file) {
+        if (file == null) {
+            return false;
+        }
+        Path key = normalize(file);
+        expansions.remove(key);
+        Node previous = nodes.remove(key);
+        if (previous == null) {
+            return false;
+        }
+        try {
+            return fresh(key, describe(key)).hash() != previous.hash();
+        } catch (IllegalStateException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Whether {@code shader} includes {@code library}, directly or through other includes, as of its last expansion.
+     */
+    public synchronized boolean dependsOn(Path shader, Path library) {
+        if (shader == null || library == null) {
+            return false;
+        }
+        Path target = normalize(shader);
+        return dependentsOf(normalize(library)).contains(target);
+    }
+
+    /**
+     * Every file that transitively includes {@code library}.
+     */
+    public synchronized Set<Path> dependentsOf(Path library) {
+        Set<Path> result = new LinkedHashSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.add(normalize(library));
+        while (!pending.isEmpty()) {
+            for (Path dependent : includedBy.getOrDefault(pending.poll(), Collections.emptySet())) {
+                if (result.add(dependent)) {
+                    pending.add(dependent);
+                }
+            }
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        includesOf.clear();
+        includedBy.clear();
+        expansions.clear();
+    }
+
+    private void append(StringBuilder out, String text, List<Include> directives, Path owner,
+                        Map<Path, Long> dependencies, Deque<Path> stack) {
+        int copied = 0;
+        for (Include include : directives) {
+            out.append(text, copied, include.start());
+            copied = include.end();
+
+            Path target = include.target();
+            if (target == null) {
+                continue;
+            }
+            if (stack.contains(target)) {
+                throw new IllegalStateException("Circular #include \"" + include.spec() + "\" in " + describe(owner));
+            }
+            if (stack.size() >= MAX_DEPTH) {
+                throw new IllegalStateException("#include nesting deeper than " + MAX_DEPTH + " in " + describe(owner));
+            }
+            if (dependencies.containsKey(target)) {
+                // Already inlined earlier in this expansion
+                continue;
+            }
+
+            Node node = fresh(target, include.spec());
+            dependencies.put(target, node.hash());
+            stack.push(target);
+            append(out, node.content(), node.includes(), target, dependencies, stack);
+            stack.pop();
+            if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                out.append('\n');
+            }
+        }
+        out.append(text, copied, text.length());
+    }
+
+    private Node fresh(Path file, String spec) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read #include \"" + spec + "\"");
+        }
+
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        Node node = nodes.get(file);
+        if (node != null && node.modified() == modified && node.size() == size) {
+            return node;
+        }
+
+        String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to read #include " + describe(file) + ": " + ex.getMessage());
+        }
+
+        List<Include> includes = parse(content, file, true);
+        node = new Node(modified, size, hash(content), content, includes);
+        nodes.put(file, node);
+        updateEdges(file, targets(includes));
+        return node;
+    }
+
+    private boolean isCurrent(Map<Path, Long> dependencies) {
+        for (Map.Entry<Path, Long> dependency : dependencies.entrySet()) {
+            try {
+                if (fresh(dependency.getKey(), describe(dependency.getKey())).hash() != dependency.getValue()) {
+                    return false;
+                }
+            } catch (IllegalStateException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Include> parse(String text, Path owner, boolean library) {
+        if (text.indexOf('#') < 0) {
+            return Collections.emptyList();
+        }
+
+        List<Include> includes = new ArrayList<>();
+        GlslLexer lexer = new GlslLexer(text);
+        while (lexer.next() != GlslLexer.Token.END) {
+            if (lexer.token() != GlslLexer.Token.DIRECTIVE) {
+                continue;
+            }
+            String name = lexer.directiveName();
+            if ("include".equals(name)) {
+                String spec = includeSpec(text, lexer.start(), lexer.end());
+                if (spec == null) {
+                    throw new IllegalStateException("Malformed #include on line " + lexer.line() + " of " + describe(owner));
+                }
+                includes.add(new Include(lexer.start(), lexer.end(), spec, resolve(spec, owner)));
+            } else if (library && "version".equals(name)) {
+                // The including shader owns the #version line
+                includes.add(new Include(lexer.start(), lexer.end(), "", null));
+            }
+        }
+        return includes;
+    }
+
+    private static String includeSpec(String text, int start, int end) {
+        int open = -1;
+        char close = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '<') {
+                open = i;
+                close = c == '"' ? '"' : '>';
+                break;
+            }
+        }
+        if (open < 0) {
+            return null;
+        }
+        int closeIndex = text.indexOf(close, open + 1);
+        if (closeIndex < 0 || closeIndex > end || closeIndex == open + 1) {
+            return null;
+        }
+        return text.substring(open + 1, closeIndex);
+    }
+
+    private Path resolve(String spec, Path owner) {
+        Path resolved = root.resolve(spec).normalize();
+        if (!resolved.startsWith(root)) {
+            throw new IllegalStateException("#include \"" + spec + "\" in " + describe(owner) + " escapes the workspace");
+        }
+        return resolved;
+    }
+
+    private void updateEdges(Path owner, Set<Path> targets) {
+        Set<Path> previous = includesOf.put(owner, targets);
+        if (previous != null) {
+            for (Path target : previous) {
+                Set<Path> parents = includedBy.get(target);
+                if (parents != null) {
+                    parents.remove(owner);
+                }
+            }
+        }
+        for (Path target : targets) {
+            includedBy.computeIfAbsent(target, ignored -> new HashSet<>()).add(owner);
+        }
+    }
+
+    private static Set<Path> targets(List<Include> includes) {
+        Set<Path> targets = new LinkedHashSet<>();
+        for (Include include : includes) {
+            if (include.target() != null) {
+                targets.add(include.target());
+            }
+        }
+        return targets;
+    }
+
+    private Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    private String describe(Path file) {
+        if (file.equals(root)) {
+            return "<unsaved shader>";
+        }
+        return file.startsWith(root) ? root.relativize(file).toString().replace('\\', '/') : file.toString();
+    }
+
+    private static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private record Include(int start, int end, String spec, Path target) {
+    }
+
+    private record Node(long modified, long size, long hash, String content, List<Include> includes) {
+    }
+
+    private record Expansion(long sourceHash, String source, Map<Path, Long> dependencies, String expanded) {
+    }
+}
@@ -1,5 +1,6 @@
 package sh.tinywifi.canvasglsl.render;
 
+import com.mojang.blaze3d.opengl.GlStateManager;
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gl.BufferManager;
@@ -9,8 +10,6 @@ import net.minecraft.client.gl.SimpleFramebuffer;
 import net.minecraft.client.texture.GlTexture;
 import com.mojang.blaze3d.textures.GpuTexture;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL14;
 import org.lwjgl.opengl.GL20;
 import sh.tinywifi.canvasglsl.CanvasGLSL;
 import sh.tinywifi.canvasglsl.render.FullscreenQuad;
@@ -31,17 +30,6 @@ public final class ShaderCanvas implements Closeable {
     private final int blitAlphaUniform;
     private boolean forceMainFramebuffer = false;
 
-    private static final String BLIT_VERTEX_SHADER = """
-        #version 330 core
-        layout(location = 0) in vec3 position;
-        layout(location = 1) in vec2 uv;
-        out vec2 vUv;
-        void main() {
-            gl_Position = vec4(position, 1.0);
-            vUv = uv;
-        }
-        """;
-
     private static final String BLIT_FRAGMENT_SHADER = """
         #version 330 core
         in vec2 vUv;
@@ -97,7 +85,7 @@ public final class ShaderCanvas implements Closeable {
         RenderSystem.assertOnRenderThread();
         GpuTexture color = input.getColorAttachment();
         if (color instanceof GlTexture glTexture) {
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, glTexture.getGlId());
+            GlStateManager._bindTexture(glTexture.getGlId());
         }
     }
 
@@ -140,47 +128,22 @@ public final class ShaderCanvas implements Closeable {
             return;
         }
 
-        boolean depthEnabled = GL11.glIsEnabled(GL11.GL_DEPTH_TEST);
-        boolean blendEnabled = GL11.glIsEnabled(GL11.GL_BLEND);
-        int prevSrcRgb = GL11.glGetInteger(GL14.GL_BLEND_SRC_RGB);
-        int prevDstRgb = GL11.glGetInteger(GL14.GL_BLEND_DST_RGB);
-        int prevSrcAlpha = GL11.glGetInteger(GL14.GL_BLEND_SRC_ALPHA);
-        int prevDstAlpha = GL11.glGetInteger(GL14.GL_BLEND_DST_ALPHA);
-        int prevEqRgb = GL11.glGetInteger(GL20.GL_BLEND_EQUATION_RGB);
-        int prevEqAlpha = GL11.glGetInteger(GL20.GL_BLEND_EQUATION_ALPHA);
-
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
-        GL11.glEnable(GL11.GL_BLEND);
-        GL14.glBlendFuncSeparate(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA, GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
-        GL20.glBlendEquationSeparate(GL14.GL_FUNC_ADD, GL14.GL_FUNC_ADD);
-
-        GL13.glActiveTexture(GL13.GL_TEXTURE0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, glTexture.getGlId());
-        GL20.glUseProgram(blitProgram);
+        // Go through GlStateManager so Blaze3D's cached state stays in sync; the next pipeline draw re-applies
+        // whatever it needs, so nothing has to be saved and restored here.
+        GlStateManager._disableDepthTest();
+        GlStateManager._enableBlend();
+        GlStateManager._blendFuncSeparate(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA, GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+
+        ShaderRenderState.bindTexture(0, glTexture.getGlId());
+        GlStateManager._glUseProgram(blitProgram);
         GL20.glUniform1f(blitAlphaUniform, alpha);
 
         blitQuad.bind();
         blitQuad.draw();
         FullscreenQuad.unbind();
 
-        GL20.glUseProgram(0);
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-
-        // Restore blend state
-        GL14.glBlendFuncSeparate(prevSrcRgb, prevDstRgb, prevSrcAlpha, prevDstAlpha);
-        GL20.glBlendEquationSeparate(prevEqRgb, prevEqAlpha);
-        if (blendEnabled) {
-            GL11.glEnable(GL11.GL_BLEND);
-        } else {
-            GL11.glDisable(GL11.GL_BLEND);
-        }
-
-        // Restore depth state
-        if (depthEnabled) {
-            GL11.glEnable(GL11.GL_DEPTH_TEST);
-        } else {
-            GL11.glDisable(GL11.GL_DEPTH_TEST);
-        }
+        GlStateManager._glUseProgram(0);
+        GlStateManager._bindTexture(0);
 
         if (forceMainFramebuffer && prevFramebufferBinding != -1) {
             GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, prevFramebufferBinding);
@@ -201,26 +164,16 @@ public final class ShaderCanvas implements Closeable {
     }
 
     private static int createBlitProgram() {
-        int vertexShader = compileShader(GL20.GL_VERTEX_SHADER, BLIT_VERTEX_SHADER);
         int fragmentShader = compileShader(GL20.GL_FRAGMENT_SHADER, BLIT_FRAGMENT_SHADER);
         int program = GL20.glCreateProgram();
-        GL20.glAttachShader(program, vertexShader);
-        GL20.glAttachShader(program, fragmentShader);
-        GL20.glBindAttribLocation(program, 0, "position");
-        GL20.glBindAttribLocation(program, 1, "uv");
-        GL20.glLinkProgram(program);
+        SharedVertexStage.link(program, fragmentShader);
+        GL20.glDeleteShader(fragmentShader);
         if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
             String info = GL20.glGetProgramInfoLog(program);
             CanvasGLSL.LOG.error("Failed to link blit program: {}", info);
             GL20.glDeleteProgram(program);
-            GL20.glDeleteShader(vertexShader);
-            GL20.glDeleteShader(fragmentShader);
             throw new IllegalStateException("Failed to link blit program: " + info);
         }
-        GL20.glDetachShader(program, vertexShader);
-        GL20.glDetachShader(program, fragmentShader);
-        GL20.glDeleteShader(vertexShader);
-        GL20.glDeleteShader(fragmentShader);
         return program;
     }
 
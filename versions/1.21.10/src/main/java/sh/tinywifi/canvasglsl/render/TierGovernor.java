@@ -0,0 +1,80 @@
+package sh.tinywifi.canvasglsl.render;
+
+/**
+ * Decides when to move between quality tiers from measured GPU times. Times are smoothed, a step down needs the
+ * average to stay over budget for a moment, and a step up needs plenty of headroom. A step up that has to be undone
+ * soon after doubles the wait before the next one, so a shader sitting right at the budget does not flicker.
+ */
+public final class TierGovernor {
+    public static final double DEFAULT_BUDGET_MILLIS = 4.0;
+
+    private static final double SMOOTHING = 0.1;
+    private static final double UP_HEADROOM = 0.5;
+    private static final int MIN_SAMPLES = 20;
+    private static final long DOWN_DELAY_NANOS = 500_000_000L;
+    private static final long MIN_UP_DELAY_NANOS = 2_000_000_000L;
+    private static final long MAX_UP_DELAY_NANOS = 60_000_000_000L;
+
+    private double budgetMillis = DEFAULT_BUDGET_MILLIS;
+    private double average;
+    private int samples;
+    private long lastSwitchNanos;
+    private long upDelayNanos = MIN_UP_DELAY_NANOS;
+    private boolean lastSwitchUp;
+
+    public void setBudget(double millis) {
+        this.budgetMillis = Math.max(0.1, millis);
+    }
+
+    public double budget() {
+        return budgetMillis;
+    }
+
+    /**
+     * The smoothed GPU time of the current tier, or {@code -1} before any sample.
+     */
+    public double average() {
+        return samples == 0 ? -1.0 : average;
+    }
+
+    /**
+     * Forgets all measurements, for a newly compiled shader.
+     */
+    public void reset(long nowNanos) {
+        samples = 0;
+        lastSwitchNanos = nowNanos;
+        upDelayNanos = MIN_UP_DELAY_NANOS;
+        lastSwitchUp = false;
+    }
+
+    /**
+     * Records one GPU time and returns {@code -1} to step down a tier, {@code 1} to step up, or {@code 0} to stay.
+     */
+    public int sample(double gpuMillis, long nowNanos) {
+        average = samples == 0 ? gpuMillis : average + (gpuMillis - average) * SMOOTHING;
+        samples++;
+        if (samples < MIN_SAMPLES) {
+            return 0;
+        }
+        long sinceSwitch = nowNanos - lastSwitchNanos;
+        if (average > budgetMillis && sinceSwitch >= DOWN_DELAY_NANOS) {
+            return -1;
+        }
+        if (average < budgetMillis * UP_HEADROOM && sinceSwitch >= upDelayNanos) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Tells the governor the renderer moved by {@code direction} tiers; measurements restart for the new tier.
+     */
+    public void switched(int direction, long nowNanos) {
+        if (direction < 0 && lastSwitchUp && nowNanos - lastSwitchNanos < upDelayNanos * 2) {
+            upDelayNanos = Math.min(MAX_UP_DELAY_NANOS, upDelayNanos * 2);
+        }
+        lastSwitchUp = direction > 0;
+        lastSwitchNanos = nowNanos;
+        samples = 0;
+    }
+}
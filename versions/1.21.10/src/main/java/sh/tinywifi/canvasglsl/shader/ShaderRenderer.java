@@ -5,33 +5,34 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.option.SimpleOption;
 import net.minecraft.client.util.Window;
 import net.minecraft.util.Identifier;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFW;
-import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL12;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL14;
-import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
 import sh.tinywifi.canvasglsl.CanvasGLSL;
+import sh.tinywifi.canvasglsl.render.ChannelTextures;
+import sh.tinywifi.canvasglsl.render.FrameUniforms;
 import sh.tinywifi.canvasglsl.render.GlobalState;
+import sh.tinywifi.canvasglsl.render.GpuTimer;
+import sh.tinywifi.canvasglsl.render.GlslLexer;
+import sh.tinywifi.canvasglsl.render.GlslMinifier;
+import sh.tinywifi.canvasglsl.render.ProgramCache;
 import sh.tinywifi.canvasglsl.render.ShaderCanvas;
+import sh.tinywifi.canvasglsl.render.ShaderCostEstimator;
 import sh.tinywifi.canvasglsl.render.ShaderPatcher;
+import sh.tinywifi.canvasglsl.render.ShaderProgram;
+import sh.tinywifi.canvasglsl.render.ShaderRenderState;
+import sh.tinywifi.canvasglsl.render.ShaderTweaks;
+import sh.tinywifi.canvasglsl.render.SharedVertexStage;
+import sh.tinywifi.canvasglsl.render.TierGovernor;
 import sh.tinywifi.canvasglsl.render.FullscreenQuad;
 
 import java.lang.reflect.Method;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.util.Random;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
 
 public class ShaderRenderer {
-    private static final int GL_BLEND_SRC_RGB = 0x80C9;
-    private static final int GL_BLEND_DST_RGB = 0x80C8;
-    private static final int GL_BLEND_SRC_ALPHA = 0x80CB;
-    private static final int GL_BLEND_DST_ALPHA = 0x80CA;
-    private static final int GL_BLEND_EQUATION_RGB = 0x8009;
-    private static final int GL_BLEND_EQUATION_ALPHA = 0x883D;
+    private static final int RAMP_SAMPLES = 15;
+    private static final double RAMP_STEP = 0.1;
 
     private static boolean RENDERSYSTEM_DEPTH_AVAILABLE = true;
     private static boolean RENDERSYSTEM_BLEND_AVAILABLE = true;
@@ -40,31 +41,37 @@ public class ShaderRenderer {
     private static boolean RENDERSYSTEM_DEFAULT_BLEND_AVAILABLE = true;
     private static boolean RENDERSYSTEM_BLEND_SEPARATE_AVAILABLE = true;
 
-    private int shaderProgram = -1;
-    private int vertexShader = -1;
-    private int fragmentShader = -1;
-
-    private int timeUniform = -1;
-    private int resolutionUniform = -1;
-    private int mouseUniform = -1;
-    private int imageUniform = -1;
-    private int backbufferUniform = -1;
-    private int frameUniform = -1;
-    private int persistentFrameUniform = -1;
-    private int speedUniform = -1;
-    private int iTimeUniform = -1;
-    private int iResolutionUniform = -1;
-    private int iMouseUniform = -1;
-    private int iFrameUniform = -1;
-    private int iTimeDeltaUniform = -1;
-    private int iDateUniform = -1;
-    private int iSampleRateUniform = -1;
-    private final int[] channelUniforms = new int[4];
-    private final int[] channelResolutionUniforms = new int[4];
-    private final int[] channelTimeUniforms = new int[4];
-    private final int[] channelTextures = new int[4];
-    private final int[] channelWidths = new int[4];
-    private final int[] channelHeights = new int[4];
+    private static final String LEGACY_FRAGMENT_OUTPUT = "gl_FragColor";
+
+    private ShaderProgram program;
+    private final ProgramCache programCache = new ProgramCache();
+    private boolean specializeConstants = true;
+    private boolean minify;
+    private String lastCompileReport = "";
+
+    // Quality tiers of the current shader; the program linked by compileShader is tierPrograms[firstTier] and is
+    // owned by programCache, the others are linked one per frame afterwards and owned here
+    private List<ShaderPatcher.Tier> tiers = List.of();
+    private ShaderProgram[] tierPrograms = new ShaderProgram[0];
+    private String tierFragmentSource;
+    private String tierVertexSource;
+    private int firstTier;
+    private int activeTier;
+    private int nextTierToLink;
+    private final TierGovernor tierGovernor = new TierGovernor();
+    private GpuTimer gpuTimer;
+
+    // A new shader starts at the resolution scale its estimated cost allows and climbs towards 1 while GPU times
+    // show headroom; once a step would exceed the budget the scale is settled for that shader
+    private double renderQuality = 1.0;
+    private boolean qualitySettled = true;
+    private double rampMillis;
+    private int rampSamples;
+
+    private List<ShaderTweaks.Tweak> tweaks = List.of();
+    private float[] tweakValues;
+
+    private ChannelTextures channels;
     private FullscreenQuad quad;
     private ShaderCanvas canvas;
     private boolean glResourcesInitialized;
@@ -80,15 +87,6 @@ public class ShaderRenderer {
     private boolean lastMouseDown;
     private boolean hasLoggedCompilationError = false;
 
-    private static final String DEFAULT_VERTEX_SHADER = """
-        #version 330 core
-        layout(location = 0) in vec3 position;
-
-        void main() {
-            gl_Position = vec4(position, 1.0);
-        }
-        """;
-
     public ShaderRenderer() {
         this.mc = MinecraftClient.getInstance();
         this.startTimeNanos = System.nanoTime();
@@ -100,10 +98,15 @@ public class ShaderRenderer {
         }
         RenderSystem.assertOnRenderThread();
         initializeQuadBuffer();
-        initializeChannelTextures();
+        if (channels == null) {
+            channels = ChannelTextures.create();
+        }
         if (canvas == null) {
             canvas = new ShaderCanvas();
         }
+        if (gpuTimer == null) {
+            gpuTimer = GpuTimer.create();
+        }
         glResourcesInitialized = true;
     }
 
@@ -114,173 +117,146 @@ public class ShaderRenderer {
         quad = FullscreenQuad.create();
     }
 
-    private void initializeChannelTextures() {
-        RenderSystem.assertOnRenderThread();
-        final int size = 256;
-
-        for (int i = 0; i < channelTextures.length; i++) {
-            channelTextures[i] = GL11.glGenTextures();
-            channelWidths[i] = size;
-            channelHeights[i] = size;
-
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, channelTextures[i]);
-            // Use LINEAR_MIPMAP_LINEAR for better quality when textures are viewed at different scales
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_REPEAT);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_REPEAT);
-
-            ByteBuffer data = BufferUtils.createByteBuffer(size * size * 4);
-            Random random = new Random(0xC0FFEE + i * 997);
-            for (int y = 0; y < size; y++) {
-                for (int x = 0; x < size; x++) {
-                    float fx = x / (float) (size - 1);
-                    float fy = y / (float) (size - 1);
-                    int r;
-                    int g;
-                    int b;
-
-                    switch (i) {
-                        case 0 -> {
-                            int value = random.nextInt(256);
-                            r = value;
-                            g = value;
-                            b = value;
-                        }
-                        case 1 -> {
-                            r = Math.min(255, Math.round(fx * 255f));
-                            g = Math.min(255, Math.round(fy * 255f));
-                            b = Math.min(255, Math.round(((fx + fy) * 0.5f) * 255f));
-                        }
-                        case 2 -> {
-                            int stripe = ((x ^ y) & 15) * 16;
-                            r = stripe;
-                            g = 255 - stripe;
-                            b = stripe / 2 + 64;
-                        }
-                        default -> {
-                            r = random.nextInt(256);
-                            g = random.nextInt(256);
-                            b = random.nextInt(256);
-                        }
-                    }
+    /**
+     * A shader patched, estimated and minified ahead of linking by {@link #prepare}. {@code sourceHash} identifies
+     * the source and the settings it was patched with, see {@link #sourceHash}.
+     */
+    public record PreparedShader(String vertexSource, String fragmentSource, List<ShaderPatcher.Tier> tiers,
+                                 String processedVertex, String processedFragment, String compiledFragment,
+                                 String minifyReport, ShaderCostEstimator.Estimate estimate,
+                                 boolean specializeConstants, boolean minify, long sourceHash) {
+    }
 
-                    data.put((byte) r);
-                    data.put((byte) g);
-                    data.put((byte) b);
-                    data.put((byte) 255);
-                }
-            }
-            data.flip();
+    public boolean compileShader(String fragmentSource) {
+        return compileShader(null, fragmentSource, null);
+    }
 
-            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, size, size, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data);
-            // Generate mipmaps for better texture quality
-            GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
-        }
+    /**
+     * Compiles and links a new program. A {@code null} vertex source links against the {@link SharedVertexStage}
+     * instead of compiling a vertex shader for this program.
+     */
+    public boolean compileShader(String vertexSource, String fragmentSource, Identifier textureId) {
+        return compile(vertexSource, fragmentSource, null);
+    }
 
-        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    /**
+     * Links a shader prepared off the render thread. One prepared with other patch settings than this renderer's is
+     * prepared again.
+     */
+    public boolean compilePrepared(PreparedShader prepared) {
+        boolean current = prepared.specializeConstants() == specializeConstants && prepared.minify() == minify;
+        return compile(prepared.vertexSource(), prepared.fragmentSource(), current ? prepared : null);
     }
 
-    public boolean compileShader(String fragmentSource) {
-        return compileShader(DEFAULT_VERTEX_SHADER, fragmentSource, null);
+    /**
+     * Everything {@link #compileShader} does before linking. None of it touches GL state, so it can run on any
+     * thread.
+     */
+    public static PreparedShader prepare(String vertexSource, String fragmentSource, boolean specializeConstants,
+                                         boolean minify) {
+        // The most detailed tier is shown first; cheaper ones are linked over the next frames
+        List<ShaderPatcher.Tier> declaredTiers = ShaderPatcher.tiers(fragmentSource);
+        ShaderPatcher.Tier firstVariant = declaredTiers.isEmpty() ? null : declaredTiers.get(declaredTiers.size() - 1);
+
+        // Patch shaders for compatibility
+        String processedFragment = ShaderPatcher.patchFragment(fragmentSource, specializeConstants, firstVariant);
+        String processedVertex = vertexSource != null ? ShaderPatcher.patchVertex(vertexSource) : null;
+        ShaderCostEstimator.Estimate estimate = ShaderCostEstimator.estimate(processedFragment);
+
+        String compiledFragment = processedFragment;
+        String minifyReport = "";
+        if (minify) {
+            GlslMinifier.Result minified = GlslMinifier.minify(processedFragment);
+            compiledFragment = minified.source();
+            minifyReport = String.format(Locale.ROOT, "; minified %.1f KB to %.1f KB (%d unused functions, %d constants folded)",
+                processedFragment.length() / 1024.0, compiledFragment.length() / 1024.0,
+                minified.removedFunctions(), minified.foldedConstants());
+        }
+        return new PreparedShader(vertexSource, fragmentSource, declaredTiers, processedVertex, processedFragment,
+            compiledFragment, minifyReport, estimate, specializeConstants, minify,
+            sourceHash(fragmentSource, specializeConstants, minify));
     }
 
-    public boolean compileShader(String vertexSource, String fragmentSource, Identifier textureId) {
+    /**
+     * Identifies what a compile of {@code fragmentSource} with these settings produces; sources differing only in
+     * comments or whitespace hash the same.
+     */
+    public static long sourceHash(String fragmentSource, boolean specializeConstants, boolean minify) {
+        return GlslLexer.semanticHash(fragmentSource) * 31 + (specializeConstants ? 1 : 0) + (minify ? 2 : 0);
+    }
+
+    private boolean compile(String vertexSource, String fragmentSource, PreparedShader prepared) {
         RenderSystem.assertOnRenderThread();
         ensureInitialized();
         cleanupShader();
         hasLoggedCompilationError = false; // Reset flag for new compilation attempt
 
         try {
-            // Patch shaders for compatibility
-            String processedVertex = ShaderPatcher.patchVertex(vertexSource);
-            String processedFragment = ShaderPatcher.patchFragment(fragmentSource);
-
-            // Compile vertex shader
-            vertexShader = compileShaderPart(processedVertex, GL20.GL_VERTEX_SHADER);
-            if (vertexShader == -1) return false;
-
-            // Compile fragment shader
-            fragmentShader = compileShaderPart(processedFragment, GL20.GL_FRAGMENT_SHADER);
-            if (fragmentShader == -1) return false;
-
-            // Link program
-            shaderProgram = GL20.glCreateProgram();
-            GL20.glAttachShader(shaderProgram, vertexShader);
-            GL20.glAttachShader(shaderProgram, fragmentShader);
-            GL20.glLinkProgram(shaderProgram);
-
-            if (GL20.glGetProgrami(shaderProgram, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
-                String log = GL20.glGetProgramInfoLog(shaderProgram, 1024);
-                CanvasGLSL.LOG.error("Failed to link shader program! Caused by: {}", log);
-                return false;
+            if (fragmentSource.contains(LEGACY_FRAGMENT_OUTPUT)) {
+                CanvasGLSL.LOG.warn("Loaded shader uses outdated OpenGL keyword 'gl_FragColor'!");
             }
 
-            // Free now unused resources
-            GL20.glDeleteShader(vertexShader);
-            GL20.glDeleteShader(fragmentShader);
-            vertexShader = -1;
-            fragmentShader = -1;
-
-            // Get uniform locations
-            timeUniform = GL20.glGetUniformLocation(shaderProgram, "time");
-            resolutionUniform = GL20.glGetUniformLocation(shaderProgram, "resolution");
-            mouseUniform = GL20.glGetUniformLocation(shaderProgram, "mouse");
-            frameUniform = GL20.glGetUniformLocation(shaderProgram, "frame");
-            persistentFrameUniform = GL20.glGetUniformLocation(shaderProgram, "persistent_frame");
-            speedUniform = GL20.glGetUniformLocation(shaderProgram, "speed");
-            iTimeUniform = GL20.glGetUniformLocation(shaderProgram, "iTime");
-            iResolutionUniform = GL20.glGetUniformLocation(shaderProgram, "iResolution");
-            iMouseUniform = GL20.glGetUniformLocation(shaderProgram, "iMouse");
-            iFrameUniform = GL20.glGetUniformLocation(shaderProgram, "iFrame");
-            iTimeDeltaUniform = GL20.glGetUniformLocation(shaderProgram, "iTimeDelta");
-            iDateUniform = GL20.glGetUniformLocation(shaderProgram, "iDate");
-            iSampleRateUniform = GL20.glGetUniformLocation(shaderProgram, "iSampleRate");
-            for (int i = 0; i < channelUniforms.length; i++) {
-                channelUniforms[i] = -1;
-                channelResolutionUniforms[i] = -1;
-                channelTimeUniforms[i] = -1;
+            if (prepared == null) {
+                prepared = prepare(vertexSource, fragmentSource, specializeConstants, minify);
             }
-            for (int i = 0; i < channelUniforms.length; i++) {
-                channelUniforms[i] = GL20.glGetUniformLocation(shaderProgram, "iChannel" + i);
-                channelResolutionUniforms[i] = GL20.glGetUniformLocation(shaderProgram, "iChannelResolution[" + i + "]");
-                channelTimeUniforms[i] = GL20.glGetUniformLocation(shaderProgram, "iChannelTime[" + i + "]");
+            List<ShaderPatcher.Tier> declaredTiers = prepared.tiers();
+            String processedFragment = prepared.processedFragment();
+            String processedVertex = prepared.processedVertex();
+            startQuality(prepared.estimate());
+
+            String compiledFragment = prepared.compiledFragment();
+            String minifyReport = prepared.minifyReport();
+
+            ShaderProgram cached = programCache.find(processedVertex, compiledFragment);
+            if (cached != null) {
+                program = cached;
+                lastCompileReport = "Reused cached program" + minifyReport + describeTiers(declaredTiers);
+                startTiers(declaredTiers, vertexSource, fragmentSource);
+                CanvasGLSL.LOG.info("Reusing cached shader program ({})", programCache);
+                return true;
             }
 
-            CanvasGLSL.LOG.info("Shader compiled successfully");
-            return true;
-
-        } catch (Exception e) {
-            CanvasGLSL.LOG.error("Failed to compile shader", e);
-            cleanupShader();
-            return false;
-        }
-    }
-
-    private int compileShaderPart(String source, int type) {
-        int shader = GL20.glCreateShader(type);
-        GL20.glShaderSource(shader, source);
-        GL20.glCompileShader(shader);
+            long linkStart = System.nanoTime();
+            try {
+                program = ShaderProgram.link(processedVertex, compiledFragment);
+            } catch (IllegalStateException e) {
+                if (compiledFragment == processedFragment) {
+                    throw e;
+                }
+                // Minified sources have no line structure; retry so errors point at real lines
+                CanvasGLSL.LOG.warn("Minified shader failed to compile, retrying with the unminified source");
+                compiledFragment = processedFragment;
+                minifyReport = "";
+                program = ShaderProgram.link(processedVertex, compiledFragment);
+            }
+            double linkMillis = (System.nanoTime() - linkStart) / 1_000_000.0;
+            programCache.put(processedVertex, compiledFragment, program);
 
-        if (GL20.glGetShaderi(shader, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
-            String log = GL20.glGetShaderInfoLog(shader, 1024);
-            String shaderType = (type == GL20.GL_VERTEX_SHADER) ? "vertex" : "fragment";
+            lastCompileReport = String.format(Locale.ROOT, "Compiled in %.1f ms", linkMillis) + minifyReport
+                + describeTiers(declaredTiers);
+            startTiers(declaredTiers, vertexSource, fragmentSource);
+            CanvasGLSL.LOG.info("Shader compiled successfully ({})", lastCompileReport);
+            return true;
 
+        } catch (IllegalStateException e) {
             // Only log once per compilation attempt (prevent spam)
             if (!hasLoggedCompilationError) {
-                CanvasGLSL.LOG.error("Failed to compile {} shader! Caused by: {}", shaderType, log);
+                CanvasGLSL.LOG.error(e.getMessage());
                 hasLoggedCompilationError = true;
             }
-            return -1;
+            cleanupShader();
+            return false;
+        } catch (Exception e) {
+            CanvasGLSL.LOG.error("Failed to compile shader", e);
+            cleanupShader();
+            return false;
         }
-
-        return shader;
     }
 
     public void render(int width, int height, float alpha, double quality) {
         RenderSystem.assertOnRenderThread();
         ensureInitialized();
-        if (shaderProgram == -1) {
+        if (program == null) {
             CanvasGLSL.LOG.error("Render called but shader program is not compiled!");
             return;
         }
@@ -295,6 +271,9 @@ public class ShaderRenderer {
 
         quality = Math.max(0.05, quality);
 
+        linkNextTier();
+        updateQuality();
+
         Window window = mc.getWindow();
         int framebufferWidth = width;
         int framebufferHeight = height;
@@ -310,190 +289,79 @@ public class ShaderRenderer {
         int targetHeight = Math.max(1, (int) Math.round(framebufferHeight * quality));
 
         RenderSystem.backupProjectionMatrix();
-
-        IntBuffer viewportBuffer = BufferUtils.createIntBuffer(4);
-        GL11.glGetIntegerv(GL11.GL_VIEWPORT, viewportBuffer);
-        int prevViewportX = viewportBuffer.get(0);
-        int prevViewportY = viewportBuffer.get(1);
-        int prevViewportWidth = viewportBuffer.get(2);
-        int prevViewportHeight = viewportBuffer.get(3);
-
-        IntBuffer scissorBuffer = BufferUtils.createIntBuffer(4);
-        GL11.glGetIntegerv(GL11.GL_SCISSOR_BOX, scissorBuffer);
-        int prevScissorX = scissorBuffer.get(0);
-        int prevScissorY = scissorBuffer.get(1);
-        int prevScissorWidth = scissorBuffer.get(2);
-        int prevScissorHeight = scissorBuffer.get(3);
-        boolean scissorEnabled = GL11.glIsEnabled(GL11.GL_SCISSOR_TEST);
-
-        java.nio.ByteBuffer colorMaskBuffer = BufferUtils.createByteBuffer(4);
-        GL11.glGetBooleanv(GL11.GL_COLOR_WRITEMASK, colorMaskBuffer);
-        boolean prevColorMaskRed = colorMaskBuffer.get(0) != 0;
-        boolean prevColorMaskGreen = colorMaskBuffer.get(1) != 0;
-        boolean prevColorMaskBlue = colorMaskBuffer.get(2) != 0;
-        boolean prevColorMaskAlpha = colorMaskBuffer.get(3) != 0;
-
-        boolean framebufferSrgbEnabled = GL11.glIsEnabled(GL30.GL_FRAMEBUFFER_SRGB);
-
-        boolean depthTestEnabled = GL11.glIsEnabled(GL11.GL_DEPTH_TEST);
-        boolean blendEnabled = GL11.glIsEnabled(GL11.GL_BLEND);
-        boolean cullEnabled = GL11.glIsEnabled(GL11.GL_CULL_FACE);
-        boolean depthMaskEnabled = GL11.glGetBoolean(GL11.GL_DEPTH_WRITEMASK);
-        int prevBlendSrcRgb = GL11.glGetInteger(GL_BLEND_SRC_RGB);
-        int prevBlendDstRgb = GL11.glGetInteger(GL_BLEND_DST_RGB);
-        int prevBlendSrcAlpha = GL11.glGetInteger(GL_BLEND_SRC_ALPHA);
-        int prevBlendDstAlpha = GL11.glGetInteger(GL_BLEND_DST_ALPHA);
-        int prevBlendEqRgb = GL11.glGetInteger(GL_BLEND_EQUATION_RGB);
-        int prevBlendEqAlpha = GL11.glGetInteger(GL_BLEND_EQUATION_ALPHA);
-
-        // Save additional state that complex shaders might modify
-        int prevActiveTexture = GL11.glGetInteger(GL13.GL_ACTIVE_TEXTURE);
-        int prevProgram = GL11.glGetInteger(GL20.GL_CURRENT_PROGRAM);
-        int prevVAO = GL11.glGetInteger(GL30.GL_VERTEX_ARRAY_BINDING);
-        int prevTexture2D = GL11.glGetInteger(GL11.GL_TEXTURE_BINDING_2D);
-        int prevArrayBuffer = GL15.glGetInteger(GL15.GL_ARRAY_BUFFER_BINDING);
+        ShaderRenderState renderState = ShaderRenderState.capture();
 
         canvas.resize(targetWidth, targetHeight);
         canvas.write();
-        GL11.glViewport(0, 0, targetWidth, targetHeight);
 
         try {
-            // Disable depth test, scissor and enable blending for fullscreen quad
-            GL11.glDisable(GL11.GL_DEPTH_TEST);
-            GL11.glDepthMask(false);
-            GL11.glEnable(GL11.GL_BLEND);
-            GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
-            GL11.glDisable(GL11.GL_CULL_FACE);
-            if (scissorEnabled) {
-                GL11.glDisable(GL11.GL_SCISSOR_TEST);
-            }
-            GL11.glColorMask(true, true, true, true);
-            if (framebufferSrgbEnabled) {
-                GL11.glDisable(GL30.GL_FRAMEBUFFER_SRGB);
-            }
+            renderState.beginPass(targetWidth, targetHeight);
 
-            GL20.glUseProgram(shaderProgram);
+            program.use();
 
             long nowNanos = System.nanoTime();
             float currentTime = (nowNanos - startTimeNanos) / 1_000_000_000f;
-            if (timeUniform != -1) {
-                GL20.glUniform1f(timeUniform, currentTime);
-            }
-            if (iTimeUniform != -1) {
-                GL20.glUniform1f(iTimeUniform, currentTime);
-            }
-
-            if (resolutionUniform != -1) {
-                GL20.glUniform2f(resolutionUniform, (float) targetWidth, (float) targetHeight);
-            }
-            if (iResolutionUniform != -1) {
-                GL20.glUniform3f(iResolutionUniform, (float) targetWidth, (float) targetHeight, 1.0f);
-            }
 
+            float normalizedX = 0f;
+            float normalizedY = 0f;
+            float pixelX = 0f;
+            float pixelY = 0f;
             if (mc.mouse != null) {
-                float normalizedX = (float) mc.mouse.getX() / Math.max(framebufferWidth, 1);
-                float normalizedY = (float) mc.mouse.getY() / Math.max(framebufferHeight, 1);
+                normalizedX = (float) mc.mouse.getX() / Math.max(framebufferWidth, 1);
+                normalizedY = (float) mc.mouse.getY() / Math.max(framebufferHeight, 1);
 
-                if (mouseUniform != -1) {
-                    GL20.glUniform2f(mouseUniform, normalizedX, normalizedY);
-                }
-
-                float pixelX = normalizedX * targetWidth;
-                float pixelY = (1.0f - normalizedY) * targetHeight;
+                pixelX = normalizedX * targetWidth;
+                pixelY = (1.0f - normalizedY) * targetHeight;
                 boolean leftDown = window != null && GLFW.glfwGetMouseButton(window.getHandle(), GLFW.GLFW_MOUSE_BUTTON_LEFT) == GLFW.GLFW_PRESS;
                 if (leftDown && !lastMouseDown) {
                     lastMouseClickX = pixelX;
                     lastMouseClickY = pixelY;
                 }
                 lastMouseDown = leftDown;
-
-                if (iMouseUniform != -1) {
-                    GL20.glUniform4f(
-                        iMouseUniform,
-                        pixelX,
-                        pixelY,
-                        (float) lastMouseClickX,
-                        (float) lastMouseClickY
-                    );
-                }
             } else {
                 lastMouseDown = false;
-                if (mouseUniform != -1) {
-                    GL20.glUniform2f(mouseUniform, 0f, 0f);
-                }
-                if (iMouseUniform != -1) {
-                    GL20.glUniform4f(iMouseUniform, 0f, 0f, (float) lastMouseClickX, (float) lastMouseClickY);
-                }
-            }
-
-            if (frameUniform != -1) {
-                GL20.glUniform1i(frameUniform, (int) frameCounter);
-            }
-            if (iFrameUniform != -1) {
-                GL20.glUniform1i(iFrameUniform, (int) frameCounter);
-            }
-            if (persistentFrameUniform != -1) {
-                GL20.glUniform1i(persistentFrameUniform, GlobalState.getFrame());
-            }
-            if (speedUniform != -1) {
-                GL20.glUniform1f(speedUniform, resolvePanoramaSpeed());
             }
 
             // Calculate time delta for iTimeDelta uniform
             float timeDelta = lastFrameNanos > 0 ? (nowNanos - lastFrameNanos) / 1_000_000_000f : 0.0f;
             lastFrameNanos = nowNanos;
-            if (iTimeDeltaUniform != -1) {
-                GL20.glUniform1f(iTimeDeltaUniform, timeDelta);
-            }
 
-            // Set iDate uniform (year, month [0-11], day, time in seconds)
-            if (iDateUniform != -1) {
-                java.time.LocalDateTime now = java.time.LocalDateTime.now();
-                float timeOfDay = now.getHour() * 3600f + now.getMinute() * 60f + now.getSecond() + now.getNano() / 1_000_000_000f;
-                GL20.glUniform4f(iDateUniform,
-                    now.getYear(),
-                    now.getMonthValue() - 1,  // Shadertoy uses 0-11 for months
-                    now.getDayOfMonth(),
-                    timeOfDay);
+            program.applyUniforms(new FrameUniforms(
+                currentTime,
+                timeDelta,
+                (int) frameCounter,
+                GlobalState.getFrame(),
+                resolvePanoramaSpeed(),
+                targetWidth,
+                targetHeight,
+                pixelX,
+                pixelY,
+                normalizedX,
+                normalizedY,
+                (float) lastMouseClickX,
+                (float) lastMouseClickY,
+                program.usesDate() ? LocalDateTime.now() : null
+            ), channels);
+            if (!tweaks.isEmpty()) {
+                program.applyTweaks(tweaks, tweakValues);
             }
 
-            // Set iSampleRate uniform (standard audio sample rate)
-            if (iSampleRateUniform != -1) {
-                GL20.glUniform1f(iSampleRateUniform, 44100.0f);
-            }
-
-            for (int channel = 0; channel < channelUniforms.length; channel++) {
-                if (channelUniforms[channel] != -1 && channelTextures[channel] != 0) {
-                    GL13.glActiveTexture(GL13.GL_TEXTURE0 + channel);
-                    GL11.glBindTexture(GL11.GL_TEXTURE_2D, channelTextures[channel]);
-                    GL20.glUniform1i(channelUniforms[channel], channel);
-                }
-
-                if (channelResolutionUniforms[channel] != -1) {
-                    GL20.glUniform3f(
-                        channelResolutionUniforms[channel],
-                        channelWidths[channel],
-                        channelHeights[channel],
-                        0f
-                    );
-                }
-
-                if (channelTimeUniforms[channel] != -1) {
-                    GL20.glUniform1f(channelTimeUniforms[channel], currentTime);
+            for (int channel = 0; channel < ChannelTextures.COUNT; channel++) {
+                if (program.usesChannel(channel) && channels.texture(channel) != 0) {
+                    ShaderRenderState.bindTexture(channel, channels.texture(channel));
                 }
             }
 
-            if (backbufferUniform != -1) {
-                GL13.glActiveTexture(GL13.GL_TEXTURE0 + 4);
-                canvas.read();
-                GL20.glUniform1i(backbufferUniform, 4);
-            }
-
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-
+            // GPU times are only needed while the scale ramps up or to pick a tier
+            boolean timed = !qualitySettled || tierPrograms.length > 1;
             quad.bind();
+            if (timed) {
+                gpuTimer.begin();
+            }
             quad.draw();
+            if (timed) {
+                gpuTimer.end();
+            }
             FullscreenQuad.unbind();
 
             GL20.glUseProgram(0);
@@ -508,59 +376,7 @@ public class ShaderRenderer {
                 canvas.blit(alpha);
             }
 
-            // Restore viewport
-            GL11.glViewport(prevViewportX, prevViewportY, prevViewportWidth, prevViewportHeight);
-
-            // Restore blend state
-            GL14.glBlendFuncSeparate(prevBlendSrcRgb, prevBlendDstRgb, prevBlendSrcAlpha, prevBlendDstAlpha);
-            GL20.glBlendEquationSeparate(prevBlendEqRgb, prevBlendEqAlpha);
-            if (blendEnabled) {
-                GL11.glEnable(GL11.GL_BLEND);
-            } else {
-                GL11.glDisable(GL11.GL_BLEND);
-            }
-
-            // Restore depth state
-            GL11.glDepthMask(depthMaskEnabled);
-            if (depthTestEnabled) {
-                GL11.glEnable(GL11.GL_DEPTH_TEST);
-            } else {
-                GL11.glDisable(GL11.GL_DEPTH_TEST);
-            }
-
-            // Restore cull face
-            if (cullEnabled) {
-                GL11.glEnable(GL11.GL_CULL_FACE);
-            } else {
-                GL11.glDisable(GL11.GL_CULL_FACE);
-            }
-
-            // Restore colour mask
-            GL11.glColorMask(prevColorMaskRed, prevColorMaskGreen, prevColorMaskBlue, prevColorMaskAlpha);
-
-            // Restore framebuffer sRGB state
-            if (framebufferSrgbEnabled) {
-                GL11.glEnable(GL30.GL_FRAMEBUFFER_SRGB);
-            } else {
-                GL11.glDisable(GL30.GL_FRAMEBUFFER_SRGB);
-            }
-
-            // Restore scissor test and box
-            GL11.glScissor(prevScissorX, prevScissorY, prevScissorWidth, prevScissorHeight);
-            if (scissorEnabled) {
-                GL11.glEnable(GL11.GL_SCISSOR_TEST);
-            } else {
-                GL11.glDisable(GL11.GL_SCISSOR_TEST);
-            }
-
-            // Restore texture state
-            GL13.glActiveTexture(prevActiveTexture);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, prevTexture2D);
-            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, prevArrayBuffer);
-
-            // Restore shader program
-            GL20.glUseProgram(prevProgram);
-            GL30.glBindVertexArray(prevVAO);
+            renderState.restore();
             RenderSystem.restoreProjectionMatrix();
         }
     }
@@ -596,29 +412,210 @@ public class ShaderRenderer {
     }
 
 
-    private void cleanupShader() {
-        if (fragmentShader != -1) {
-            GL20.glDeleteShader(fragmentShader);
-            fragmentShader = -1;
+    private static String describeTiers(List<ShaderPatcher.Tier> tiers) {
+        if (tiers.size() < 2) {
+            return "";
+        }
+        return "; " + tiers.size() + " quality tiers, showing " + tiers.get(tiers.size() - 1).name();
+    }
+
+    private void startTiers(List<ShaderPatcher.Tier> declaredTiers, String vertexSource, String fragmentSource) {
+        if (declaredTiers.size() < 2) {
+            return;
+        }
+        tiers = declaredTiers;
+        tierPrograms = new ShaderProgram[declaredTiers.size()];
+        firstTier = declaredTiers.size() - 1;
+        activeTier = firstTier;
+        nextTierToLink = firstTier - 1;
+        tierPrograms[firstTier] = program;
+        tierVertexSource = vertexSource;
+        tierFragmentSource = fragmentSource;
+        tierGovernor.reset(System.nanoTime());
+    }
+
+    /**
+     * Links one not yet linked tier, cheapest last so the tier a step below the current one is ready first. A
+     * variant that fails to link is skipped; the governor then never moves to it.
+     */
+    private void linkNextTier() {
+        if (nextTierToLink < 0) {
+            return;
+        }
+        int index = nextTierToLink--;
+        ShaderPatcher.Tier tier = tiers.get(index);
+        String processedFragment = ShaderPatcher.patchFragment(tierFragmentSource, specializeConstants, tier);
+        String processedVertex = tierVertexSource != null ? ShaderPatcher.patchVertex(tierVertexSource) : null;
+        try {
+            String compiledFragment = minify ? GlslMinifier.minify(processedFragment).source() : processedFragment;
+            try {
+                tierPrograms[index] = ShaderProgram.link(processedVertex, compiledFragment);
+            } catch (IllegalStateException e) {
+                if (compiledFragment == processedFragment) {
+                    throw e;
+                }
+                tierPrograms[index] = ShaderProgram.link(processedVertex, processedFragment);
+            }
+        } catch (IllegalStateException e) {
+            CanvasGLSL.LOG.warn("Quality tier {} failed to compile and will not be used: {}", tier.name(), e.getMessage());
+        }
+    }
+
+    private void startQuality(ShaderCostEstimator.Estimate estimate) {
+        renderQuality = estimate.initialQuality();
+        qualitySettled = renderQuality >= 1.0;
+        rampMillis = 0.0;
+        rampSamples = 0;
+        CanvasGLSL.LOG.debug("Estimated shader cost {} ({} texture fetches, {} transcendentals), starting at {}x resolution",
+            Math.round(estimate.cost()), Math.round(estimate.textureFetches()), Math.round(estimate.transcendentals()),
+            renderQuality);
+    }
+
+    /**
+     * Hands the latest GPU time to the resolution ramp until it settles, then to the tier governor.
+     */
+    private void updateQuality() {
+        if (qualitySettled && tierPrograms.length < 2) {
+            return;
+        }
+        double gpuMillis = gpuTimer.poll();
+        if (gpuMillis < 0.0) {
+            return;
+        }
+        if (!qualitySettled) {
+            rampQuality(gpuMillis);
+        } else {
+            selectTier(gpuMillis);
         }
-        if (vertexShader != -1) {
-            GL20.glDeleteShader(vertexShader);
-            vertexShader = -1;
+    }
+
+    /**
+     * Raises the scale one step when the averaged GPU time, grown by the extra pixels, would still fit the budget.
+     */
+    private void rampQuality(double gpuMillis) {
+        rampMillis += gpuMillis;
+        if (++rampSamples < RAMP_SAMPLES) {
+            return;
         }
-        if (shaderProgram != -1) {
-            GL20.glDeleteProgram(shaderProgram);
-            shaderProgram = -1;
+        double average = rampMillis / rampSamples;
+        rampMillis = 0.0;
+        rampSamples = 0;
+
+        double next = Math.min(1.0, renderQuality + RAMP_STEP);
+        double growth = (next / renderQuality) * (next / renderQuality);
+        if (average * growth > tierGovernor.budget()) {
+            qualitySettled = true;
+            CanvasGLSL.LOG.debug("Resolution scale settled at {}x ({} ms)", renderQuality,
+                String.format(Locale.ROOT, "%.2f", average));
+            return;
         }
+        renderQuality = next;
+        qualitySettled = next >= 1.0;
+    }
+
+    /**
+     * Feeds a GPU time to the governor and switches to the nearest linked tier in the direction it asks.
+     */
+    private void selectTier(double gpuMillis) {
+        long now = System.nanoTime();
+        int direction = tierGovernor.sample(gpuMillis, now);
+        if (direction == 0) {
+            return;
+        }
+        for (int index = activeTier + direction; index >= 0 && index < tierPrograms.length; index += direction) {
+            if (tierPrograms[index] != null) {
+                CanvasGLSL.LOG.debug("Switching quality tier {} -> {} ({} ms average, {} ms budget)",
+                    tiers.get(activeTier).name(), tiers.get(index).name(),
+                    String.format(Locale.ROOT, "%.2f", tierGovernor.average()), tierGovernor.budget());
+                activeTier = index;
+                program = tierPrograms[index];
+                tierGovernor.switched(direction, now);
+                return;
+            }
+        }
+    }
+
+    private void cleanupShader() {
+        // The program stays pooled in programCache, which deletes it on eviction
+        program = null;
+        for (int i = 0; i < tierPrograms.length; i++) {
+            if (i != firstTier && tierPrograms[i] != null) {
+                tierPrograms[i].close();
+            }
+        }
+        tiers = List.of();
+        tierPrograms = new ShaderProgram[0];
+        tierFragmentSource = null;
+        tierVertexSource = null;
+        nextTierToLink = -1;
+    }
+
+    /**
+     * Uniform values of a tweak-mode shader, uploaded every frame; {@code values} is read live, so edits to it show up
+     * on the next frame without a compile. An empty list stops uploading.
+     */
+    public void setTweaks(List<ShaderTweaks.Tweak> tweaks, float[] values) {
+        this.tweaks = tweaks;
+        this.tweakValues = values;
+    }
+
+    /**
+     * Resolution scale to pass to {@link #render}: below 1 while a shader estimated to be expensive warms up.
+     */
+    public double getRenderQuality() {
+        return renderQuality;
+    }
+
+    /**
+     * GPU time per frame the resolution ramp and the tier governor keep shaders under.
+     */
+    public void setFrameBudget(double millis) {
+        tierGovernor.setBudget(millis);
+    }
+
+    /**
+     * Name of the quality tier being drawn, or {@code null} when the shader declares none.
+     */
+    public String getActiveTierName() {
+        return tierPrograms.length < 2 ? null : tiers.get(activeTier).name();
+    }
+
+    /**
+     * Bounds the pool of recently linked programs; evicted programs are deleted immediately.
+     */
+    public void setProgramCacheBudget(int maxPrograms, long maxBytes) {
+        RenderSystem.assertOnRenderThread();
+        programCache.setBudget(maxPrograms, maxBytes);
+    }
+
+    /**
+     * Whether the next compile emits never-changing built-ins as constants instead of uniforms.
+     */
+    public void setSpecializeConstants(boolean specializeConstants) {
+        this.specializeConstants = specializeConstants;
+    }
+
+    /**
+     * Whether the next compile runs the patched source through {@link GlslMinifier} first.
+     */
+    public void setMinify(boolean minify) {
+        this.minify = minify;
+    }
+
+    /**
+     * Compile time and, when minifying, the size saved by the last successful compile.
+     */
+    public String getLastCompileReport() {
+        return lastCompileReport;
     }
 
     public void cleanup() {
         RenderSystem.assertOnRenderThread();
         cleanupShader();
-        for (int i = 0; i < channelTextures.length; i++) {
-            if (channelTextures[i] != 0) {
-                GL11.glDeleteTextures(channelTextures[i]);
-                channelTextures[i] = 0;
-            }
+        programCache.clear();
+        if (channels != null) {
+            channels.close();
+            channels = null;
         }
         if (quad != null) {
             quad.close();
@@ -628,11 +625,16 @@ public class ShaderRenderer {
             canvas.close();
             canvas = null;
         }
+        if (gpuTimer != null) {
+            gpuTimer.close();
+            gpuTimer = null;
+        }
+        SharedVertexStage.release();
         glResourcesInitialized = false;
     }
 
     public boolean isCompiled() {
-        return shaderProgram != -1;
+        return program != null;
     }
 
     public ShaderCanvas getCanvas() {
@@ -0,0 +1,85 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sh.tinywifi.canvasglsl.render.BenchmarkSources;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the editor's highlighting on a generated shader of about 2,000 lines, with 60 lines on screen:
+ * an unchanged frame, a frame after a one-character edit, and tokenizing the whole buffer as the overlay did before
+ * the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineTokenCacheBenchmark {
+    private static final int VISIBLE_LINES = 60;
+    private static final Set<String> KEYWORDS = Set.of("return", "in", "out", "void");
+    private static final Set<String> TYPES = Set.of("float", "vec2", "vec3", "vec4");
+
+    private final LineTokenCache.Classifier classifier = word -> KEYWORDS.contains(word)
+        ? LineTokenCache.TokenType.KEYWORD
+        : TYPES.contains(word) ? LineTokenCache.TokenType.TYPE : LineTokenCache.TokenType.PLAIN;
+
+    private String text;
+    private String edited;
+    private int firstVisible;
+    private LineTokenCache cache;
+    private boolean toggle;
+
+    @Setup
+    public void setup() {
+        text = BenchmarkSources.shadertoy(300);
+        int middle = text.indexOf("helper150(");
+        edited = text.substring(0, middle) + "x" + text.substring(middle);
+
+        cache = new LineTokenCache(classifier);
+        cache.update(text);
+        firstVisible = cache.lineAt(middle) - VISIBLE_LINES / 2;
+        System.out.println();
+        System.out.println(cache.lineCount() + " lines, " + text.length() + " chars");
+    }
+
+    @Benchmark
+    public void unchanged(Blackhole blackhole) {
+        cache.update(text);
+        drawVisible(cache, blackhole);
+    }
+
+    @Benchmark
+    public void singleEdit(Blackhole blackhole) {
+        toggle = !toggle;
+        cache.update(toggle ? edited : text);
+        drawVisible(cache, blackhole);
+    }
+
+    @Benchmark
+    public void fullTokenize(Blackhole blackhole) {
+        LineTokenCache fresh = new LineTokenCache(classifier);
+        fresh.update(toggle ? edited : text);
+        for (int i = 0; i < fresh.lineCount(); i++) {
+            blackhole.consume(fresh.line(i).types);
+        }
+    }
+
+    private void drawVisible(LineTokenCache lines, Blackhole blackhole) {
+        for (int i = firstVisible; i < firstVisible + VISIBLE_LINES; i++) {
+            blackhole.consume(lines.line(i).displays);
+        }
+    }
+}
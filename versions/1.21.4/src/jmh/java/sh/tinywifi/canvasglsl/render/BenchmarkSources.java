@@ -0,0 +1,57 @@
+package sh.tinywifi.canvasglsl.render;
+
+import sh.tinywifi.canvasglsl.shader.ShaderPresets;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shader sources shared by the benchmarks: the bundled presets and generated Shadertoy-style sources of a chosen
+ * size, built the same way on every run so results are comparable.
+ */
+public final class BenchmarkSources {
+    private BenchmarkSources() {
+    }
+
+    /**
+     * Bundled presets that have code, in declaration order.
+     */
+    public static List<ShaderPresets> presets() {
+        return Arrays.stream(ShaderPresets.values())
+            .filter(preset -> !preset.getShaderCode().isBlank())
+            .toList();
+    }
+
+    /**
+     * A {@code mainImage} shader with {@code helpers} small functions, each behind a comment that mentions built-in
+     * uniforms, and a commented-out block every tenth helper, like a large Shadertoy port. Only every fourth helper
+     * is called, so a dead-code pass has something to remove.
+     */
+    public static String shadertoy(int helpers) {
+        StringBuilder out = new StringBuilder(helpers * 220 + 512);
+        out.append("// Generated benchmark shader; uses iTime, iResolution and iMouse\n");
+        out.append("#define PI 3.14159265\n\n");
+        for (int i = 0; i < helpers; i++) {
+            out.append(String.format(Locale.ROOT, """
+                // helper %1$d: wobble driven by iTime, scaled to iResolution
+                float helper%1$d(vec2 p, float t) {
+                    float a = sin(p.x * %2$d.0 + t) * 0.5 + 0.5;
+                    float b = cos(p.y * (1.0 + 2.0) - t * 0.25);
+                    return mix(a, b, 0.5) * (PI / 4.0);
+                }
+                """, i, i % 7 + 1));
+            if (i % 10 == 0) {
+                out.append("/*\nfloat unused").append(i).append("(vec2 p) {\n    return length(p) - iTime;\n}\n*/\n");
+            }
+        }
+        out.append("\nvoid mainImage(out vec4 fragColor, in vec2 fragCoord) {\n");
+        out.append("    vec2 uv = fragCoord / iResolution.xy;\n");
+        out.append("    float v = 0.0;\n");
+        for (int i = 0; i < helpers; i += 4) {
+            out.append("    v += helper").append(i).append("(uv, iTime);\n");
+        }
+        out.append("    fragColor = vec4(vec3(v / ").append(Math.max(1, helpers / 4)).append(".0), 1.0);\n}\n");
+        return out.toString();
+    }
+}
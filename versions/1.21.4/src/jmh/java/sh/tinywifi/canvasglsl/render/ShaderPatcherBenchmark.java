@@ -0,0 +1,110 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sh.tinywifi.canvasglsl.shader.ShaderPresets;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ShaderPatcher#patchFragment(String)} against the regex patcher it replaced, on the Grass preset and on
+ * generated Shadertoy sources from about 20K to 200K characters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShaderPatcherBenchmark {
+    @Param({"grass", "100", "1000"})
+    public String source;
+
+    private String shader;
+
+    @Setup
+    public void setup() {
+        shader = source.equals("grass")
+            ? ShaderPresets.GRASS.getShaderCode()
+            : BenchmarkSources.shadertoy(Integer.parseInt(source));
+    }
+
+    @Benchmark
+    public String lexer() {
+        return ShaderPatcher.patchFragment(shader);
+    }
+
+    @Benchmark
+    public String regex() {
+        return RegexPatcher.patchFragment(shader);
+    }
+
+    /**
+     * The patcher before the lexer, kept only as the baseline; its logging is left out.
+     */
+    private static final class RegexPatcher {
+        private static final String FRAGMENT_OLD = "gl_FragColor";
+        private static final String FRAGMENT_NEW = "fragmentColor";
+        private static final String[] UNIFORMS = {
+            "float iTime", "vec3 iResolution", "vec4 iMouse", "int iFrame", "float iTimeDelta", "vec4 iDate",
+            "float iSampleRate", "float iChannelTime[4]", "vec3 iChannelResolution[4]", "sampler2D iChannel0",
+            "sampler2D iChannel1", "sampler2D iChannel2", "sampler2D iChannel3"
+        };
+
+        static String patchFragment(String shader) {
+            String working = shader;
+
+            int insertPos;
+            if (working.trim().startsWith("#version")) {
+                int versionStart = working.indexOf("#version");
+                int lineEnd = working.indexOf('\n', versionStart);
+                insertPos = lineEnd >= 0 ? lineEnd + 1 : working.length();
+            } else {
+                working = "#version 330\n" + working;
+                insertPos = "#version 330\n".length();
+            }
+
+            StringBuilder header = new StringBuilder();
+            boolean hasMainImage = working.contains("mainImage");
+
+            if (working.contains(FRAGMENT_OLD)) {
+                working = working.replace(FRAGMENT_OLD, FRAGMENT_NEW);
+                header.append("out vec4 ").append(FRAGMENT_NEW).append(";\n");
+            } else if (!hasMainImage && !working.contains("out vec4")) {
+                header.append("out vec4 fragColor;\n");
+            }
+
+            for (String uniform : UNIFORMS) {
+                String name = uniform.substring(uniform.indexOf(' ') + 1).replace("[4]", "");
+                if (!containsUniform(working, name)) {
+                    header.append("uniform ").append(uniform).append(";\n");
+                }
+            }
+
+            if (header.length() > 0) {
+                working = working.substring(0, insertPos) + header + working.substring(insertPos);
+            }
+
+            if (hasMainImage && !working.matches("(?s).*\\bvoid\\s+main\\s*\\(.*")) {
+                working += "\nout vec4 fragColor;\n\nvoid main() {\n    mainImage(fragColor, gl_FragCoord.xy);\n"
+                    + "    fragColor.a = 1.0;\n}\n";
+            }
+            return working;
+        }
+
+        private static boolean containsUniform(String shader, String name) {
+            Pattern pattern = Pattern.compile("\\buniform\\s+[\\w\\[\\]]+\\s+" + Pattern.quote(name) + "\\b");
+            return pattern.matcher(shader).find();
+        }
+    }
+}
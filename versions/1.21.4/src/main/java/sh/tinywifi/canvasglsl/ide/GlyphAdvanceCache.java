@@ -0,0 +1,91 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import imgui.ImFont;
+import imgui.ImGui;
+
+/**
+ * Horizontal advances of the current font at the current window font scale, so the editor can measure text in plain
+ * Java instead of calling {@code ImGui.calcTextSize} with a fresh substring per token. Latin-1 advances are kept in a
+ * table; other characters ask the font directly. When every printable ASCII glyph has the same advance (the default
+ * ImGui font does) widths are just character counts.
+ */
+final class GlyphAdvanceCache {
+    private static final int TABLE_SIZE = 256;
+    private static final int TAB_WIDTH = 4;
+
+    private final float[] advances = new float[TABLE_SIZE];
+    private ImFont font;
+    private float scale;
+    private float monospaceAdvance;
+
+    private float fontScale = Float.NaN;
+    private float fontSize = Float.NaN;
+    private long atlasTexture = -1;
+
+    /**
+     * Rebuilds the table when the editor font scale, the effective font size or the font atlas changed since the
+     * last call. Must run after {@code ImGui.setWindowFontScale}.
+     */
+    void refresh(float editorFontScale) {
+        float size = ImGui.getFontSize();
+        long texture = ImGui.getIO().getFonts().getTexID();
+        if (editorFontScale == fontScale && size == fontSize && texture == atlasTexture) {
+            return;
+        }
+        fontScale = editorFontScale;
+        fontSize = size;
+        atlasTexture = texture;
+
+        font = ImGui.getFont();
+        scale = size / font.getFontSize();
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            advances[c] = font.getCharAdvance(c) * scale;
+        }
+
+        monospaceAdvance = advances[' '];
+        for (int c = '!'; c <= '~'; c++) {
+            if (advances[c] != monospaceAdvance) {
+                monospaceAdvance = 0f;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Width of already tab-expanded text, as drawn by {@code ImDrawList.addText}.
+     */
+    float width(String display) {
+        if (monospaceAdvance > 0f) {
+            return display.length() * monospaceAdvance;
+        }
+        float width = 0f;
+        for (int i = 0; i < display.length(); i++) {
+            width += advance(display.charAt(i));
+        }
+        return width;
+    }
+
+    /**
+     * Width of {@code text[start, end)} with each tab counted as {@value #TAB_WIDTH} spaces.
+     */
+    float width(String text, int start, int end) {
+        if (start >= end) return 0f;
+        if (monospaceAdvance > 0f) {
+            int columns = end - start;
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) == '\t') columns += TAB_WIDTH - 1;
+            }
+            return columns * monospaceAdvance;
+        }
+        float width = 0f;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            width += c == '\t' ? advances[' '] * TAB_WIDTH : advance(c);
+        }
+        return width;
+    }
+
+    private float advance(char c) {
+        return c < TABLE_SIZE ? advances[c] : font.getCharAdvance(c) * scale;
+    }
+}
@@ -5,4 +5,9 @@ import java.nio.file.Path;
 @FunctionalInterface
 public interface ShaderChangeListener {
     void onShaderSaved(String source, Path file);
+
+    /**
+     * A library included by the displayed shader was saved with new content; the shader should be rebuilt.
+     */
+    default void onIncludeSaved(Path library) {}
 }
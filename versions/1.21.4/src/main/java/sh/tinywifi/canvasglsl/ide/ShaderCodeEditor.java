@@ -12,28 +12,41 @@ import imgui.flag.ImGuiInputTextFlags;
 import imgui.flag.ImGuiKey;
 import imgui.flag.ImGuiStyleVar;
 import imgui.flag.ImGuiWindowFlags;
+import imgui.type.ImString;
+import sh.tinywifi.canvasglsl.render.GlslSyntaxChecker;
+
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * ImGui-powered shader editor widget featuring lightweight syntax highlighting and completions.
  */
 public final class ShaderCodeEditor {
+    // Undo is ShaderEditorState's history, which outlives the widget's own small buffer
     private static final int INPUT_FLAGS = ImGuiInputTextFlags.AllowTabInput
-        | ImGuiInputTextFlags.CallbackAlways;
+        | ImGuiInputTextFlags.CallbackAlways
+        | ImGuiInputTextFlags.NoUndoRedo;
 
     private static final float GUTTER_WIDTH = 52f;
-    private static final float POPUP_WIDTH = 220f;
+    private static final float POPUP_WIDTH = 320f;
+    private static final int MAX_COMPLETIONS = 50;
     private static final float POPUP_HEIGHT = 180f;
 
+    private static final int ERROR_COLOR = ImColor.rgba(240, 80, 80, 255);
+    private static final int WARNING_COLOR = ImColor.rgba(230, 180, 60, 255);
+
     private final Set<String> keywords = new HashSet<>();
     private final Set<String> types = new HashSet<>();
     private final Set<String> builtins = new HashSet<>();
-    private final List<String> dictionary = new ArrayList<>();
+    private final SymbolTrie builtinSymbols;
+    private final LineTokenCache lineCache = new LineTokenCache(this::classify);
+    private final GlyphAdvanceCache glyphs = new GlyphAdvanceCache();
 
     private final ImGuiInputTextCallback callback = new ImGuiInputTextCallback() {
         @Override
@@ -41,20 +54,52 @@ public final class ShaderCodeEditor {
             onInputEvent(data);
         }
     };
+    private final ImGuiInputTextCallback lineCallback = new ImGuiInputTextCallback() {
+        @Override
+        public void accept(ImGuiInputTextCallbackData data) {
+            onLineInputEvent(data);
+        }
+    };
 
     private int cursorPos;
     private int selectionStart;
     private int selectionEnd;
     private boolean pendingSetCursor;
     private int pendingCursorPos;
+    private String pendingText;
+    private String strippedFrom;
+    private String strippedText;
+
+    // Large-file mode edits one line at a time in its own input; -1 while no line is being edited
+    private final ImString lineBuffer = new ImString(256);
+    private int editingLine = -1;
+    private String loadedLine;
+    private String pendingLineText;
+    private int pendingLineCursor = -1;
+    private int lineCursor;
+    private boolean lineActive;
+    private boolean focusLine;
+    private boolean scrollToEditingLine;
+    private int hiddenLine = -1;
+    private float widestLine;
+    // The document whose edits reach the line cache as line deltas; null outside large-file mode
+    private ShaderDocument followedDocument;
+    private final ShaderDocument.Listener lineDeltas = this::applyLineDelta;
 
     private boolean requestPopupOpen;
     private final ImVec2 popupPos = new ImVec2();
-    private final List<String> popupMatches = new ArrayList<>();
+    private final List<ShaderSymbolIndex.Symbol> popupMatches = new ArrayList<>();
     private String popupPrefix = "";
     private int popupWordStart = -1;
     private int popupSelection = 0;
 
+    private final ShaderDiagnostics diagnostics = new ShaderDiagnostics();
+    private final Map<Integer, List<GlslSyntaxChecker.Diagnostic>> diagnosticsByLine = new HashMap<>();
+    private String checkedText;
+    private String indexedText;
+    private ShaderDiagnostics.Report shownReport;
+    private List<GlslSyntaxChecker.Diagnostic> hoveredDiagnostics;
+
     private float caretX;
     private float caretY;
     private float lineHeight;
@@ -62,10 +107,15 @@ public final class ShaderCodeEditor {
 
     public ShaderCodeEditor() {
         seedKeywords();
-        dictionary.addAll(keywords);
-        dictionary.addAll(types);
-        dictionary.addAll(builtins);
-        Collections.sort(dictionary);
+        Set<String> words = new HashSet<>(keywords);
+        words.addAll(types);
+        words.addAll(builtins);
+        List<ShaderSymbolIndex.Symbol> symbols = new ArrayList<>();
+        for (String word : words) {
+            symbols.add(new ShaderSymbolIndex.Symbol(word, ShaderSymbolIndex.Kind.BUILTIN, null, null));
+        }
+        builtinSymbols = new SymbolTrie(symbols);
+        lineBuffer.inputData.isResizable = true;
     }
 
     private void onInputEvent(ImGuiInputTextCallbackData data) {
@@ -73,6 +123,13 @@ public final class ShaderCodeEditor {
         selectionStart = data.getSelectionStart();
         selectionEnd = data.getSelectionEnd();
 
+        // While the widget is active it edits its own copy of the text, so undo has to go through the callback
+        if (pendingText != null) {
+            data.deleteChars(0, data.getBufTextLen());
+            data.insertChars(0, pendingText);
+            pendingText = null;
+        }
+
         if (pendingSetCursor) {
             data.setCursorPos(pendingCursorPos);
             data.setSelectionStart(pendingCursorPos);
@@ -85,6 +142,23 @@ public final class ShaderCodeEditor {
 
     }
 
+    private void onLineInputEvent(ImGuiInputTextCallbackData data) {
+        if (pendingLineText != null) {
+            data.deleteChars(0, data.getBufTextLen());
+            data.insertChars(0, pendingLineText);
+            pendingLineText = null;
+        }
+
+        if (pendingLineCursor >= 0) {
+            int cursor = Math.min(pendingLineCursor, data.getBufTextLen());
+            data.setCursorPos(cursor);
+            data.setSelectionStart(cursor);
+            data.setSelectionEnd(cursor);
+            pendingLineCursor = -1;
+        }
+        lineCursor = data.getCursorPos();
+    }
+
     private void seedKeywords() {
         Collections.addAll(keywords,
             "uniform", "varying", "attribute", "const", "precision",
@@ -118,7 +192,7 @@ public final class ShaderCodeEditor {
 
     public boolean render(ShaderEditorState state) {
         ShaderIDETheme.SyntaxPalette palette = state.getTheme().palette();
-        boolean changed = false;
+        boolean changed;
 
         ImGui.pushID("shader-code-editor");
         ImGui.pushStyleVar(ImGuiStyleVar.ChildBorderSize, 0f);
@@ -137,14 +211,36 @@ public final class ShaderCodeEditor {
         }
 
         ImGuiStyle style = ImGui.getStyle();
+        ImGui.setWindowFontScale(state.getFontScale());
+        glyphs.refresh(state.getFontScale());
+        lineHeight = ImGui.getTextLineHeightWithSpacing();
+
+        if (state.isLargeFile()) {
+            followDocument(state);
+            changed = renderLargeFile(state, palette, style);
+        } else {
+            unfollowDocument();
+            lineCache.update(editorText(state));
+            editingLine = -1;
+            lineActive = false;
+            changed = renderWidget(state, palette, style);
+            renderAutocompletePopup(state);
+        }
+
+        ImGui.setWindowFontScale(1f);
+        ImGui.endChild();
+        ImGui.popStyleVar(2);
+        ImGui.popID();
+
+        return changed;
+    }
+
+    private boolean renderWidget(ShaderEditorState state, ShaderIDETheme.SyntaxPalette palette, ImGuiStyle style) {
         ImGui.pushStyleVar(ImGuiStyleVar.ItemSpacing, 0f, style.getItemSpacingY());
         ImGui.pushStyleVar(ImGuiStyleVar.FramePadding, style.getFramePaddingX(), style.getFramePaddingY());
 
-        ImGui.setWindowFontScale(state.getFontScale());
-        lineHeight = ImGui.getTextLineHeightWithSpacing();
-        int initialLineCount = countLines(state.buffer().get());
         float contentHeight = Math.max(
-            lineHeight * Math.max(1, initialLineCount) + style.getFramePaddingY() * 2f,
+            lineHeight * lineCache.lineCount() + style.getFramePaddingY() * 2f,
             ImGui.getContentRegionAvailY()
         );
 
@@ -152,16 +248,20 @@ public final class ShaderCodeEditor {
         ImGui.pushStyleColor(ImGuiCol.Text, ImColor.rgba(0, 0, 0, 0));
         ImGui.pushStyleColor(ImGuiCol.TextSelectedBg, ImColor.rgba(100, 130, 255, 80));
 
-        boolean localChanged = ImGui.inputTextMultiline(
+        boolean changed = ImGui.inputTextMultiline(
             "##shader-editor-input",
             state.buffer(),
             -1f,
             contentHeight,
-            INPUT_FLAGS,
+            state.isReadOnly() ? INPUT_FLAGS | ImGuiInputTextFlags.ReadOnly : INPUT_FLAGS,
             callback
         );
 
-        changed |= localChanged;
+        // Consumed by the callback if the widget was active; otherwise the buffer already holds the text
+        pendingText = null;
+        if (changed) {
+            state.syncFromWidget();
+        }
 
         ImGui.popStyleColor(2);
         ImGui.popStyleVar(2);
@@ -173,34 +273,319 @@ public final class ShaderCodeEditor {
         float scrollX = ImGui.getScrollX();
         float scrollY = ImGui.getScrollY();
         float scrollMaxY = ImGui.getScrollMaxY();
-        String rawText = state.buffer().get().replace("\r", "");
-        int overlayLineCount = countLines(rawText);
+        // The same string instance as above unless the widget edited the text, so the line table rarely changes
+        String rawText = editorText(state);
+        lineCache.update(rawText);
         float overlayContentHeight = Math.max(
-            lineHeight * Math.max(1, overlayLineCount) + style.getFramePaddingY() * 2f,
+            lineHeight * lineCache.lineCount() + style.getFramePaddingY() * 2f,
             contentHeight
         );
 
-        renderOverlay(rawText, palette, rectMinX, rectMinY, rectMaxX, rectMaxY, scrollX, scrollY);
+        updateDiagnostics(state, rawText);
+        if (rawText != indexedText) {
+            indexedText = rawText;
+            state.getWorkspace().getSymbols().updateBuffer(rawText, state.currentFile().orElse(null));
+        }
+        renderOverlay(palette, rectMinX, rectMinY, rectMaxX, rectMaxY, scrollX, scrollY);
         ensureCaretVisible(rectMinY, scrollY, scrollMaxY, overlayContentHeight);
 
         if (ImGui.isItemFocused()) {
             handleKeyboardShortcuts(state);
         }
+        return changed;
+    }
 
-        renderAutocompletePopup(state);
+    /**
+     * Large-file mode. The text widget lays out and copies the whole document every frame, so here the visible
+     * lines are drawn from the line cache over an empty item as tall as the document, and only the line the user
+     * clicks gets a single-line input. Enter, and Backspace or Delete at either end of that line, split and join
+     * lines. Syntax checking and indexing of the unsaved text are skipped; both would rescan the whole file per edit.
+     */
+    private boolean renderLargeFile(ShaderEditorState state, ShaderIDETheme.SyntaxPalette palette, ImGuiStyle style) {
+        checkedText = null;
+        shownReport = null;
+        diagnosticsByLine.clear();
+        if (editingLine >= lineCache.lineCount()) {
+            editingLine = lineCache.lineCount() - 1;
+        }
 
-        ImGui.setWindowFontScale(1f);
-        ImGui.endChild();
-        ImGui.popStyleVar(2);
-        ImGui.popID();
+        float padX = style.getFramePaddingX();
+        float padY = style.getFramePaddingY();
+        ImGui.dummy(
+            Math.max(GUTTER_WIDTH + padX * 2f + widestLine, ImGui.getContentRegionAvailX()),
+            Math.max(lineHeight * lineCache.lineCount() + padY * 2f, ImGui.getContentRegionAvailY())
+        );
+        float rectMinX = ImGui.getItemRectMinX();
+        float rectMinY = ImGui.getItemRectMinY();
+        float firstLineY = rectMinY + padY;
+        float textX = rectMinX + GUTTER_WIDTH + padX;
 
+        if (ImGui.isItemHovered() && ImGui.isMouseClicked(0) && ImGui.getMousePosX() > rectMinX + GUTTER_WIDTH) {
+            int clicked = (int) Math.floor((ImGui.getMousePosY() - firstLineY) / lineHeight);
+            if (clicked >= 0 && clicked < lineCache.lineCount() && clicked != editingLine) {
+                editLine(clicked, columnAt(lineCache.line(clicked).text, ImGui.getMousePosX() - textX));
+            }
+        }
+
+        // The edited line is drawn by its input, everything else by the overlay
+        if (editingLine >= 0) {
+            LineTokenCache.Line line = lineCache.line(editingLine);
+            cursorPos = line.start + Math.min(lineCursor, line.text.length());
+            selectionStart = cursorPos;
+            selectionEnd = cursorPos;
+        }
+        hiddenLine = editingLine;
+        renderOverlay(palette, rectMinX, rectMinY, ImGui.getItemRectMaxX(), ImGui.getItemRectMaxY(), 0f, 0f);
+        hiddenLine = -1;
+
+        boolean changed = false;
+        if (editingLine >= 0) {
+            changed = renderLineInput(state, rectMinX + GUTTER_WIDTH, firstLineY + editingLine * lineHeight);
+        }
+
+        if (scrollToEditingLine && editingLine >= 0) {
+            scrollToEditingLine = false;
+            float lineY = firstLineY + editingLine * lineHeight;
+            float windowTop = ImGui.getWindowPosY();
+            float windowBottom = windowTop + ImGui.getWindowHeight() - style.getScrollbarSize();
+            if (lineY < windowTop) {
+                ImGui.setScrollY(Math.max(0f, ImGui.getScrollY() + lineY - windowTop - lineHeight * 0.5f));
+            } else if (lineY + lineHeight > windowBottom) {
+                ImGui.setScrollY(ImGui.getScrollY() + lineY + lineHeight - windowBottom + lineHeight * 0.5f);
+            }
+        }
+        return changed;
+    }
+
+    private boolean renderLineInput(ShaderEditorState state, float x, float y) {
+        String text = lineCache.line(editingLine).text;
+        if (!text.equals(loadedLine)) {
+            // A newly picked line, or its text changed underneath the input (undo, reload)
+            loadedLine = text;
+            lineBuffer.set(text, true);
+            pendingLineText = text;
+        }
+
+        ImGui.setCursorScreenPos(x, y);
+        ImGui.setNextItemWidth(-1f);
+        ImGui.pushStyleVar(ImGuiStyleVar.FramePadding, ImGui.getStyle().getFramePaddingX(), 0f);
+        if (focusLine) {
+            ImGui.setKeyboardFocusHere();
+            focusLine = false;
+        }
+        int caret = lineCursor;
+        boolean edited = ImGui.inputText(
+            "##shader-editor-line",
+            lineBuffer,
+            state.isReadOnly() ? INPUT_FLAGS | ImGuiInputTextFlags.ReadOnly : INPUT_FLAGS,
+            lineCallback
+        );
+        ImGui.popStyleVar();
+        pendingLineText = null;
+
+        boolean changed = false;
+        String edit = lineBuffer.get();
+        if (edited && !state.isReadOnly() && !edit.equals(loadedLine)) {
+            ShaderDocument document = state.document();
+            state.replaceRange(document.lineStart(editingLine), lineEnd(document, editingLine), edit);
+            loadedLine = edit;
+            changed = true;
+        }
+
+        // Enter takes the focus off a single-line input, so keys are checked against last frame's activity
+        if (lineActive) {
+            changed |= handleLineKeys(state, caret);
+        }
+        lineActive = ImGui.isItemActive();
         return changed;
     }
 
-    private void renderOverlay(String rawText, ShaderIDETheme.SyntaxPalette palette,
+    private boolean handleLineKeys(ShaderEditorState state, int caret) {
+        ShaderDocument document = state.document();
+        if (ImGui.getIO().getKeyCtrl()) {
+            boolean redo = ImGui.isKeyPressed(ImGuiKey.Y) || ImGui.getIO().getKeyShift() && ImGui.isKeyPressed(ImGuiKey.Z);
+            boolean undo = !redo && ImGui.isKeyPressed(ImGuiKey.Z);
+            int restored = undo ? state.undo() : redo ? state.redo() : -1;
+            if (restored < 0) return false;
+            int line = document.lineAt(restored);
+            editLine(line, restored - document.lineStart(line));
+            return true;
+        }
+        if (state.isReadOnly()) return false;
+
+        // Runs every frame the line is active, so document offsets are only looked up once a key needs them. The
+        // line cache's starts cannot stand in: they index the text with carriage returns removed.
+        if (ImGui.isKeyPressed(ImGuiKey.Enter, false) || ImGui.isKeyPressed(ImGuiKey.KeypadEnter, false)) {
+            int at = document.lineStart(editingLine) + caret;
+            state.replaceRange(at, at, "\n");
+            editLine(editingLine + 1, 0);
+            return true;
+        }
+        if (ImGui.isKeyPressed(ImGuiKey.Backspace) && caret == 0 && editingLine > 0) {
+            int previousStart = document.lineStart(editingLine - 1);
+            int previousEnd = lineEnd(document, editingLine - 1);
+            state.replaceRange(previousEnd, document.lineStart(editingLine), "");
+            editLine(editingLine - 1, previousEnd - previousStart);
+            return true;
+        }
+        if (ImGui.isKeyPressed(ImGuiKey.Delete) && caret == loadedLine.length()
+            && editingLine + 1 < document.lineCount()) {
+            state.replaceRange(document.lineStart(editingLine) + caret, document.lineStart(editingLine + 1), "");
+            editLine(editingLine, caret);
+            return true;
+        }
+        if (ImGui.isKeyPressed(ImGuiKey.UpArrow) && editingLine > 0) {
+            editLine(editingLine - 1, caret);
+        } else if (ImGui.isKeyPressed(ImGuiKey.DownArrow) && editingLine + 1 < document.lineCount()) {
+            editLine(editingLine + 1, caret);
+        }
+        return false;
+    }
+
+    /**
+     * Moves the line input to {@code line} with the caret at {@code column}, scrolling it into view.
+     */
+    private void editLine(int line, int column) {
+        editingLine = line;
+        loadedLine = null;
+        lineCursor = column;
+        pendingLineCursor = column;
+        focusLine = true;
+        scrollToEditingLine = true;
+    }
+
+    /**
+     * Document offset where {@code line} ends, before its line break.
+     */
+    private static int lineEnd(ShaderDocument document, int line) {
+        int start = document.lineStart(line);
+        int end = line + 1 < document.lineCount() ? document.lineStart(line + 1) - 1 : document.length();
+        return end > start && document.charAt(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    private int columnAt(String text, float x) {
+        float width = 0f;
+        for (int i = 0; i < text.length(); i++) {
+            float advance = glyphs.width(text, i, i + 1);
+            if (x < width + advance * 0.5f) return i;
+            width += advance;
+        }
+        return text.length();
+    }
+
+    /**
+     * Keeps the line cache in step with the document in large-file mode. The text is split once when the mode
+     * starts; after that every edit, whether typed, undone or reloaded, arrives through the document's listener as
+     * the lines it replaced, so no keystroke builds the whole text.
+     */
+    private void followDocument(ShaderEditorState state) {
+        ShaderDocument document = state.document();
+        if (followedDocument == document) return;
+        unfollowDocument();
+        document.addListener(lineDeltas);
+        followedDocument = document;
+        lineCache.update(editorText(state));
+    }
+
+    private void unfollowDocument() {
+        if (followedDocument != null) {
+            followedDocument.removeListener(lineDeltas);
+            followedDocument = null;
+        }
+    }
+
+    /**
+     * Replaces the cached lines an edit touched. The first and last new lines are read back from the document,
+     * since the edit may have split them; the ones in between come straight from the inserted text.
+     */
+    private void applyLineDelta(int start, String removed, String inserted) {
+        ShaderDocument document = followedDocument;
+        if (document == null) return;
+        int first = document.lineAt(start);
+        int last = first;
+        for (int i = removed.indexOf('\n'); i >= 0; i = removed.indexOf('\n', i + 1)) {
+            last++;
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add(document.line(first).replace("\r", ""));
+        int from = inserted.indexOf('\n');
+        if (from >= 0) {
+            for (int to = inserted.indexOf('\n', from + 1); to >= 0; to = inserted.indexOf('\n', from + 1)) {
+                lines.add(inserted.substring(from + 1, to).replace("\r", ""));
+                from = to;
+            }
+            lines.add(document.line(first + lines.size()).replace("\r", ""));
+        }
+        lineCache.replaceLines(first, last, lines);
+    }
+
+    /**
+     * The document text without carriage returns, as the line cache and caret offsets count it. Only stripped again
+     * when the document hands out a new snapshot, so an idle editor does not rescan the text every frame.
+     */
+    private String editorText(ShaderEditorState state) {
+        String text = state.document().text();
+        if (text != strippedFrom) {
+            strippedFrom = text;
+            strippedText = text.replace("\r", "");
+        }
+        return strippedText;
+    }
+
+    /**
+     * Puts the caret at the start of {@code line}, counted from zero, and scrolls it into view once the editor takes
+     * focus.
+     */
+    public void revealLine(ShaderEditorState state, int line) {
+        ShaderDocument document = state.document();
+        int target = Math.max(0, Math.min(line, document.lineCount() - 1));
+        if (state.isLargeFile()) {
+            editLine(target, 0);
+        } else {
+            pendingCursorPos = document.lineStart(target);
+            pendingSetCursor = true;
+        }
+        state.requestEditorFocus();
+    }
+
+    /**
+     * Hands changed text to the background checker and picks up its latest report. Diagnostics are only shown
+     * while they describe exactly what is in the buffer.
+     */
+    private void updateDiagnostics(ShaderEditorState state, String rawText) {
+        if (!state.isSyntaxCheckEnabled()) {
+            checkedText = null;
+            shownReport = null;
+            diagnosticsByLine.clear();
+            return;
+        }
+
+        if (!rawText.equals(checkedText)) {
+            checkedText = rawText;
+            diagnostics.submit(rawText, state.getWorkspace().getIncludes(), state.currentFile().orElse(null));
+        }
+
+        ShaderDiagnostics.Report report = diagnostics.report();
+        if (report.source() != checkedText) {
+            shownReport = null;
+            diagnosticsByLine.clear();
+            return;
+        }
+        if (report == shownReport) {
+            return;
+        }
+
+        shownReport = report;
+        diagnosticsByLine.clear();
+        for (GlslSyntaxChecker.Diagnostic diagnostic : report.diagnostics()) {
+            diagnosticsByLine.computeIfAbsent(diagnostic.line() - 1, ignored -> new ArrayList<>()).add(diagnostic);
+        }
+    }
+
+    private void renderOverlay(ShaderIDETheme.SyntaxPalette palette,
                                float rectMinX, float rectMinY, float rectMaxX, float rectMaxY,
                                float scrollX, float scrollY) {
-        final List<LineInfo> lines = tokenize(rawText);
         final ImDrawList drawList = ImGui.getWindowDrawList();
 
         float gutterX = rectMinX;
@@ -211,10 +596,11 @@ public final class ShaderCodeEditor {
         drawList.addLine(gutterRight, rectMinY, gutterRight, rectMaxY, ImColor.rgba(60, 60, 60, 255));
 
         caretVisible = false;
+        hoveredDiagnostics = null;
 
         ImGui.pushClipRect(rectMinX, rectMinY, rectMaxX, rectMaxY, true);
 
-        int caretLineIndex = lineForIndex(lines, cursorPos);
+        int caretLineIndex = lineCache.lineAt(cursorPos);
 
         float textStartBaseX = gutterRight + ImGui.getStyle().getFramePaddingX();
         float lineNumberBaseX = gutterX + 8f;
@@ -223,12 +609,16 @@ public final class ShaderCodeEditor {
         int selectionB = Math.max(selectionStart, selectionEnd);
         boolean hasSelection = selectionA != selectionB;
 
-        for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
-            LineInfo line = lines.get(lineIndex);
-
-            float y = rectMinY + ImGui.getStyle().getFramePaddingY() - scrollY + lineIndex * lineHeight;
+        // Only the lines inside both the input rect and the visible part of the window are tokenized and drawn
+        float firstLineY = rectMinY + ImGui.getStyle().getFramePaddingY() - scrollY;
+        float visibleMinY = Math.max(rectMinY, ImGui.getWindowPosY());
+        float visibleMaxY = Math.min(rectMaxY, ImGui.getWindowPosY() + ImGui.getWindowHeight());
+        int firstVisible = Math.max(0, (int) Math.floor((visibleMinY - firstLineY) / lineHeight) - 1);
+        int lastVisible = Math.min(lineCache.lineCount() - 1, (int) Math.ceil((visibleMaxY - firstLineY) / lineHeight));
 
-            if (y > rectMaxY || y + lineHeight < rectMinY) continue;
+        for (int lineIndex = firstVisible; lineIndex <= lastVisible; lineIndex++) {
+            LineTokenCache.Line line = lineCache.line(lineIndex);
+            float y = firstLineY + lineIndex * lineHeight;
 
             boolean isCaretLine = lineIndex == caretLineIndex;
 
@@ -244,9 +634,9 @@ public final class ShaderCodeEditor {
             }
 
             // Selection highlight
-            if (hasSelection && selectionA < line.endIndex && selectionB > line.startIndex) {
-                int lineSelStart = Math.max(selectionA, line.startIndex) - line.startIndex;
-                int lineSelEnd = Math.min(selectionB, line.endIndex) - line.startIndex;
+            if (hasSelection && selectionA < line.end() && selectionB > line.start) {
+                int lineSelStart = Math.max(selectionA, line.start) - line.start;
+                int lineSelEnd = Math.min(selectionB, line.end()) - line.start;
 
                 float selStartX = textStartBaseX - scrollX + measureTextWidth(line.text, 0, lineSelStart);
                 float selEndX = textStartBaseX - scrollX + measureTextWidth(line.text, 0, lineSelEnd);
@@ -263,43 +653,88 @@ public final class ShaderCodeEditor {
             // Line numbers
             drawList.addText(lineNumberBaseX, y, palette.lineNumber(), Integer.toString(lineIndex + 1));
 
-            float textX = textStartBaseX - scrollX;
-            if (line.segments.isEmpty()) {
-                caretIfNeeded(drawList, line, lineIndex, textX, y);
-                continue;
+            List<GlslSyntaxChecker.Diagnostic> lineDiagnostics = diagnosticsByLine.get(lineIndex);
+            if (lineDiagnostics != null) {
+                drawDiagnostics(drawList, line, lineDiagnostics, gutterX, textStartBaseX - scrollX, y);
             }
 
-            for (Segment segment : line.segments) {
-                String display = segment.display;
-                int color = paletteFor(palette, segment.type);
+            if (lineIndex == hiddenLine) continue;
+            float textX = textStartBaseX - scrollX;
+            for (int token = 0; token < line.displays.length; token++) {
+                String display = line.displays[token];
                 if (!display.isEmpty()) {
-                    drawList.addText(textX, y, color, display);
-                    textX += ImGui.calcTextSize(display).x;
-                }
-
-                if (segment.endsAtCursor && isCaretLine) {
-                    caretX = textX;
-                    caretY = y;
+                    drawList.addText(textX, y, paletteFor(palette, line.types[token]), display);
+                    textX += glyphs.width(display);
                 }
             }
+            widestLine = Math.max(widestLine, textX - (textStartBaseX - scrollX));
 
-            caretIfNeeded(drawList, line, lineIndex, textStartBaseX - scrollX, y);
         }
 
+        // The caret is placed even when its line is off screen, so ensureCaretVisible can scroll to it
+        caretIfNeeded(lineCache.line(caretLineIndex), textStartBaseX - scrollX, firstLineY + caretLineIndex * lineHeight);
+
         ImGui.popClipRect();
 
         // Draw the caret overlay after clipping so it stays visible.
-        if (caretVisible) {
+        if (caretVisible && caretLineIndex != hiddenLine) {
             drawCaret(drawList, rectMinY, rectMaxY);
         }
 
         // Prepare popup anchor position.
         popupPos.set(caretX, caretY + lineHeight);
+
+        if (hoveredDiagnostics != null) {
+            StringBuilder tooltip = new StringBuilder();
+            for (GlslSyntaxChecker.Diagnostic diagnostic : hoveredDiagnostics) {
+                if (tooltip.length() > 0) tooltip.append('\n');
+                tooltip.append(diagnostic.severity() == GlslSyntaxChecker.Severity.ERROR ? "Error: " : "Warning: ")
+                    .append(diagnostic.message());
+            }
+            ImGui.setTooltip(tooltip.toString());
+        }
+    }
+
+    private void drawDiagnostics(ImDrawList drawList, LineTokenCache.Line line, List<GlslSyntaxChecker.Diagnostic> lineDiagnostics,
+                                 float gutterX, float textX, float y) {
+        boolean hasError = false;
+        boolean hovered = ImGui.isMouseHoveringRect(gutterX, y, gutterX + GUTTER_WIDTH, y + lineHeight);
+        int length = line.text.length();
+
+        for (GlslSyntaxChecker.Diagnostic diagnostic : lineDiagnostics) {
+            boolean error = diagnostic.severity() == GlslSyntaxChecker.Severity.ERROR;
+            hasError |= error;
+
+            int from = Math.max(0, Math.min(length, diagnostic.start() - line.start));
+            int to = Math.max(from, Math.min(length, diagnostic.end() - line.start));
+            float startX = textX + measureTextWidth(line.text, 0, from);
+            float endX = Math.max(startX + 6f, textX + measureTextWidth(line.text, 0, to));
+            drawSquiggle(drawList, startX, endX, y + lineHeight - 3f, error ? ERROR_COLOR : WARNING_COLOR);
+            hovered |= ImGui.isMouseHoveringRect(startX, y, endX, y + lineHeight);
+        }
+
+        drawList.addCircleFilled(gutterX + GUTTER_WIDTH - 9f, y + lineHeight * 0.5f, 3.5f,
+            hasError ? ERROR_COLOR : WARNING_COLOR);
+        if (hovered) {
+            hoveredDiagnostics = lineDiagnostics;
+        }
     }
 
-    private void caretIfNeeded(ImDrawList drawList, LineInfo line, int lineIndex, float baseX, float y) {
-        if (cursorPos < line.startIndex || cursorPos > line.endIndex) return;
-        float caretOffset = measureTextWidth(line.text, 0, cursorPos - line.startIndex);
+    private void drawSquiggle(ImDrawList drawList, float startX, float endX, float baseY, int color) {
+        final float step = 2f;
+        float x = startX;
+        boolean up = true;
+        while (x < endX) {
+            float nextX = Math.min(endX, x + step);
+            drawList.addLine(x, up ? baseY : baseY - step, nextX, up ? baseY - step : baseY, color, 1f);
+            x = nextX;
+            up = !up;
+        }
+    }
+
+    private void caretIfNeeded(LineTokenCache.Line line, float baseX, float y) {
+        if (cursorPos < line.start || cursorPos > line.end()) return;
+        float caretOffset = measureTextWidth(line.text, 0, cursorPos - line.start);
         caretX = baseX + caretOffset;
         caretY = y;
         caretVisible = true;
@@ -314,40 +749,59 @@ public final class ShaderCodeEditor {
     }
 
     private float measureTextWidth(String text, int start, int end) {
-        if (start >= end) return 0f;
-        String slice = text.substring(start, end).replace("\t", "    ");
-        return ImGui.calcTextSize(slice).x;
+        return glyphs.width(text, start, end);
     }
 
-    private int paletteFor(ShaderIDETheme.SyntaxPalette palette, TokenType type) {
+    private int paletteFor(ShaderIDETheme.SyntaxPalette palette, LineTokenCache.TokenType type) {
         return switch (type) {
             case KEYWORD -> palette.keyword();
             case TYPE -> palette.type();
             case BUILTIN -> palette.builtin();
             case NUMBER -> palette.number();
             case STRING -> palette.string();
-            case COMMENT -> palette.comment();
+            case COMMENT, DISABLED -> palette.comment();
+            case PREPROCESSOR -> palette.keyword();
             case PLAIN -> palette.text();
         };
     }
 
     private void handleKeyboardShortcuts(ShaderEditorState state) {
-        if (ImGui.getIO().getKeyCtrl() && ImGui.isKeyPressed(ImGuiKey.Space, false)) {
+        if (!ImGui.getIO().getKeyCtrl()) return;
+        if (ImGui.isKeyPressed(ImGuiKey.Space, false)) {
             requestCompletionPopup(state);
         }
+        boolean redo = ImGui.isKeyPressed(ImGuiKey.Y) || ImGui.getIO().getKeyShift() && ImGui.isKeyPressed(ImGuiKey.Z);
+        boolean undo = !redo && ImGui.isKeyPressed(ImGuiKey.Z);
+        if (undo || redo) {
+            int caret = undo ? state.undo() : state.redo();
+            if (caret >= 0) {
+                pendingText = state.document().text();
+                pendingCursorPos = caret;
+                pendingSetCursor = true;
+            }
+        }
     }
 
     private void requestCompletionPopup(ShaderEditorState state) {
-        CompletionContext context = buildCompletionContext(state.buffer().get(), cursorPos);
+        CompletionContext context = buildCompletionContext(state.document().text(), cursorPos);
         if (context == null) return;
 
         popupMatches.clear();
         popupPrefix = context.prefix();
         popupWordStart = context.wordStart();
 
-        for (String entry : dictionary) {
-            if (!entry.equals(popupPrefix) && entry.toLowerCase(Locale.ROOT).startsWith(popupPrefix.toLowerCase(Locale.ROOT))) {
-                popupMatches.add(entry);
+        // The user's own declarations first, then built-in names they do not shadow
+        Set<String> names = new HashSet<>();
+        for (ShaderSymbolIndex.Symbol symbol : state.getWorkspace().getSymbols().complete(popupPrefix, MAX_COMPLETIONS)) {
+            if (!symbol.name().equals(popupPrefix)) {
+                popupMatches.add(symbol);
+                names.add(symbol.name());
+            }
+        }
+        for (ShaderSymbolIndex.Symbol symbol : builtinSymbols.complete(popupPrefix, MAX_COMPLETIONS)) {
+            if (popupMatches.size() >= MAX_COMPLETIONS) break;
+            if (!symbol.name().equals(popupPrefix) && !names.contains(symbol.name())) {
+                popupMatches.add(symbol);
             }
         }
 
@@ -376,7 +830,7 @@ public final class ShaderCodeEditor {
                 popupSelection = (popupSelection - 1 + popupMatches.size()) % popupMatches.size();
                 inputHandled = true;
             } else if (ImGui.isKeyPressed(ImGuiKey.Enter) || ImGui.isKeyPressed(ImGuiKey.Tab)) {
-                applyPopupSelection(state, popupMatches.get(popupSelection));
+                applyPopupSelection(state, popupMatches.get(popupSelection).name());
                 ImGui.closeCurrentPopup();
                 inputHandled = true;
             } else if (ImGui.isKeyPressed(ImGuiKey.Escape)) {
@@ -391,11 +845,16 @@ public final class ShaderCodeEditor {
                     ImGui.setScrollHereY();
                 }
 
-                if (ImGui.selectable(popupMatches.get(i), selected)) {
-                    applyPopupSelection(state, popupMatches.get(i));
+                ShaderSymbolIndex.Symbol match = popupMatches.get(i);
+                if (ImGui.selectable(match.name() + "##" + i, selected)) {
+                    applyPopupSelection(state, match.name());
                     ImGui.closeCurrentPopup();
                     break;
                 }
+                if (match.signature() != null) {
+                    ImGui.sameLine();
+                    ImGui.textDisabled(match.signature());
+                }
             }
             ImGui.endChild();
             ImGui.endPopup();
@@ -405,20 +864,16 @@ public final class ShaderCodeEditor {
     private void applyPopupSelection(ShaderEditorState state, String value) {
         if (popupWordStart < 0) return;
 
-        String text = state.buffer().get();
-        int end = cursorPos;
+        int end = Math.min(cursorPos, state.document().length());
         if (end < popupWordStart) end = popupWordStart;
 
         String completed = value;
-        String updated = text.substring(0, popupWordStart) + completed + text.substring(end);
-
-        state.buffer().set(updated);
+        state.replaceRange(popupWordStart, end, completed);
         cursorPos = popupWordStart + completed.length();
         selectionStart = cursorPos;
         selectionEnd = cursorPos;
         pendingCursorPos = cursorPos;
         pendingSetCursor = true;
-        state.markDirty(true);
         state.requestEditorFocus();
     }
 
@@ -442,43 +897,8 @@ public final class ShaderCodeEditor {
 
     private String findBestCompletion(String prefix) {
         if (prefix == null || prefix.isEmpty()) return null;
-        String lower = prefix.toLowerCase(Locale.ROOT);
-        for (String entry : dictionary) {
-            if (entry.toLowerCase(Locale.ROOT).startsWith(lower)) {
-                return entry;
-            }
-        }
-        return null;
-    }
-
-    private List<LineInfo> tokenize(String text) {
-        List<LineInfo> lines = new ArrayList<>();
-        if (text.isEmpty()) {
-            lines.add(new LineInfo("", 0));
-            return lines;
-        }
-
-        int index = 0;
-        int length = text.length();
-
-        StringBuilder current = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            char c = text.charAt(i);
-            if (c == '\n') {
-                LineInfo line = new LineInfo(current.toString(), index);
-                line.buildSegments();
-                lines.add(line);
-                current.setLength(0);
-                index = i + 1;
-            } else {
-                current.append(c);
-            }
-        }
-
-        LineInfo tail = new LineInfo(current.toString(), index);
-        tail.buildSegments();
-        lines.add(tail);
-        return lines;
+        List<ShaderSymbolIndex.Symbol> matches = builtinSymbols.complete(prefix, 1);
+        return matches.isEmpty() ? null : matches.get(0).name();
     }
 
     private void ensureCaretVisible(float rectMinY, float currentScrollY, float scrollMaxY, float contentHeight) {
@@ -504,141 +924,16 @@ public final class ShaderCodeEditor {
         }
     }
 
-    private int countLines(String text) {
-        if (text == null || text.isEmpty()) {
-            return 1;
-        }
-
-        int count = 1;
-        for (int i = 0; i < text.length(); i++) {
-            if (text.charAt(i) == '\n') {
-                count++;
-            }
-        }
-        return count;
-    }
-
-    private int lineForIndex(List<LineInfo> lines, int idx) {
-        for (int i = 0; i < lines.size(); i++) {
-            LineInfo line = lines.get(i);
-            if (idx >= line.startIndex && idx <= line.endIndex) {
-                return i;
-            }
-        }
-        return Math.max(0, lines.size() - 1);
-    }
-
     private boolean isWordChar(char c) {
         return c == '_' || Character.isLetterOrDigit(c);
     }
 
-    private enum TokenType {
-        KEYWORD,
-        TYPE,
-        BUILTIN,
-        NUMBER,
-        STRING,
-        COMMENT,
-        PLAIN
-    }
-
-    private static final class Segment {
-        private final String text;
-        private final String display;
-        private final TokenType type;
-        private final boolean endsAtCursor;
-
-        private Segment(String text, TokenType type, boolean endsAtCursor) {
-            this.text = text;
-            this.display = text.replace("\t", "    ");
-            this.type = type;
-            this.endsAtCursor = endsAtCursor;
-        }
-    }
-
-    private final class LineInfo {
-        private final String text;
-        private final int startIndex;
-        private int endIndex;
-        private final List<Segment> segments = new ArrayList<>();
-
-        private LineInfo(String text, int startIndex) {
-            this.text = text;
-            this.startIndex = startIndex;
-            this.endIndex = startIndex + text.length();
-        }
-
-        private void buildSegments() {
-            if (text.isEmpty()) {
-                segments.clear();
-                return;
-            }
-
-            int pos = 0;
-            boolean inString = false;
-
-            while (pos < text.length()) {
-                char c = text.charAt(pos);
-
-                // Line comment
-                if (!inString && c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '/') {
-                    String rest = text.substring(pos);
-                    segments.add(new Segment(rest, TokenType.COMMENT, cursorPos == startIndex + pos + rest.length()));
-                    return;
-                }
-
-                if (c == '"' && (pos == 0 || text.charAt(pos - 1) != '\\')) {
-                    int start = pos++;
-                    inString = true;
-                    while (pos < text.length()) {
-                        char sc = text.charAt(pos);
-                        if (sc == '"' && text.charAt(pos - 1) != '\\') {
-                            pos++;
-                            break;
-                        }
-                        pos++;
-                    }
-                    String slice = text.substring(start, Math.min(pos, text.length()));
-                    segments.add(new Segment(slice, TokenType.STRING, cursorPos == startIndex + pos));
-                    inString = false;
-                    continue;
-                }
-
-                if (Character.isDigit(c)) {
-                    int start = pos++;
-                    while (pos < text.length()) {
-                        char nc = text.charAt(pos);
-                        if (!(Character.isDigit(nc) || nc == '.' || nc == 'f' || nc == 'F')) break;
-                        pos++;
-                    }
-                    String slice = text.substring(start, pos);
-                    segments.add(new Segment(slice, TokenType.NUMBER, cursorPos == startIndex + pos));
-                    continue;
-                }
-
-                if (isWordChar(c)) {
-                    int start = pos++;
-                    while (pos < text.length() && isWordChar(text.charAt(pos))) {
-                        pos++;
-                    }
-                    String slice = text.substring(start, pos);
-                    TokenType type = classify(slice);
-                    segments.add(new Segment(slice, type, cursorPos == startIndex + pos));
-                    continue;
-                }
-
-                segments.add(new Segment(Character.toString(c), TokenType.PLAIN, cursorPos == startIndex + pos + 1));
-                pos++;
-            }
-        }
-
-        private TokenType classify(String slice) {
-            String key = slice.toLowerCase(Locale.ROOT);
-            if (keywords.contains(key)) return TokenType.KEYWORD;
-            if (types.contains(key)) return TokenType.TYPE;
-            if (builtins.contains(slice) || builtins.contains(key)) return TokenType.BUILTIN;
-            return TokenType.PLAIN;
-        }
+    private LineTokenCache.TokenType classify(String word) {
+        String key = word.toLowerCase(Locale.ROOT);
+        if (keywords.contains(key)) return LineTokenCache.TokenType.KEYWORD;
+        if (types.contains(key)) return LineTokenCache.TokenType.TYPE;
+        if (builtins.contains(word) || builtins.contains(key)) return LineTokenCache.TokenType.BUILTIN;
+        return LineTokenCache.TokenType.PLAIN;
     }
 
     private record CompletionContext(int wordStart, String prefix) {}
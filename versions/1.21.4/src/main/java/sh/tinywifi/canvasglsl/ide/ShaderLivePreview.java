@@ -0,0 +1,107 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import sh.tinywifi.canvasglsl.CanvasGLSL;
+import sh.tinywifi.canvasglsl.render.GlslSyntaxChecker;
+import sh.tinywifi.canvasglsl.render.IncludeResolver;
+import sh.tinywifi.canvasglsl.shader.ShaderRenderer;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Preview of the editor text while typing, without saving it. A short while after the text stops changing, a
+ * snapshot has its includes expanded, is syntax checked and patched on a background thread, leaving only the link to
+ * the render thread. Each submission supersedes everything before it: a snapshot still waiting, being prepared or
+ * prepared but not yet taken is dropped once a newer one exists, so only the newest text is ever linked.
+ */
+public final class ShaderLivePreview {
+    private static final long IDLE_MS = 400L;
+
+    /**
+     * A prepared snapshot of the text. Either {@code shader} is set, or {@code error} says why it cannot compile.
+     */
+    public record Build(long generation, Path file, ShaderRenderer.PreparedShader shader, String error) {
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CanvasGLSL live preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReference<Build> ready = new AtomicReference<>();
+    private ScheduledFuture<?> pending;
+
+    /**
+     * Schedules {@code source}, the text of {@code file} (which may be {@code null}), to be prepared with the given
+     * compile settings once no newer text arrives for a while.
+     */
+    public synchronized void submit(String source, Path file, IncludeResolver includes, boolean syntaxCheck,
+                                    boolean specializeConstants, boolean minify) {
+        long id = generation.incrementAndGet();
+        ready.set(null);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(() -> prepare(id, source, file, includes, syntaxCheck, specializeConstants, minify),
+            IDLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drops whatever is waiting or prepared, as when the shader is saved and compiled directly.
+     */
+    public synchronized void cancel() {
+        generation.incrementAndGet();
+        ready.set(null);
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * The prepared snapshot of the newest submission, once; {@code null} while it is not ready.
+     */
+    public Build take() {
+        Build build = ready.getAndSet(null);
+        return build != null && build.generation() == generation.get() ? build : null;
+    }
+
+    private void prepare(long id, String source, Path file, IncludeResolver includes, boolean syntaxCheck,
+                         boolean specializeConstants, boolean minify) {
+        try {
+            String expanded;
+            try {
+                expanded = includes.expand(source, file);
+            } catch (IllegalStateException ex) {
+                publish(new Build(id, file, null, ex.getMessage()));
+                return;
+            }
+            if (syntaxCheck) {
+                GlslSyntaxChecker.Diagnostic error = GlslSyntaxChecker.firstError(GlslSyntaxChecker.check(expanded, null, true));
+                if (error != null) {
+                    String where = expanded.equals(source) ? "" : " of the expanded shader";
+                    publish(new Build(id, file, null, "Syntax error on line " + error.line() + where + ": " + error.message()));
+                    return;
+                }
+            }
+            if (id != generation.get()) return;
+            publish(new Build(id, file, ShaderRenderer.prepare(null, expanded, specializeConstants, minify), null));
+        } catch (RuntimeException ex) {
+            CanvasGLSL.LOG.warn("Live preview build failed", ex);
+        }
+    }
+
+    private void publish(Build build) {
+        // take() checks the generation again, so a build outdated between here and the set is still never linked
+        if (build.generation() == generation.get()) {
+            ready.set(build);
+        }
+    }
+}
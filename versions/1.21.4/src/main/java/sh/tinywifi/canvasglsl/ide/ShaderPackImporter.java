@@ -0,0 +1,591 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import sh.tinywifi.canvasglsl.CanvasGLSL;
+import sh.tinywifi.canvasglsl.render.GlslLexer;
+import sh.tinywifi.canvasglsl.render.GlslSyntaxChecker;
+import sh.tinywifi.canvasglsl.render.ShaderPatcher;
+import sh.tinywifi.canvasglsl.render.ShaderProgram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Bulk-imports shader packs into the workspace: a folder of shader files or a Shadertoy JSON export.
+ *
+ * Reading, include expansion, patching and {@link GlslSyntaxChecker} run in parallel on a fork-join pool, and
+ * shaders that pass are written under {@code imports/<pack>/}. The driver compile comes afterwards: the render
+ * thread links a few queued shaders per frame through {@link #validateBatch()}, so a large pack never stalls the
+ * client. Every failure, static or from the driver, ends up in {@code import-report.log} next to the imported files.
+ *
+ * Files that other pack files include, or that define no {@code main}, are libraries: their {@code #include}s of
+ * pack files are rewritten to the imported paths, they are written first and checked without an entry point, and
+ * only then are the remaining shaders expanded against them.
+ */
+public final class ShaderPackImporter {
+    private static final String IMPORT_FOLDER = "imports";
+    private static final String REPORT_FILE = "import-report.log";
+    private static final int VALIDATIONS_PER_FRAME = 2;
+
+    private final ShaderWorkspace workspace;
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    private volatile Job job;
+
+    public ShaderPackImporter(ShaderWorkspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Starts importing {@code source}. Returns {@code false} while another import is still running.
+     */
+    public synchronized boolean start(Path source) {
+        if (job != null && !job.finished) {
+            return false;
+        }
+        String pack = sanitize(stripExtension(source.getFileName().toString()));
+        Job started = new Job(source, workspace.getRoot().resolve(IMPORT_FOLDER).resolve(pack));
+        job = started;
+        pool.execute(() -> scan(started));
+        return true;
+    }
+
+    /**
+     * The running or most recent import, or {@code null} if there has been none.
+     */
+    public Job current() {
+        return job;
+    }
+
+    /**
+     * Links up to {@value #VALIDATIONS_PER_FRAME} imported shaders with the driver. Call once per frame on the render
+     * thread; returns {@code true} on the call that finishes the import.
+     */
+    public boolean validateBatch() {
+        Job current = job;
+        if (current == null || current.finished || !current.scanned) {
+            return false;
+        }
+
+        for (int i = 0; i < VALIDATIONS_PER_FRAME; i++) {
+            Imported imported = current.validation.poll();
+            if (imported == null) {
+                break;
+            }
+            try {
+                // Only whether the driver links it matters; the program itself is not kept
+                ShaderProgram.link(null, imported.patched()).close();
+                current.compiled.incrementAndGet();
+            } catch (IllegalStateException ex) {
+                current.failures.add(new Failure(imported.name(), "driver", firstLine(ex.getMessage())));
+                if (imported.created()) {
+                    workspace.deleteFile(imported.file());
+                }
+            }
+        }
+
+        if (!current.validation.isEmpty()) {
+            return false;
+        }
+        current.finished = true;
+        pool.execute(() -> writeReport(current));
+        return true;
+    }
+
+    private void scan(Job job) {
+        try {
+            List<Candidate> candidates = collect(job);
+            job.total = candidates.size();
+            Map<String, String> packNames = new HashMap<>();
+            for (Candidate candidate : candidates) {
+                if (candidate.relative() != null) {
+                    packNames.put(candidate.relative(), candidate.name());
+                }
+            }
+
+            // Runs inside the pool, so the parallel streams fork onto its workers
+            List<Source> sources = candidates.parallelStream()
+                .map(candidate -> read(job, candidate, packNames))
+                .filter(Objects::nonNull)
+                .toList();
+            Set<String> included = new HashSet<>();
+            for (Source source : sources) {
+                included.addAll(source.includes());
+            }
+
+            // Libraries are on disk before anything including them is expanded, and are checked without an entry point
+            List<Source> libraries = sources.stream().filter(source -> source.isLibrary(included)).toList();
+            Map<Source, Boolean> written = new ConcurrentHashMap<>();
+            libraries.parallelStream().forEach(library -> {
+                Boolean created = store(job, library);
+                if (created != null) {
+                    written.put(library, created);
+                } else {
+                    job.checked.incrementAndGet();
+                }
+            });
+            written.entrySet().parallelStream().forEach(entry -> checkLibrary(job, entry.getKey(), entry.getValue()));
+            sources.stream()
+                .filter(source -> !source.isLibrary(included))
+                .toList()
+                .parallelStream()
+                .forEach(source -> process(job, source));
+        } catch (RuntimeException ex) {
+            CanvasGLSL.LOG.error("Shader pack import from {} failed", job.source, ex);
+            job.failures.add(new Failure(job.source.getFileName().toString(), "import", ex.getMessage()));
+        } finally {
+            job.scanned = true;
+        }
+    }
+
+    private List<Candidate> collect(Job job) {
+        List<Candidate> candidates = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        if (Files.isDirectory(job.source)) {
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(job.source)) {
+                files = stream.filter(Files::isRegularFile).sorted(Comparator.comparing(Path::toString)).toList();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot list " + job.source + ": " + ex.getMessage());
+            }
+            for (Path file : files) {
+                String relative = job.source.relativize(file).toString().replace('\\', '/');
+                if (isJson(file)) {
+                    collectJson(job, file, candidates, names);
+                } else if (workspace.hasSupportedExtension(file)) {
+                    candidates.add(new Candidate(unique(names, sanitizePath(relative)), relative, file, null));
+                }
+            }
+        } else if (isJson(job.source)) {
+            collectJson(job, job.source, candidates, names);
+        } else {
+            String name = job.source.getFileName().toString();
+            candidates.add(new Candidate(unique(names, sanitize(name)), name, job.source, null));
+        }
+        return candidates;
+    }
+
+    /**
+     * Reads a Shadertoy export: one shader as returned by the API ({@code {"Shader": {...}}}), a bare shader object,
+     * or an array of either, optionally wrapped as {@code {"shaders": [...]}}.
+     */
+    private void collectJson(Job job, Path file, List<Candidate> candidates, Set<String> names) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IOException | JsonParseException ex) {
+            job.failures.add(new Failure(file.getFileName().toString(), "parse", ex.getMessage()));
+            return;
+        }
+
+        List<JsonObject> shaders = new ArrayList<>();
+        collectShaders(root, shaders);
+        if (shaders.isEmpty()) {
+            job.failures.add(new Failure(file.getFileName().toString(), "parse", "No Shadertoy shaders found"));
+            return;
+        }
+
+        for (JsonObject shader : shaders) {
+            String name = shaderName(shader, candidates.size() + job.failures.size());
+            String target = unique(names, sanitize(name) + ".frag");
+            StringBuilder common = new StringBuilder();
+            String image = null;
+            String unsupported = null;
+            for (JsonElement element : shader.getAsJsonArray("renderpass")) {
+                if (!element.isJsonObject()) {
+                    continue;
+                }
+                JsonObject pass = element.getAsJsonObject();
+                String type = string(pass, "type");
+                String code = string(pass, "code");
+                if ("image".equals(type)) {
+                    image = code;
+                } else if ("common".equals(type) && code != null) {
+                    common.append(code).append('\n');
+                } else if ("buffer".equals(type) || "cubemap".equals(type)) {
+                    unsupported = "Multipass shaders (" + string(pass, "name") + ") are not supported";
+                }
+            }
+
+            if (unsupported != null) {
+                job.failures.add(new Failure(target, "import", unsupported));
+            } else if (image == null || image.isBlank()) {
+                job.failures.add(new Failure(target, "import", "No Image pass"));
+            } else {
+                candidates.add(new Candidate(target, null, null, common + image));
+            }
+        }
+    }
+
+    private static void collectShaders(JsonElement element, List<JsonObject> shaders) {
+        if (element.isJsonArray()) {
+            for (JsonElement child : element.getAsJsonArray()) {
+                collectShaders(child, shaders);
+            }
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            if (object.has("renderpass") && object.get("renderpass").isJsonArray()) {
+                shaders.add(object);
+            } else if (object.has("Shader")) {
+                collectShaders(object.get("Shader"), shaders);
+            } else if (object.has("shaders")) {
+                collectShaders(object.get("shaders"), shaders);
+            }
+        }
+    }
+
+    /**
+     * Reads a candidate and points its {@code #include}s of other files in the pack at where they are imported to,
+     * since the workspace resolves includes from its root. Returns {@code null} after recording a failure.
+     */
+    private Source read(Job job, Candidate candidate, Map<String, String> packNames) {
+        try {
+            String source = candidate.code();
+            if (source == null) {
+                source = Files.readString(candidate.file(), StandardCharsets.UTF_8);
+            }
+            Set<String> includes = new HashSet<>();
+            String linked = relink(job, source, candidate.relative(), packNames, includes);
+            return new Source(candidate.name(), job.folder.resolve(candidate.name()), linked, includes,
+                definesEntryPoint(linked));
+        } catch (IOException | RuntimeException ex) {
+            job.failures.add(new Failure(candidate.name(), "import", ex.getMessage()));
+            job.checked.incrementAndGet();
+            return null;
+        }
+    }
+
+    private String relink(Job job, String source, String relative, Map<String, String> packNames, Set<String> includes) {
+        if (source.indexOf("#include") < 0) {
+            return source;
+        }
+        String directory = relative == null || relative.indexOf('/') < 0 ? "" : relative.substring(0, relative.lastIndexOf('/') + 1);
+        StringBuilder out = new StringBuilder(source.length() + 64);
+        int copied = 0;
+        GlslLexer lexer = new GlslLexer(source);
+        while (lexer.next() != GlslLexer.Token.END) {
+            if (lexer.token() != GlslLexer.Token.DIRECTIVE || !"include".equals(lexer.directiveName())) {
+                continue;
+            }
+            int open = -1;
+            for (int i = lexer.start(); i < lexer.end() && open < 0; i++) {
+                char c = source.charAt(i);
+                if (c == '"' || c == '<') {
+                    open = i + 1;
+                }
+            }
+            int close = open < 0 ? -1 : source.indexOf(source.charAt(open - 1) == '"' ? '"' : '>', open);
+            if (close < 0 || close > lexer.end()) {
+                continue;
+            }
+
+            String spec = source.substring(open, close);
+            // Packs include relative to the including file or to the pack root
+            String name = packNames.get(normalizeRelative(directory + spec));
+            if (name == null) {
+                name = packNames.get(normalizeRelative(spec));
+            }
+            if (name == null) {
+                continue;
+            }
+            includes.add(name);
+            out.append(source, copied, open);
+            out.append(workspace.getRoot().relativize(job.folder.resolve(name)).toString().replace('\\', '/'));
+            copied = close;
+        }
+        out.append(source, copied, source.length());
+        return out.toString();
+    }
+
+    private static String normalizeRelative(String path) {
+        List<String> parts = new ArrayList<>();
+        for (String part : path.replace('\\', '/').split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (part.equals("..")) {
+                if (parts.isEmpty()) {
+                    return "";
+                }
+                parts.remove(parts.size() - 1);
+            } else {
+                parts.add(part);
+            }
+        }
+        return String.join("/", parts);
+    }
+
+    private static boolean definesEntryPoint(String source) {
+        GlslLexer lexer = new GlslLexer(source);
+        String beforePrevious = null;
+        String previous = null;
+        while (lexer.next() != GlslLexer.Token.END) {
+            if (lexer.token() == GlslLexer.Token.DIRECTIVE) {
+                continue;
+            }
+            String text = lexer.text();
+            if ("(".equals(text) && "void".equals(beforePrevious) && ("main".equals(previous) || "mainImage".equals(previous))) {
+                return true;
+            }
+            beforePrevious = previous;
+            previous = text;
+        }
+        return false;
+    }
+
+    /**
+     * Writes {@code source} unless the target already holds it. Returns whether a file was written, or {@code null}
+     * after recording a failure.
+     */
+    private Boolean store(Job job, Source source) {
+        try {
+            boolean created = true;
+            if (Files.exists(source.target())) {
+                if (source.text().equals(Files.readString(source.target(), StandardCharsets.UTF_8))) {
+                    created = false;
+                    job.unchanged.incrementAndGet();
+                }
+            }
+            if (created) {
+                if (!workspace.writeFile(source.target(), source.text())) {
+                    job.failures.add(new Failure(source.name(), "write", "Could not write " + source.target()));
+                    return null;
+                }
+                job.imported.incrementAndGet();
+            }
+            return created;
+        } catch (IOException ex) {
+            job.failures.add(new Failure(source.name(), "write", ex.getMessage()));
+            return null;
+        }
+    }
+
+    private void checkLibrary(Job job, Source library, boolean created) {
+        try {
+            String expanded = workspace.getIncludes().expand(library.text(), library.target());
+            GlslSyntaxChecker.Diagnostic error = GlslSyntaxChecker.firstError(GlslSyntaxChecker.check(expanded, null, false));
+            if (error != null) {
+                job.failures.add(new Failure(library.name(), "check", "line " + error.line() + ": " + error.message()));
+                if (created) {
+                    workspace.deleteFile(library.target());
+                }
+            }
+        } catch (RuntimeException ex) {
+            job.failures.add(new Failure(library.name(), "import", ex.getMessage()));
+        } finally {
+            job.checked.incrementAndGet();
+        }
+    }
+
+    private void process(Job job, Source source) {
+        try {
+            String expanded = workspace.getIncludes().expand(source.text(), source.target());
+            GlslSyntaxChecker.Diagnostic error = GlslSyntaxChecker.firstError(GlslSyntaxChecker.check(expanded, null, true));
+            if (error != null) {
+                job.failures.add(new Failure(source.name(), "check", "line " + error.line() + ": " + error.message()));
+                return;
+            }
+            String patched = ShaderPatcher.patchFragment(expanded);
+
+            Boolean created = store(job, source);
+            if (created != null) {
+                job.validation.add(new Imported(source.name(), source.target(), patched, created));
+            }
+        } catch (RuntimeException ex) {
+            job.failures.add(new Failure(source.name(), "import", ex.getMessage()));
+        } finally {
+            job.checked.incrementAndGet();
+        }
+    }
+
+    private void writeReport(Job job) {
+        List<Failure> failures;
+        synchronized (job.failures) {
+            failures = new ArrayList<>(job.failures);
+        }
+        failures.sort(Comparator.comparing(Failure::name));
+
+        StringBuilder report = new StringBuilder();
+        report.append("CanvasGLSL shader pack import\n");
+        report.append("Source: ").append(job.source).append('\n');
+        report.append("Checked: ").append(job.checked.get())
+            .append(", written: ").append(job.imported.get())
+            .append(", unchanged: ").append(job.unchanged.get())
+            .append(", compiled: ").append(job.compiled.get())
+            .append(", failed: ").append(failures.size()).append("\n\n");
+        for (Failure failure : failures) {
+            report.append(String.format(Locale.ROOT, "%-8s %s: %s%n", failure.stage(), failure.name(), firstLine(failure.message())));
+        }
+
+        if (workspace.writeFile(job.folder.resolve(REPORT_FILE), report.toString())) {
+            job.report = job.folder.resolve(REPORT_FILE);
+        }
+    }
+
+    private static String shaderName(JsonObject shader, int index) {
+        if (shader.has("info") && shader.get("info").isJsonObject()) {
+            JsonObject info = shader.getAsJsonObject("info");
+            String name = string(info, "name");
+            if (name != null && !name.isBlank()) {
+                return name;
+            }
+            String id = string(info, "id");
+            if (id != null && !id.isBlank()) {
+                return id;
+            }
+        }
+        return "shader-" + (index + 1);
+    }
+
+    private static String string(JsonObject object, String key) {
+        JsonElement value = object.get(key);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    private static String unique(Set<String> names, String name) {
+        if (names.add(name.toLowerCase(Locale.ROOT))) {
+            return name;
+        }
+        String base = stripExtension(name);
+        String extension = name.substring(base.length());
+        for (int i = 2; ; i++) {
+            String candidate = base + "-" + i + extension;
+            if (names.add(candidate.toLowerCase(Locale.ROOT))) {
+                return candidate;
+            }
+        }
+    }
+
+    private static String sanitizePath(String relative) {
+        StringBuilder out = new StringBuilder();
+        for (String part : relative.split("/")) {
+            if (!part.isEmpty() && !part.equals(".") && !part.equals("..")) {
+                if (out.length() > 0) out.append('/');
+                out.append(sanitize(part));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String sanitize(String name) {
+        String cleaned = name.trim().replaceAll("[^A-Za-z0-9._-]+", "_");
+        return cleaned.isEmpty() || cleaned.chars().allMatch(c -> c == '.') ? "shader" : cleaned;
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static boolean isJson(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")
+            && !file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".media.json");
+    }
+
+    private static String firstLine(String message) {
+        if (message == null) {
+            return "Unknown error";
+        }
+        String trimmed = message.strip();
+        int newline = trimmed.indexOf('\n');
+        return newline >= 0 ? trimmed.substring(0, newline) : trimmed;
+    }
+
+    /**
+     * Progress and outcome of one import. Counters are updated from the pool and read from the render thread.
+     */
+    public static final class Job {
+        private final Path source;
+        private final Path folder;
+        private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        private final Queue<Imported> validation = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger checked = new AtomicInteger();
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger compiled = new AtomicInteger();
+        private volatile int total = -1;
+        private volatile boolean scanned;
+        private volatile boolean finished;
+        private volatile Path report;
+
+        private Job(Path source, Path folder) {
+            this.source = source;
+            this.folder = folder;
+        }
+
+        public Path folder() {
+            return folder;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public int failureCount() {
+            return failures.size();
+        }
+
+        /**
+         * Path of the written report, once the import has finished and the report is on disk.
+         */
+        public Path report() {
+            return report;
+        }
+
+        public String describe() {
+            if (!scanned) {
+                return total < 0
+                    ? "Reading " + source.getFileName() + "..."
+                    : "Checked " + checked.get() + "/" + total + " shaders";
+            }
+            int written = imported.get() + unchanged.get();
+            if (!finished) {
+                return "Compiling " + (written - validation.size()) + "/" + written + " imported shaders";
+            }
+            return "Imported " + compiled.get() + " shaders into " + IMPORT_FOLDER + "/" + folder.getFileName()
+                + ", " + failures.size() + " failed (see " + REPORT_FILE + ")";
+        }
+    }
+
+    /**
+     * A file or Shadertoy shader to import. {@code relative} is its path inside the pack, {@code null} for JSON.
+     */
+    private record Candidate(String name, String relative, Path file, String code) {
+    }
+
+    /**
+     * A candidate read and relinked; {@code includes} are the names of pack files it includes.
+     */
+    private record Source(String name, Path target, String text, Set<String> includes, boolean entryPoint) {
+        boolean isLibrary(Set<String> included) {
+            return !entryPoint || included.contains(name);
+        }
+    }
+
+    private record Imported(String name, Path file, String patched, boolean created) {
+    }
+
+    private record Failure(String name, String stage, String message) {
+    }
+}
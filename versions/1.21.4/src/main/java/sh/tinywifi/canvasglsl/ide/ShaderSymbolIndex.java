@@ -0,0 +1,296 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import sh.tinywifi.canvasglsl.CanvasGLSL;
+import sh.tinywifi.canvasglsl.render.GlslLexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Functions, structs, macros and globals declared in the workspace's shaders and libraries, for completion. Files
+ * are parsed on a background thread and only again when their modification time or size changes; the text in the
+ * editor is indexed a short while after typing stops and stands in for its file on disk. Lookups read an immutable
+ * {@link SymbolTrie} that the worker replaces after each change.
+ */
+public final class ShaderSymbolIndex {
+    private static final long DEBOUNCE_MS = 300L;
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+    private static final int MAX_SIGNATURE = 120;
+
+    public enum Kind {
+        FUNCTION,
+        STRUCT,
+        MACRO,
+        GLOBAL,
+        BUILTIN
+    }
+
+    /**
+     * One declaration. {@code signature} is its declaring text on one line, {@code null} for built-in names, and
+     * {@code file} is {@code null} for unsaved buffers.
+     */
+    public record Symbol(String name, Kind kind, String signature, Path file) {
+    }
+
+    private record FileSymbols(long modified, long size, List<Symbol> symbols) {
+    }
+
+    private final ShaderWorkspace workspace;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CanvasGLSL symbol index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the worker thread
+    private final Map<Path, FileSymbols> files = new HashMap<>();
+    private Path bufferFile;
+    private List<Symbol> bufferSymbols = List.of();
+    private boolean rebuildQueued;
+
+    private ScheduledFuture<?> pendingBuffer;
+    private volatile SymbolTrie trie = SymbolTrie.EMPTY;
+
+    ShaderSymbolIndex(ShaderWorkspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Up to {@code limit} indexed symbols whose name starts with {@code prefix}, ignoring case, in name order.
+     */
+    public List<Symbol> complete(String prefix, int limit) {
+        return trie.complete(prefix, limit);
+    }
+
+    /**
+     * Walks the workspace and re-parses files that changed since they were last indexed.
+     */
+    public void refresh() {
+        executor.execute(() -> {
+            try {
+                scan();
+            } catch (RuntimeException ex) {
+                CanvasGLSL.LOG.warn("Symbol index scan failed", ex);
+            }
+        });
+    }
+
+    /**
+     * Re-parses {@code file}, or drops it when it no longer exists.
+     */
+    public void fileChanged(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        executor.execute(() -> {
+            index(key);
+            queueRebuild();
+        });
+    }
+
+    /**
+     * Indexes the editor text in place of {@code file} (which may be {@code null}) once it stops changing. Only the
+     * newest submission is parsed.
+     */
+    public synchronized void updateBuffer(String source, Path file) {
+        if (pendingBuffer != null) {
+            pendingBuffer.cancel(false);
+        }
+        Path key = file != null ? file.toAbsolutePath().normalize() : null;
+        pendingBuffer = executor.schedule(() -> {
+            bufferFile = key;
+            bufferSymbols = extract(source, key);
+            queueRebuild();
+        }, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void scan() {
+        Path root = workspace.getRoot().toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) return;
+
+        Set<Path> seen = new HashSet<>();
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(path -> Files.isRegularFile(path) && workspace.hasSupportedExtension(path))
+                .forEach(path -> {
+                    Path key = path.toAbsolutePath().normalize();
+                    seen.add(key);
+                    index(key);
+                });
+        } catch (IOException ex) {
+            CanvasGLSL.LOG.warn("Unable to walk shader workspace for symbols", ex);
+            return;
+        }
+        files.keySet().retainAll(seen);
+        queueRebuild();
+    }
+
+    private void index(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() > MAX_FILE_BYTES) {
+                files.remove(file);
+                return;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            FileSymbols known = files.get(file);
+            if (known != null && known.modified() == modified && known.size() == attributes.size()) {
+                return;
+            }
+            String source = Files.readString(file, StandardCharsets.UTF_8);
+            files.put(file, new FileSymbols(modified, attributes.size(), extract(source, file)));
+        } catch (IOException ex) {
+            // Deleted, or unreadable for now
+            files.remove(file);
+        }
+    }
+
+    /**
+     * Rebuilds the trie once the changes already queued behind this one are in.
+     */
+    private void queueRebuild() {
+        if (rebuildQueued) return;
+        rebuildQueued = true;
+        executor.execute(() -> {
+            rebuildQueued = false;
+            List<Symbol> all = new ArrayList<>(bufferSymbols);
+            files.forEach((file, symbols) -> {
+                if (!file.equals(bufferFile)) {
+                    all.addAll(symbols.symbols());
+                }
+            });
+            trie = new SymbolTrie(all);
+        });
+    }
+
+    /**
+     * Declarations at file scope: {@code #define}s, structs, function definitions and prototypes, and global
+     * variables. Like {@link sh.tinywifi.canvasglsl.render.GlslSyntaxChecker}, declarations are recognised by shape,
+     * two identifiers followed by {@code (} for a function or by {@code ;}, {@code =}, {@code [} or {@code ,} for a
+     * variable.
+     */
+    static List<Symbol> extract(String source, Path file) {
+        Set<Symbol> symbols = new LinkedHashSet<>();
+        GlslLexer lexer = new GlslLexer(source);
+        int depth = 0;
+        int parens = 0;
+        int statementStart = -1;
+        boolean skipStatement = false;
+        String function = null;
+        // The last two file-scope tokens when they were identifiers, null otherwise
+        String previous = null;
+        String beforePrevious = null;
+        int previousEnd = 0;
+
+        for (GlslLexer.Token token = lexer.next(); token != GlslLexer.Token.END; token = lexer.next()) {
+            if (token == GlslLexer.Token.DIRECTIVE) {
+                if ("define".equals(lexer.directiveName())) {
+                    addMacro(source, lexer.start(), lexer.end(), file, symbols);
+                }
+                continue;
+            }
+            if (depth > 0) {
+                if (lexer.isOperator('{')) {
+                    depth++;
+                } else if (lexer.isOperator('}') && --depth == 0) {
+                    statementStart = -1;
+                    skipStatement = false;
+                }
+                continue;
+            }
+            if (statementStart < 0) {
+                statementStart = lexer.start();
+                skipStatement = lexer.is("precision");
+            }
+            if (parens > 0) {
+                if (lexer.isOperator('(')) {
+                    parens++;
+                } else if (lexer.isOperator(')') && --parens == 0 && function != null) {
+                    symbols.add(new Symbol(function, Kind.FUNCTION, signature(source, statementStart, lexer.end()), file));
+                    function = null;
+                }
+                continue;
+            }
+
+            if (token == GlslLexer.Token.IDENTIFIER) {
+                String text = lexer.text();
+                if ("struct".equals(previous)) {
+                    symbols.add(new Symbol(text, Kind.STRUCT, "struct " + text, file));
+                }
+                beforePrevious = previous;
+                previous = text;
+                previousEnd = lexer.end();
+                continue;
+            }
+
+            boolean declared = !skipStatement && previous != null && beforePrevious != null
+                && !"struct".equals(beforePrevious);
+            if (lexer.isOperator('(')) {
+                parens = 1;
+                function = declared ? previous : null;
+            } else if (lexer.isOperator('{')) {
+                depth++;
+            } else {
+                boolean ends = lexer.isOperator(';');
+                if (declared && (ends || lexer.isOperator('=') || lexer.isOperator('[') || lexer.isOperator(','))) {
+                    symbols.add(new Symbol(previous, Kind.GLOBAL, signature(source, statementStart, previousEnd), file));
+                }
+                if (ends) {
+                    statementStart = -1;
+                    skipStatement = false;
+                } else if (lexer.isOperator('=')) {
+                    // Identifiers in an initializer are not declarations
+                    skipStatement = true;
+                }
+            }
+            previous = null;
+            beforePrevious = null;
+        }
+        return List.copyOf(symbols);
+    }
+
+    private static void addMacro(String source, int start, int end, Path file, Set<Symbol> symbols) {
+        GlslLexer body = new GlslLexer(source, start + 1, end);
+        if (body.next() != GlslLexer.Token.IDENTIFIER || body.next() != GlslLexer.Token.IDENTIFIER) {
+            return;
+        }
+        symbols.add(new Symbol(body.text(), Kind.MACRO, signature(source, start, end), file));
+    }
+
+    /**
+     * {@code source[start, end)} on one line: line continuations and runs of whitespace become single spaces.
+     */
+    private static String signature(String source, int start, int end) {
+        StringBuilder out = new StringBuilder(Math.min(end - start, MAX_SIGNATURE + 3));
+        boolean space = false;
+        int i = start;
+        for (; i < end && out.length() < MAX_SIGNATURE; i++) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c) || (c == '\\' && i + 1 < end && (source.charAt(i + 1) == '\n' || source.charAt(i + 1) == '\r'))) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            out.append(c);
+        }
+        if (i < end) {
+            out.append("...");
+        }
+        return out.toString();
+    }
+}
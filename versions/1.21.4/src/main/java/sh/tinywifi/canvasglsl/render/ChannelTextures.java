@@ -0,0 +1,110 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL30;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * The four procedural textures bound to {@code iChannel0..3}. Generated from fixed seeds so every run, in game
+ * or headless, samples identical data.
+ */
+public final class ChannelTextures implements AutoCloseable {
+    public static final int COUNT = 4;
+    public static final int SIZE = 256;
+
+    private final int[] textures = new int[COUNT];
+
+    private ChannelTextures() {}
+
+    public static ChannelTextures create() {
+        ChannelTextures channels = new ChannelTextures();
+        final int size = SIZE;
+
+        for (int i = 0; i < COUNT; i++) {
+            channels.textures[i] = GL11.glGenTextures();
+
+            GL11.glBindTexture(GL11.GL_TEXTURE_2D, channels.textures[i]);
+            // Use LINEAR_MIPMAP_LINEAR for better quality when textures are viewed at different scales
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_REPEAT);
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_REPEAT);
+
+            ByteBuffer data = BufferUtils.createByteBuffer(size * size * 4);
+            Random random = new Random(0xC0FFEE + i * 997);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    float fx = x / (float) (size - 1);
+                    float fy = y / (float) (size - 1);
+                    int r;
+                    int g;
+                    int b;
+
+                    switch (i) {
+                        case 0 -> {
+                            int value = random.nextInt(256);
+                            r = value;
+                            g = value;
+                            b = value;
+                        }
+                        case 1 -> {
+                            r = Math.min(255, Math.round(fx * 255f));
+                            g = Math.min(255, Math.round(fy * 255f));
+                            b = Math.min(255, Math.round(((fx + fy) * 0.5f) * 255f));
+                        }
+                        case 2 -> {
+                            int stripe = ((x ^ y) & 15) * 16;
+                            r = stripe;
+                            g = 255 - stripe;
+                            b = stripe / 2 + 64;
+                        }
+                        default -> {
+                            r = random.nextInt(256);
+                            g = random.nextInt(256);
+                            b = random.nextInt(256);
+                        }
+                    }
+
+                    data.put((byte) r);
+                    data.put((byte) g);
+                    data.put((byte) b);
+                    data.put((byte) 255);
+                }
+            }
+            data.flip();
+
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, size, size, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data);
+            // Generate mipmaps for better texture quality
+            GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+        }
+
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        return channels;
+    }
+
+    public int texture(int channel) {
+        return textures[channel];
+    }
+
+    public int width(int channel) {
+        return SIZE;
+    }
+
+    public int height(int channel) {
+        return SIZE;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < textures.length; i++) {
+            if (textures[i] != 0) {
+                GL11.glDeleteTextures(textures[i]);
+                textures[i] = 0;
+            }
+        }
+    }
+}
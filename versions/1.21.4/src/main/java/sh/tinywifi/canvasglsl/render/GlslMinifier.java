@@ -0,0 +1,451 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional pre-compile stage for patched fragment sources. Drops comments and whitespace, removes functions that
+ * cannot be reached from {@code main} or {@code mainImage}, and folds arithmetic between two plain literals
+ * ({@code 2.0 * 3.14159}) where precedence allows. The output is semantically identical but keeps no line
+ * structure, so compile errors should be reported against the unminified source.
+ */
+public final class GlslMinifier {
+    private static final Set<String> ENTRY_POINTS = Set.of("main", "mainImage");
+
+    private GlslMinifier() {}
+
+    public record Result(String source, int removedFunctions, int foldedConstants) {}
+
+    public static Result minify(String source) {
+        List<Tok> tokens = tokenize(source);
+        List<Function> functions = findFunctions(tokens);
+
+        boolean[] removed = new boolean[tokens.size()];
+        int removedFunctions = removeUnreachable(tokens, functions, removed);
+
+        List<Tok> kept = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!removed[i]) {
+                kept.add(tokens.get(i));
+            }
+        }
+
+        int folded = foldConstants(kept);
+        return new Result(emit(kept), removedFunctions, folded);
+    }
+
+    private static final class Tok {
+        final GlslLexer.Token kind;
+        String text;
+        boolean macroArgument;
+
+        Tok(GlslLexer.Token kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+
+        boolean is(String value) {
+            return text.equals(value);
+        }
+    }
+
+    /**
+     * A top-level function definition or prototype spanning tokens {@code [start, end]}.
+     */
+    private record Function(String name, int start, int end) {}
+
+    private static List<Tok> tokenize(String source) {
+        List<Tok> tokens = new ArrayList<>();
+        GlslLexer lexer = new GlslLexer(source);
+        while (lexer.next() != GlslLexer.Token.END) {
+            tokens.add(new Tok(lexer.token(), lexer.text()));
+        }
+        return tokens;
+    }
+
+    private static List<Function> findFunctions(List<Tok> tokens) {
+        List<Function> functions = new ArrayList<>();
+        int depth = 0;
+        int statementStart = 0;
+        boolean sawAssignment = false;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            Tok tok = tokens.get(i);
+            if (tok.kind == GlslLexer.Token.DIRECTIVE) {
+                if (depth == 0) {
+                    statementStart = i + 1;
+                    sawAssignment = false;
+                }
+                continue;
+            }
+            if (tok.kind == GlslLexer.Token.OPERATOR) {
+                if (tok.is("{")) {
+                    depth++;
+                } else if (tok.is("}")) {
+                    depth = Math.max(0, depth - 1);
+                    if (depth == 0) {
+                        statementStart = i + 1;
+                        sawAssignment = false;
+                    }
+                } else if (depth == 0 && tok.is(";")) {
+                    statementStart = i + 1;
+                    sawAssignment = false;
+                } else if (depth == 0 && tok.is("=")) {
+                    sawAssignment = true;
+                }
+                continue;
+            }
+
+            if (depth != 0 || sawAssignment || tok.kind != GlslLexer.Token.IDENTIFIER || i == statementStart) {
+                continue;
+            }
+            Tok previous = tokens.get(i - 1);
+            boolean afterType = previous.kind == GlslLexer.Token.IDENTIFIER || previous.is("]");
+            if (!afterType || i + 1 >= tokens.size() || !tokens.get(i + 1).is("(")) {
+                continue;
+            }
+
+            int close = matching(tokens, i + 1, "(", ")");
+            if (close < 0 || close + 1 >= tokens.size()) {
+                continue;
+            }
+            Tok after = tokens.get(close + 1);
+            int end;
+            if (after.is("{")) {
+                end = matching(tokens, close + 1, "{", "}");
+            } else if (after.is(";")) {
+                end = close + 1;
+            } else {
+                continue;
+            }
+            if (end < 0) {
+                continue;
+            }
+
+            functions.add(new Function(tok.text, statementStart, end));
+            i = end;
+            statementStart = end + 1;
+            sawAssignment = false;
+        }
+        return functions;
+    }
+
+    private static int matching(List<Tok> tokens, int open, String openText, String closeText) {
+        int depth = 0;
+        for (int i = open; i < tokens.size(); i++) {
+            Tok tok = tokens.get(i);
+            if (tok.kind != GlslLexer.Token.OPERATOR) {
+                continue;
+            }
+            if (tok.is(openText)) {
+                depth++;
+            } else if (tok.is(closeText) && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int removeUnreachable(List<Tok> tokens, List<Function> functions, boolean[] removed) {
+        if (functions.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, List<Function>> byName = new HashMap<>();
+        boolean[] insideFunction = new boolean[tokens.size()];
+        for (Function function : functions) {
+            byName.computeIfAbsent(function.name(), ignored -> new ArrayList<>()).add(function);
+            for (int i = function.start(); i <= function.end(); i++) {
+                insideFunction[i] = true;
+            }
+        }
+
+        // Anything referenced outside function bodies (global initialisers, macros) stays, as do the entry points
+        Deque<String> pending = new ArrayDeque<>(ENTRY_POINTS);
+        for (int i = 0; i < tokens.size(); i++) {
+            Tok tok = tokens.get(i);
+            if (tok.kind == GlslLexer.Token.DIRECTIVE) {
+                GlslLexer body = new GlslLexer(tok.text, 0, tok.text.length());
+                while (body.next() != GlslLexer.Token.END) {
+                    if (body.token() == GlslLexer.Token.IDENTIFIER) {
+                        pending.add(body.text());
+                    }
+                }
+            } else if (!insideFunction[i] && tok.kind == GlslLexer.Token.IDENTIFIER && byName.containsKey(tok.text)) {
+                pending.add(tok.text);
+            }
+        }
+
+        Set<String> reachable = new HashSet<>();
+        while (!pending.isEmpty()) {
+            String name = pending.poll();
+            List<Function> definitions = byName.get(name);
+            if (definitions == null || !reachable.add(name)) {
+                continue;
+            }
+            for (Function function : definitions) {
+                for (int i = function.start(); i <= function.end(); i++) {
+                    Tok tok = tokens.get(i);
+                    if (tok.kind == GlslLexer.Token.IDENTIFIER && byName.containsKey(tok.text)) {
+                        pending.add(tok.text);
+                    }
+                }
+            }
+        }
+
+        int count = 0;
+        for (Function function : functions) {
+            if (reachable.contains(function.name())) {
+                continue;
+            }
+            for (int i = function.start(); i <= function.end(); i++) {
+                removed[i] = true;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static int foldConstants(List<Tok> tokens) {
+        markMacroArguments(tokens);
+        int folded = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i + 1 < tokens.size(); i++) {
+                Tok op = tokens.get(i);
+                int strength = binaryStrength(op);
+                if (strength < 0 || op.macroArgument) {
+                    continue;
+                }
+                Tok left = tokens.get(i - 1);
+                Tok right = tokens.get(i + 1);
+                if (!isPlainLiteral(left) || !isPlainLiteral(right)) {
+                    continue;
+                }
+                if (!boundsLoosely(i >= 2 ? tokens.get(i - 2) : null, strength, true)
+                    || !boundsLoosely(i + 2 < tokens.size() ? tokens.get(i + 2) : null, strength, false)) {
+                    continue;
+                }
+
+                String result = fold(left.text, op.text.charAt(0), right.text);
+                if (result == null) {
+                    continue;
+                }
+                left.text = result;
+                tokens.remove(i + 1);
+                tokens.remove(i);
+                folded++;
+                changed = true;
+                i = Math.max(0, i - 2);
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * Flags the tokens inside calls to function-like macros. Arguments are substituted as text, so with
+     * {@code #define SQ(x) x*x} folding {@code SQ(1.0+2.0)} to {@code SQ(3.0)} would change its value.
+     */
+    private static void markMacroArguments(List<Tok> tokens) {
+        Set<String> macros = new HashSet<>();
+        for (Tok tok : tokens) {
+            if (tok.kind != GlslLexer.Token.DIRECTIVE) {
+                continue;
+            }
+            GlslLexer body = new GlslLexer(tok.text, 1, tok.text.length());
+            if (body.next() != GlslLexer.Token.IDENTIFIER || !body.text().equals("define")
+                || body.next() != GlslLexer.Token.IDENTIFIER) {
+                continue;
+            }
+            String name = body.text();
+            int nameEnd = body.end();
+            if (body.next() == GlslLexer.Token.OPERATOR && body.isOperator('(') && body.start() == nameEnd) {
+                macros.add(name);
+            }
+        }
+        if (macros.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            Tok tok = tokens.get(i);
+            if (tok.kind != GlslLexer.Token.IDENTIFIER || !macros.contains(tok.text) || !tokens.get(i + 1).is("(")) {
+                continue;
+            }
+            int close = matching(tokens, i + 1, "(", ")");
+            int end = close < 0 ? tokens.size() - 1 : close;
+            for (int j = i + 1; j <= end; j++) {
+                tokens.get(j).macroArgument = true;
+            }
+        }
+    }
+
+    /**
+     * Whether the token next to a {@code literal op literal} group leaves that group as its own subexpression.
+     * Left neighbours must bind strictly looser than the operator; right neighbours may tie (left associativity).
+     */
+    private static boolean boundsLoosely(Tok neighbour, int strength, boolean left) {
+        if (neighbour == null) {
+            return true;
+        }
+        if (neighbour.kind == GlslLexer.Token.DIRECTIVE) {
+            return true;
+        }
+        if (neighbour.kind == GlslLexer.Token.IDENTIFIER) {
+            return left && neighbour.is("return");
+        }
+        if (neighbour.kind != GlslLexer.Token.OPERATOR) {
+            return false;
+        }
+        String text = neighbour.text;
+        if (text.equals(".") || text.equals("[") || text.equals("++") || text.equals("--")) {
+            return false;
+        }
+        if (left && (text.equals(")") || text.equals("]"))) {
+            return false;
+        }
+        int neighbourStrength = binaryStrength(neighbour);
+        if (neighbourStrength < 0) {
+            // Brackets, separators, assignments, comparisons, logic and the ternary all bind looser
+            return !text.equals("!") && !text.equals("~");
+        }
+        return left ? neighbourStrength < strength : neighbourStrength <= strength;
+    }
+
+    private static int binaryStrength(Tok tok) {
+        if (tok.kind != GlslLexer.Token.OPERATOR || tok.text.length() != 1) {
+            return -1;
+        }
+        return switch (tok.text.charAt(0)) {
+            case '*', '/', '%' -> 2;
+            case '+', '-' -> 1;
+            default -> -1;
+        };
+    }
+
+    private static boolean isPlainLiteral(Tok tok) {
+        if (tok.kind != GlslLexer.Token.NUMBER) {
+            return false;
+        }
+        String text = tok.text;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '.' && c != 'e' && c != 'E' && c != '+' && c != '-') {
+                // Suffixed (1.0f, 2u, 1.0lf) or hex literals keep their exact spelling
+                return false;
+            }
+        }
+        // Leading zeros make an integer octal
+        return isFloat(text) || text.equals("0") || text.charAt(0) != '0';
+    }
+
+    private static boolean isFloat(String text) {
+        return text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0;
+    }
+
+    private static String fold(String left, char op, String right) {
+        if (op == '%') {
+            return null;
+        }
+        boolean leftFloat = isFloat(left);
+        if (leftFloat != isFloat(right)) {
+            // int op float is a type error in GLSL 330; leave it for the compiler to report
+            return null;
+        }
+
+        try {
+            if (leftFloat) {
+                float a = Float.parseFloat(left);
+                float b = Float.parseFloat(right);
+                float value = switch (op) {
+                    case '*' -> a * b;
+                    case '/' -> a / b;
+                    case '+' -> a + b;
+                    default -> a - b;
+                };
+                if (Float.isNaN(value) || Float.isInfinite(value) || value < 0f) {
+                    return null;
+                }
+                return formatFloat(value);
+            }
+
+            int a = Integer.parseInt(left);
+            int b = Integer.parseInt(right);
+            int value = switch (op) {
+                case '*' -> Math.multiplyExact(a, b);
+                case '/' -> {
+                    if (b == 0) {
+                        throw new ArithmeticException();
+                    }
+                    yield a / b;
+                }
+                case '+' -> Math.addExact(a, b);
+                default -> Math.subtractExact(a, b);
+            };
+            // A negative result would need a unary minus, which changes how the neighbours bind
+            return value < 0 ? null : Integer.toString(value);
+        } catch (NumberFormatException | ArithmeticException ex) {
+            return null;
+        }
+    }
+
+    private static String formatFloat(float value) {
+        String text = Float.toString(value);
+        if (text.endsWith(".0")) {
+            return text;
+        }
+        int exponent = text.indexOf('E');
+        if (exponent >= 0 && text.lastIndexOf('.', exponent) < 0) {
+            return text.substring(0, exponent) + ".0" + text.substring(exponent);
+        }
+        return text;
+    }
+
+    private static String emit(List<Tok> tokens) {
+        StringBuilder out = new StringBuilder();
+        Tok previous = null;
+        for (Tok tok : tokens) {
+            if (tok.kind == GlslLexer.Token.DIRECTIVE) {
+                if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                    out.append('\n');
+                }
+                out.append(tok.text).append('\n');
+                previous = null;
+                continue;
+            }
+            if (previous != null && needsSpace(previous.text, tok.text)) {
+                out.append(' ');
+            }
+            out.append(tok.text);
+            previous = tok;
+        }
+        return out.toString();
+    }
+
+    private static boolean needsSpace(String left, String right) {
+        char a = left.charAt(left.length() - 1);
+        char b = right.charAt(0);
+        if (GlslLexer.isIdentifierPart(a) && GlslLexer.isIdentifierPart(b)) {
+            return true;
+        }
+        if (a == '.' && Character.isDigit(b)) {
+            return true;
+        }
+        if (b != '.' && (GlslLexer.isIdentifierPart(a) || GlslLexer.isIdentifierPart(b))) {
+            return false;
+        }
+        // Re-lexing "a" + "b" must yield the same two tokens: no new operator or comment may form, and a number must
+        // not swallow the '.' of a swizzle after it, while uv.xy stays joined
+        String joined = left + right;
+        GlslLexer lexer = new GlslLexer(joined, 0, joined.length());
+        lexer.next();
+        return lexer.end() != left.length();
+    }
+}
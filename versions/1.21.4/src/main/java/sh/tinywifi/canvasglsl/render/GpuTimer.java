@@ -0,0 +1,98 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * Measures how long the GPU spends between {@link #begin()} and {@link #end()} from two {@code GL_TIMESTAMP}
+ * samples. Vanilla keeps a {@code GL_TIME_ELAPSED} query open across the frame for its GPU utilization readout, and
+ * elapsed-time queries cannot nest, so timestamps are the only way to time a single draw inside it. Results are read
+ * a few frames later from a small ring of query pairs, so polling never waits on the GPU. Without timer query support
+ * every call is a no-op and {@link #poll()} never reports a time.
+ */
+public final class GpuTimer implements AutoCloseable {
+    private static final int RING_SIZE = 4;
+
+    // Query pairs: starts at even indices, ends at the odd index after them
+    private final int[] queries;
+    private final boolean[] pending = new boolean[RING_SIZE];
+    private int next;
+    private int active = -1;
+
+    private GpuTimer(int[] queries) {
+        this.queries = queries;
+    }
+
+    public static GpuTimer create() {
+        GLCapabilities caps = GL.getCapabilities();
+        if (!caps.OpenGL33 && !caps.GL_ARB_timer_query) {
+            return new GpuTimer(null);
+        }
+        int[] queries = new int[RING_SIZE * 2];
+        GL15.glGenQueries(queries);
+        return new GpuTimer(queries);
+    }
+
+    public boolean isSupported() {
+        return queries != null;
+    }
+
+    /**
+     * Starts timing. Skipped when every query pair is still waiting for its result, which only happens when the GPU
+     * runs several frames behind.
+     */
+    public void begin() {
+        if (queries == null || active >= 0 || pending[next]) {
+            return;
+        }
+        GL33.glQueryCounter(queries[next * 2], GL33.GL_TIMESTAMP);
+        active = next;
+    }
+
+    public void end() {
+        if (active < 0) {
+            return;
+        }
+        GL33.glQueryCounter(queries[active * 2 + 1], GL33.GL_TIMESTAMP);
+        pending[active] = true;
+        next = (active + 1) % RING_SIZE;
+        active = -1;
+    }
+
+    /**
+     * Collects finished queries, oldest first, and returns the newest one's time in milliseconds, or {@code -1} when
+     * none finished since the last call.
+     */
+    public double poll() {
+        if (queries == null) {
+            return -1.0;
+        }
+        double millis = -1.0;
+        for (int i = 0; i < RING_SIZE; i++) {
+            int index = (next + i) % RING_SIZE;
+            if (!pending[index] || index == active) {
+                continue;
+            }
+            // Commands finish in order, so the start sample is ready once the end sample is
+            if (GL15.glGetQueryObjecti(queries[index * 2 + 1], GL15.GL_QUERY_RESULT_AVAILABLE) == 0) {
+                break;
+            }
+            long start = GL33.glGetQueryObjectui64(queries[index * 2], GL15.GL_QUERY_RESULT);
+            long end = GL33.glGetQueryObjectui64(queries[index * 2 + 1], GL15.GL_QUERY_RESULT);
+            millis = Math.max(0L, end - start) / 1_000_000.0;
+            pending[index] = false;
+        }
+        return millis;
+    }
+
+    @Override
+    public void close() {
+        if (queries == null) {
+            return;
+        }
+        active = -1;
+        GL15.glDeleteQueries(queries);
+    }
+}
@@ -0,0 +1,44 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GlslMinifierTest {
+    @Test
+    void keepsSwizzlesAndFieldAccessJoined() {
+        String source = """
+            #version 330
+            out vec4 fragColor;
+            void main() {
+                vec2 uv = gl_FragCoord.xy;
+                vec4 col = vec4(uv.xy, 0.0, 1.0);
+                fragColor = vec4(col.rgb, 1.0);
+            }
+            """;
+
+        String minified = GlslMinifier.minify(source).source();
+
+        assertTrue(minified.contains("uv.xy"), minified);
+        assertTrue(minified.contains("col.rgb"), minified);
+        assertTrue(minified.contains("gl_FragCoord.xy"), minified);
+    }
+
+    @Test
+    void keepsNumbersApartFromTheTokensAroundThem() {
+        String source = """
+            #version 330
+            out vec4 fragColor;
+            float f() { return .5; }
+            void main() { fragColor = vec4(vec2(f()).xy, 1.0 - - 1.0, 1.0); }
+            """;
+
+        String minified = GlslMinifier.minify(source).source();
+
+        assertEquals("""
+            #version 330
+            out vec4 fragColor;float f(){return.5;}void main(){fragColor=vec4(vec2(f()).xy,1.0- -1.0,1.0);}""",
+            minified.strip());
+    }
+}
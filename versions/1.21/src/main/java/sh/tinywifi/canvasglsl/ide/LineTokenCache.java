@@ -0,0 +1,381 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line table and highlighting tokens of the editor buffer. {@link #update(String)} compares the new text with the
+ * previous one and re-splits only the lines between the first and last changed character; lines after the edit are
+ * shifted, not rebuilt. Lines are tokenized the first time {@link #line(int)} asks for them, so only lines that have
+ * been on screen cost anything. Text the editor hands in unchanged (ImGui returns the same string instance until the
+ * widget edits it) costs nothing. When the caller already knows which lines an edit replaced, as the large-file
+ * editor does, {@link #replaceLines(int, int, List)} applies them without any text to compare.
+ * <p>
+ * Block comments, continued directives and {@code #if 0} regions span lines, so each line remembers the lexer state
+ * it starts in. After an edit the state is carried forward from the changed lines until a line starts in the state
+ * it started in before; everything past that point is still right.
+ */
+final class LineTokenCache {
+    enum TokenType {
+        KEYWORD,
+        TYPE,
+        BUILTIN,
+        NUMBER,
+        STRING,
+        COMMENT,
+        PREPROCESSOR,
+        DISABLED,
+        PLAIN
+    }
+
+    interface Classifier {
+        TokenType classify(String word);
+    }
+
+    /**
+     * One line without its line break. {@code displays} hold each token with tabs expanded, ready to draw; both
+     * token arrays are {@code null} until the line is fetched through {@link #line(int)}.
+     */
+    static final class Line {
+        final String text;
+        int start;
+        String[] displays;
+        TokenType[] types;
+        int entryState = UNKNOWN_STATE;
+        int exitState;
+
+        private Line(String text, int start) {
+            this.text = text;
+            this.start = start;
+        }
+
+        int end() {
+            return start + text.length();
+        }
+    }
+
+    // Lexer state between lines: open block comment, directive continued with a backslash, and how many #if levels
+    // deep inside an #if 0 region
+    private static final int IN_COMMENT = 1;
+    private static final int IN_DIRECTIVE = 2;
+    private static final int DISABLED_SHIFT = 2;
+    private static final int UNKNOWN_STATE = -1;
+
+    private static final String[] NO_DISPLAYS = new String[0];
+    private static final TokenType[] NO_TYPES = new TokenType[0];
+
+    private final Classifier classifier;
+    private final List<Line> lines = new ArrayList<>();
+    private String text;
+    private long tokenizedLines;
+
+    LineTokenCache(Classifier classifier) {
+        this.classifier = classifier;
+    }
+
+    int lineCount() {
+        return lines.size();
+    }
+
+    /**
+     * The line at {@code index}, tokenized if it has not been yet.
+     */
+    Line line(int index) {
+        Line line = lines.get(index);
+        if (line.displays == null) {
+            tokenize(line);
+        }
+        return line;
+    }
+
+    /**
+     * Total lines lexed since creation, for tokens or just their exit state, to confirm unchanged frames do no work.
+     */
+    long tokenizedLines() {
+        return tokenizedLines;
+    }
+
+    /**
+     * Index of the line holding character {@code index}; an index on a line break belongs to the line it ends.
+     */
+    int lineAt(int index) {
+        int low = 0;
+        int high = lines.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lines.get(mid).start <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    void update(String newText) {
+        String oldText = text;
+        if (newText == oldText) {
+            return;
+        }
+        text = newText;
+        if (oldText == null || lines.isEmpty()) {
+            lines.clear();
+            split(newText, 0, newText.length(), lines);
+            relex(0, lines.size());
+            return;
+        }
+        if (oldText.equals(newText)) {
+            return;
+        }
+
+        int oldLength = oldText.length();
+        int newLength = newText.length();
+        int prefix = 0;
+        int shorter = Math.min(oldLength, newLength);
+        while (prefix < shorter && oldText.charAt(prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < shorter - prefix
+            && oldText.charAt(oldLength - 1 - suffix) == newText.charAt(newLength - 1 - suffix)) {
+            suffix++;
+        }
+
+        // Lines covering the changed range, and where their text now ends
+        int first = lineAt(prefix);
+        int last = lineAt(oldLength - suffix);
+        int delta = newLength - oldLength;
+        int from = lines.get(first).start;
+        int to = lines.get(last).end() + delta;
+
+        List<Line> replacement = new ArrayList<>();
+        split(newText, from, to, replacement);
+        List<Line> replaced = lines.subList(first, last + 1);
+        replaced.clear();
+        replaced.addAll(replacement);
+
+        for (int i = first + replacement.size(); i < lines.size(); i++) {
+            lines.get(i).start += delta;
+        }
+        relex(first, first + replacement.size());
+    }
+
+    /**
+     * Replaces lines {@code first} through {@code last} with {@code replacement}, each given without its line break.
+     * Later lines are shifted, not rebuilt. The cache no longer holds a text to diff against, so the next
+     * {@link #update(String)} splits what it is given from scratch.
+     */
+    void replaceLines(int first, int last, List<String> replacement) {
+        int start = lines.get(first).start;
+        int oldEnd = lines.get(last).end();
+        List<Line> created = new ArrayList<>(replacement.size());
+        int at = start;
+        for (String line : replacement) {
+            created.add(new Line(line, at));
+            at += line.length() + 1;
+        }
+        int delta = at - 1 - oldEnd;
+
+        List<Line> replaced = lines.subList(first, last + 1);
+        replaced.clear();
+        replaced.addAll(created);
+        for (int i = first + created.size(); i < lines.size(); i++) {
+            lines.get(i).start += delta;
+        }
+        text = null;
+        relex(first, first + created.size());
+    }
+
+    /**
+     * Recomputes line states from {@code from}: always up to {@code changedEnd}, then until a line's entry state
+     * comes out as it was. Lines whose entry state changed lose their tokens.
+     */
+    private void relex(int from, int changedEnd) {
+        int state = from == 0 ? 0 : lines.get(from - 1).exitState;
+        for (int i = from; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (i >= changedEnd && line.entryState == state) {
+                return;
+            }
+            if (line.entryState != state) {
+                line.entryState = state;
+                line.displays = null;
+                line.types = null;
+            }
+            state = lex(line.text, state, null, null);
+            line.exitState = state;
+        }
+    }
+
+    private void split(String source, int from, int to, List<Line> into) {
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') {
+                into.add(new Line(source.substring(lineStart, i), lineStart));
+                lineStart = i + 1;
+            }
+        }
+        into.add(new Line(source.substring(lineStart, to), lineStart));
+    }
+
+    private void tokenize(Line target) {
+        if (target.text.isEmpty()) {
+            tokenizedLines++;
+            target.displays = NO_DISPLAYS;
+            target.types = NO_TYPES;
+            return;
+        }
+        List<String> displays = new ArrayList<>();
+        List<TokenType> types = new ArrayList<>();
+        lex(target.text, target.entryState, displays, types);
+        target.displays = displays.toArray(NO_DISPLAYS);
+        target.types = types.toArray(NO_TYPES);
+    }
+
+    /**
+     * Lexes one line starting in {@code entry} and returns the state the next line starts in. Tokens go to
+     * {@code displays} and {@code types} unless those are {@code null}.
+     */
+    private int lex(String line, int entry, List<String> displays, List<TokenType> types) {
+        tokenizedLines++;
+        int length = line.length();
+        int disabled = entry >>> DISABLED_SHIFT;
+
+        if (disabled > 0) {
+            String directive = directiveName(line);
+            if (directive == null) {
+                emit(line, 0, length, TokenType.DISABLED, displays, types);
+                return disabled << DISABLED_SHIFT;
+            }
+            switch (directive) {
+                case "if", "ifdef", "ifndef" -> disabled++;
+                case "endif" -> disabled--;
+                // #elif cannot be evaluated here; showing the branch as live is the safer guess
+                case "else", "elif" -> disabled = disabled == 1 ? 0 : disabled;
+                default -> { }
+            }
+            emit(line, 0, length, TokenType.PREPROCESSOR, displays, types);
+            return disabled << DISABLED_SHIFT;
+        }
+
+        boolean comment = (entry & IN_COMMENT) != 0;
+        boolean directive = (entry & IN_DIRECTIVE) != 0;
+        int disabledAfter = 0;
+        if (!comment && !directive) {
+            String name = directiveName(line);
+            if (name != null) {
+                directive = true;
+                if (name.equals("if") && isZeroCondition(line)) {
+                    disabledAfter = 1;
+                }
+            }
+        }
+
+        int pos = 0;
+        while (pos < length) {
+            char c = line.charAt(pos);
+            char next = pos + 1 < length ? line.charAt(pos + 1) : 0;
+            int begin = pos;
+            TokenType type;
+
+            if (comment || (c == '/' && next == '*')) {
+                int close = line.indexOf("*/", comment ? pos : pos + 2);
+                pos = close < 0 ? length : close + 2;
+                comment = close < 0;
+                type = TokenType.COMMENT;
+            } else if (c == '/' && next == '/') {
+                pos = length;
+                type = TokenType.COMMENT;
+            } else if (directive) {
+                pos++;
+                while (pos < length && !startsComment(line, pos)) {
+                    pos++;
+                }
+                type = TokenType.PREPROCESSOR;
+            } else if (c == '"' && (pos == 0 || line.charAt(pos - 1) != '\\')) {
+                pos++;
+                while (pos < length) {
+                    char sc = line.charAt(pos++);
+                    if (sc == '"' && line.charAt(pos - 2) != '\\') {
+                        break;
+                    }
+                }
+                type = TokenType.STRING;
+            } else if (Character.isDigit(c)) {
+                pos++;
+                while (pos < length) {
+                    char nc = line.charAt(pos);
+                    if (!(Character.isDigit(nc) || nc == '.' || nc == 'f' || nc == 'F')) break;
+                    pos++;
+                }
+                type = TokenType.NUMBER;
+            } else if (isWordChar(c)) {
+                pos++;
+                while (pos < length && isWordChar(line.charAt(pos))) {
+                    pos++;
+                }
+                type = displays == null ? TokenType.PLAIN : classifier.classify(line.substring(begin, pos));
+            } else {
+                pos++;
+                type = TokenType.PLAIN;
+            }
+
+            emit(line, begin, pos, type, displays, types);
+        }
+
+        boolean continues = directive && !comment && length > 0 && line.charAt(length - 1) == '\\';
+        return (comment ? IN_COMMENT : 0) | (continues ? IN_DIRECTIVE : 0) | (disabledAfter << DISABLED_SHIFT);
+    }
+
+    private static void emit(String line, int begin, int end, TokenType type,
+                             List<String> displays, List<TokenType> types) {
+        if (displays != null && begin < end) {
+            displays.add(line.substring(begin, end).replace("\t", "    "));
+            types.add(type);
+        }
+    }
+
+    private static boolean startsComment(String line, int pos) {
+        return line.charAt(pos) == '/' && pos + 1 < line.length()
+            && (line.charAt(pos + 1) == '/' || line.charAt(pos + 1) == '*');
+    }
+
+    /**
+     * Name of the directive on {@code line}, empty for a lone {@code #}, or {@code null} when it is not a directive.
+     */
+    private static String directiveName(String line) {
+        int pos = skipSpaces(line, 0);
+        if (pos >= line.length() || line.charAt(pos) != '#') {
+            return null;
+        }
+        int begin = skipSpaces(line, pos + 1);
+        int end = begin;
+        while (end < line.length() && Character.isLetter(line.charAt(end))) {
+            end++;
+        }
+        return line.substring(begin, end);
+    }
+
+    private static boolean isZeroCondition(String line) {
+        int pos = line.indexOf("if") + 2;
+        int end = line.length();
+        for (int i = pos; i < end; i++) {
+            if (startsComment(line, i)) {
+                end = i;
+                break;
+            }
+        }
+        return line.substring(pos, end).trim().equals("0");
+    }
+
+    private static int skipSpaces(String line, int pos) {
+        while (pos < line.length() && (line.charAt(pos) == ' ' || line.charAt(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+}
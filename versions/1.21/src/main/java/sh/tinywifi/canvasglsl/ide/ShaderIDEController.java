@@ -28,20 +28,24 @@ public final class ShaderIDEController {
     }
 
     private static final ShaderIDEController INSTANCE = new ShaderIDEController();
+    private static final String LARGE_FILE_PREVIEW_STATUS = "Live preview is off for large files; save to update the background";
 
     private final ShaderWorkspace workspace = ShaderWorkspace.open();
     private final ShaderEditorState editorState = new ShaderEditorState(workspace);
+    private final ShaderPackImporter packImporter = new ShaderPackImporter(workspace);
+    private final ShaderLivePreview livePreview = new ShaderLivePreview();
     private final ShaderIDEViewport viewport = new ShaderIDEViewport(this);
     private final List<ShaderChangeListener> listeners = new CopyOnWriteArrayList<>();
     private final List<MediaChangeListener> mediaListeners = new CopyOnWriteArrayList<>();
     private final Gson gson = new Gson();
     private final Path stateFile = workspace.getRoot().resolve(".canvasglsl-state.json");
 
-    private volatile String lastSavedSource = editorState.buffer().get();
+    private volatile String lastSavedSource = editorState.document().text();
     private volatile Path lastSavedFile = null;
     private volatile boolean overlayVisible;
     private volatile ContentType contentType = ContentType.SHADER;
     private volatile MediaEntry currentMediaEntry;
+    private volatile TweakSession tweakSession;
 
     private ShaderIDEController() {}
 
@@ -57,10 +61,43 @@ public final class ShaderIDEController {
         return editorState;
     }
 
+    public ShaderPackImporter getPackImporter() {
+        return packImporter;
+    }
+
     public ShaderIDEViewport getViewport() {
         return viewport;
     }
 
+    public ShaderLivePreview getLivePreview() {
+        return livePreview;
+    }
+
+    /**
+     * Queues the editor text for live preview when it is what the background shows. A library of the displayed
+     * shader is only previewed once saved, since include expansion reads it from disk. Large files are not previewed
+     * at all: each preview snapshots and checks the whole buffer, the very per-keystroke cost their line-by-line
+     * editing avoids.
+     */
+    public void requestPreview() {
+        if (!editorState.isLivePreviewEnabled() || contentType != ContentType.SHADER || tweakSession != null) {
+            return;
+        }
+        if (editorState.isLargeFile()) {
+            if (!LARGE_FILE_PREVIEW_STATUS.equals(editorState.getStatusMessage())) {
+                editorState.setStatus(LARGE_FILE_PREVIEW_STATUS);
+            }
+            return;
+        }
+        Path file = editorState.currentFile().orElse(null);
+        String source = editorState.document().text();
+        if (isIncludeOfDisplayedShader(file) || source.isBlank()) {
+            return;
+        }
+        livePreview.submit(source, file, workspace.getIncludes(), editorState.isSyntaxCheckEnabled(),
+            editorState.isSpecializeConstantsEnabled(), editorState.isMinifyEnabled());
+    }
+
     public ContentType getActiveContentType() {
         return contentType;
     }
@@ -77,6 +114,9 @@ public final class ShaderIDEController {
         overlayVisible = visible;
         if (visible) {
             viewport.ensureReady();
+            // Pick up files changed outside the IDE while it was closed
+            workspace.getSymbols().refresh();
+            workspace.getSearch().refresh();
         }
     }
 
@@ -109,8 +149,22 @@ public final class ShaderIDEController {
     }
 
     public void notifyShaderSaved() {
-        String snapshot = editorState.buffer().get();
+        // Whatever the preview was preparing is older than what gets compiled now
+        livePreview.cancel();
+        String snapshot = editorState.document().text();
         Path file = editorState.currentFile().orElse(null);
+        boolean includeChanged = workspace.getIncludes().invalidate(file);
+
+        if (isIncludeOfDisplayedShader(file)) {
+            // Opening or saving a library keeps the shader that uses it on screen
+            if (includeChanged) {
+                for (ShaderChangeListener listener : listeners) {
+                    listener.onIncludeSaved(file);
+                }
+            }
+            return;
+        }
+
         lastSavedSource = snapshot;
         lastSavedFile = file;
         contentType = ContentType.SHADER;
@@ -122,6 +176,60 @@ public final class ShaderIDEController {
         }
     }
 
+    /**
+     * Enters tweak mode for the shader in the editor: the buffer turns read-only and the background switches to a
+     * build whose constants are uniforms. Returns {@code false} when the buffer is not the displayed shader or has
+     * nothing to tweak.
+     */
+    public boolean beginTweak() {
+        if (tweakSession != null) {
+            return true;
+        }
+        if (contentType != ContentType.SHADER || isIncludeOfDisplayedShader(editorState.currentFile().orElse(null))) {
+            return false;
+        }
+        TweakSession session = TweakSession.start(getCurrentSource());
+        if (session == null) {
+            return false;
+        }
+        tweakSession = session;
+        editorState.setReadOnly(true);
+        return true;
+    }
+
+    /**
+     * Leaves tweak mode. With {@code keep} the tuned values are written into the buffer, otherwise the source from
+     * before the session is restored. Returns whether the buffer text changed; the caller recompiles.
+     */
+    public boolean endTweak(boolean keep) {
+        TweakSession session = tweakSession;
+        if (session == null) {
+            return false;
+        }
+        tweakSession = null;
+        editorState.setReadOnly(false);
+        String result = keep ? session.finalSource() : session.originalSource();
+        if (result.equals(editorState.document().text())) {
+            return false;
+        }
+        editorState.replaceText(result);
+        return true;
+    }
+
+    /**
+     * Drops the session without touching the buffer, for when the buffer was replaced by another shader.
+     */
+    public void abandonTweak() {
+        if (tweakSession != null) {
+            tweakSession = null;
+            editorState.setReadOnly(false);
+        }
+    }
+
+    public Optional<TweakSession> getTweakSession() {
+        return Optional.ofNullable(tweakSession);
+    }
+
     public void notifyMediaSelected(MediaEntry entry) {
         currentMediaEntry = entry;
         contentType = ContentType.MEDIA;
@@ -249,13 +357,44 @@ public final class ShaderIDEController {
     }
 
     public String getCurrentSource() {
-        return editorState.buffer().get();
+        return editorState.document().text();
     }
 
     public Optional<Path> getCurrentFile() {
         return editorState.currentFile();
     }
 
+    /**
+     * Source the background should compile: the editor buffer, unless the editor holds a library of the displayed
+     * shader, in which case the displayed shader itself. In tweak mode, the buffer with its constants promoted.
+     */
+    public String getCompileSource() {
+        TweakSession session = tweakSession;
+        if (session != null) {
+            return session.promotedSource();
+        }
+        Path file = editorState.currentFile().orElse(null);
+        if (isIncludeOfDisplayedShader(file) && lastSavedSource != null) {
+            return lastSavedSource;
+        }
+        return getCurrentSource();
+    }
+
+    public Optional<Path> getCompileFile() {
+        Path file = editorState.currentFile().orElse(null);
+        Path displayed = lastSavedFile;
+        if (isIncludeOfDisplayedShader(file)) {
+            return Optional.ofNullable(displayed);
+        }
+        return Optional.ofNullable(file);
+    }
+
+    public boolean isIncludeOfDisplayedShader(Path file) {
+        Path displayed = lastSavedFile;
+        return file != null && displayed != null && !file.equals(displayed)
+            && workspace.getIncludes().dependsOn(displayed, file);
+    }
+
     public Optional<String> getLastSavedSource() {
         return Optional.ofNullable(lastSavedSource);
     }
@@ -0,0 +1,79 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import sh.tinywifi.canvasglsl.render.ShaderTweaks;
+
+import java.util.List;
+
+/**
+ * Live constant tuning for one shader buffer. The background compiles {@link #promotedSource()} once; from then on
+ * the sliders only change {@link #values()}, which the renderer uploads as uniforms every frame. Ending the session
+ * writes the values back into the original text.
+ */
+public final class TweakSession {
+    private final String originalSource;
+    private final String promotedSource;
+    private final List<ShaderTweaks.Tweak> tweaks;
+    private final float[] values;
+    private final float[] minimums;
+    private final float[] maximums;
+
+    private TweakSession(String originalSource, List<ShaderTweaks.Tweak> tweaks) {
+        this.originalSource = originalSource;
+        this.promotedSource = ShaderTweaks.promote(originalSource, tweaks);
+        this.tweaks = List.copyOf(tweaks);
+        this.values = new float[tweaks.size()];
+        this.minimums = new float[tweaks.size()];
+        this.maximums = new float[tweaks.size()];
+        for (int i = 0; i < tweaks.size(); i++) {
+            float value = (float) tweaks.get(i).value();
+            // Up to three times the value, down to zero for positive values, and at least 1 either way; Ctrl+click
+            // on a slider types values outside the range
+            float span = Math.max(1.0f, Math.abs(value) * 2.0f);
+            values[i] = value;
+            minimums[i] = value >= 0.0f && value - span < 0.0f ? 0.0f : value - span;
+            maximums[i] = value + span;
+        }
+    }
+
+    /**
+     * Starts a session over {@code source}, or returns {@code null} when it has nothing tweakable.
+     */
+    public static TweakSession start(String source) {
+        List<ShaderTweaks.Tweak> tweaks = ShaderTweaks.find(source);
+        return tweaks.isEmpty() ? null : new TweakSession(source, tweaks);
+    }
+
+    public String originalSource() {
+        return originalSource;
+    }
+
+    public String promotedSource() {
+        return promotedSource;
+    }
+
+    public List<ShaderTweaks.Tweak> tweaks() {
+        return tweaks;
+    }
+
+    /**
+     * Current value per tweak, edited in place by the sliders.
+     */
+    public float[] values() {
+        return values;
+    }
+
+    public float minimum(int index) {
+        return minimums[index];
+    }
+
+    public float maximum(int index) {
+        return maximums[index];
+    }
+
+    /**
+     * The original source with every changed value written over its literal.
+     */
+    public String finalSource() {
+        return ShaderTweaks.writeBack(originalSource, tweaks, values);
+    }
+}
@@ -0,0 +1,144 @@
+package sh.tinywifi.canvasglsl.ide;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo and redo for one document, kept as the edits themselves rather than copies of the text: each entry holds the
+ * text it removed and inserted, which is enough to apply it in either direction. Keystrokes typed or deleted in a
+ * row merge into one entry until a pause, a line break or the start of a new word. When the entries outgrow the byte
+ * budget the oldest are dropped.
+ */
+final class UndoHistory {
+    private static final long MERGE_WINDOW_NANOS = 1_000_000_000L;
+    // Object headers, the entry's fields and two string headers, roughly
+    private static final int ENTRY_OVERHEAD = 64;
+
+    record Edit(int start, String removed, String inserted, long nanos) {
+        long bytes() {
+            return ENTRY_OVERHEAD + 2L * (removed.length() + inserted.length());
+        }
+    }
+
+    private final Deque<Edit> undo = new ArrayDeque<>();
+    private final Deque<Edit> redo = new ArrayDeque<>();
+    private long bytes;
+    private long budget;
+    private int leftHash;
+    private int leftLength = -1;
+
+    UndoHistory(long budget) {
+        this.budget = budget;
+    }
+
+    void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /**
+     * Records an edit made to the document. Anything that was undone can no longer be redone.
+     */
+    void record(int start, String removed, String inserted, long nanos) {
+        while (!redo.isEmpty()) {
+            bytes -= redo.pop().bytes();
+        }
+        Edit edit = new Edit(start, removed, inserted, nanos);
+        Edit last = undo.peekLast();
+        if (last != null && nanos - last.nanos() < MERGE_WINDOW_NANOS) {
+            Edit merged = merge(last, edit);
+            if (merged != null) {
+                undo.pollLast();
+                bytes -= last.bytes();
+                edit = merged;
+            }
+        }
+        undo.addLast(edit);
+        bytes += edit.bytes();
+        trim();
+    }
+
+    /**
+     * Reverts the newest edit in {@code document} and returns it, or {@code null} when there is nothing to undo.
+     * The document's own change events fire as usual; the caller keeps them from being recorded.
+     */
+    Edit undo(ShaderDocument document) {
+        Edit edit = undo.pollLast();
+        if (edit == null) return null;
+        document.replace(edit.start(), edit.start() + edit.inserted().length(), edit.removed());
+        redo.push(edit);
+        return edit;
+    }
+
+    /**
+     * Applies the newest undone edit to {@code document} again and returns it, or {@code null}.
+     */
+    Edit redo(ShaderDocument document) {
+        Edit edit = redo.poll();
+        if (edit == null) return null;
+        document.replace(edit.start(), edit.start() + edit.removed().length(), edit.inserted());
+        undo.addLast(edit);
+        return edit;
+    }
+
+    void clear() {
+        undo.clear();
+        redo.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Notes the text the document had when another file replaced it, so the history is only picked up again for
+     * that same text.
+     */
+    void leave(String text) {
+        leftHash = text.hashCode();
+        leftLength = text.length();
+    }
+
+    boolean resumesWith(String text) {
+        return text.length() == leftLength && text.hashCode() == leftHash;
+    }
+
+    private void trim() {
+        while (bytes > budget && !undo.isEmpty()) {
+            bytes -= undo.pollFirst().bytes();
+        }
+        while (bytes > budget && !redo.isEmpty()) {
+            bytes -= redo.pollLast().bytes();
+        }
+    }
+
+    private static Edit merge(Edit last, Edit next) {
+        if (next.removed().isEmpty() && last.removed().isEmpty()
+            && next.start() == last.start() + last.inserted().length()
+            && next.inserted().indexOf('\n') < 0 && !startsWord(last.inserted(), next.inserted())) {
+            // Typing on
+            return new Edit(last.start(), "", last.inserted() + next.inserted(), next.nanos());
+        }
+        if (next.inserted().isEmpty() && last.inserted().isEmpty() && next.removed().indexOf('\n') < 0) {
+            if (next.start() + next.removed().length() == last.start()) {
+                // Backspace
+                return new Edit(next.start(), next.removed() + last.removed(), "", next.nanos());
+            }
+            if (next.start() == last.start()) {
+                // Delete
+                return new Edit(last.start(), last.removed() + next.removed(), "", next.nanos());
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWord(String typed, String next) {
+        return !typed.isEmpty() && Character.isWhitespace(typed.charAt(typed.length() - 1))
+            && !next.isEmpty() && !Character.isWhitespace(next.charAt(0));
+    }
+}
@@ -29,17 +29,6 @@ public final class ShaderCanvas implements Closeable {
     private final int blitAlphaUniform;
     private boolean forceMainFramebuffer = false;
 
-    private static final String BLIT_VERTEX_SHADER = """
-        #version 330 core
-        layout(location = 0) in vec3 position;
-        layout(location = 1) in vec2 uv;
-        out vec2 vUv;
-        void main() {
-            gl_Position = vec4(position, 1.0);
-            vUv = uv;
-        }
-        """;
-
     private static final String BLIT_FRAGMENT_SHADER = """
         #version 330 core
         in vec2 vUv;
@@ -172,26 +161,16 @@ public final class ShaderCanvas implements Closeable {
     }
 
     private static int createBlitProgram() {
-        int vertexShader = compileShader(GL20.GL_VERTEX_SHADER, BLIT_VERTEX_SHADER);
         int fragmentShader = compileShader(GL20.GL_FRAGMENT_SHADER, BLIT_FRAGMENT_SHADER);
         int program = GL20.glCreateProgram();
-        GL20.glAttachShader(program, vertexShader);
-        GL20.glAttachShader(program, fragmentShader);
-        GL20.glBindAttribLocation(program, 0, "position");
-        GL20.glBindAttribLocation(program, 1, "uv");
-        GL20.glLinkProgram(program);
+        SharedVertexStage.link(program, fragmentShader);
+        GL20.glDeleteShader(fragmentShader);
         if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
             String info = GL20.glGetProgramInfoLog(program);
             CanvasGLSL.LOG.error("Failed to link blit program: {}", info);
             GL20.glDeleteProgram(program);
-            GL20.glDeleteShader(vertexShader);
-            GL20.glDeleteShader(fragmentShader);
             throw new IllegalStateException("Failed to link blit program: " + info);
         }
-        GL20.glDetachShader(program, vertexShader);
-        GL20.glDetachShader(program, fragmentShader);
-        GL20.glDeleteShader(vertexShader);
-        GL20.glDeleteShader(fragmentShader);
         return program;
     }
 
@@ -0,0 +1,375 @@
+package sh.tinywifi.canvasglsl.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rough per-pixel cost of a patched fragment shader, worked out from its tokens before it ever runs. Every arithmetic
+ * operator counts one, transcendental built-ins and texture fetches count more, calls add the callee's cost, and loop
+ * bodies are multiplied by their trip count when the loop has the usual {@code for (int i = A; i < B; i += C)} shape
+ * with literal or constant bounds. The result only has to tell a simple gradient from a 200-step raymarcher, which is
+ * enough to pick a resolution scale before any GPU timings exist.
+ */
+public final class ShaderCostEstimator {
+    /**
+     * Cost a fragment shader can have and still be drawn at full resolution on typical hardware.
+     */
+    public static final double FULL_QUALITY_COST = 4000.0;
+    public static final double MIN_QUALITY = 0.25;
+
+    private static final int TEXTURE_COST = 8;
+    private static final int TRANSCENDENTAL_COST = 4;
+    private static final int UNKNOWN_TRIPS = 32;
+    private static final int MAX_TRIPS = 4096;
+
+    private static final Set<String> TEXTURE_FUNCTIONS = Set.of(
+        "texture", "texture2D", "textureCube", "textureLod", "texture2DLod", "textureGrad", "textureOffset",
+        "textureProj", "texelFetch", "texelFetchOffset", "textureGather", "textureLodOffset"
+    );
+
+    private static final Set<String> TRANSCENDENTAL_FUNCTIONS = Set.of(
+        "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh", "asinh", "acosh", "atanh",
+        "pow", "exp", "exp2", "log", "log2", "sqrt", "inversesqrt", "normalize", "length", "distance", "mod", "fract"
+    );
+
+    private static final Set<String> ARITHMETIC = Set.of(
+        "+", "-", "*", "/", "%", "+=", "-=", "*=", "/=", "%=", "++", "--"
+    );
+
+    private ShaderCostEstimator() {}
+
+    /**
+     * @param cost              estimated operations per pixel of the entry point
+     * @param textureFetches    texture fetches per pixel, loops and calls included
+     * @param transcendentals   transcendental built-in calls per pixel, loops and calls included
+     */
+    public record Estimate(double cost, double textureFetches, double transcendentals) {
+        /**
+         * Resolution scale to start drawing at: full quality up to {@link #FULL_QUALITY_COST}, then falling with the
+         * square root of the cost because pixel count is quadratic in the scale. Rounded down to steps of 0.05.
+         */
+        public double initialQuality() {
+            if (cost <= FULL_QUALITY_COST) {
+                return 1.0;
+            }
+            double quality = Math.sqrt(FULL_QUALITY_COST / cost);
+            return Math.max(MIN_QUALITY, Math.floor(quality * 20.0) / 20.0);
+        }
+    }
+
+    public static Estimate estimate(String source) {
+        return new Scanner(source).run();
+    }
+
+    private static final class Scanner {
+        private final List<GlslLexer.Token> kinds = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final Map<String, Double> constants = new HashMap<>();
+        private final Map<String, int[]> functions = new HashMap<>();
+        private final Map<String, double[]> costs = new HashMap<>();
+        private int[] match;
+
+        Scanner(String source) {
+            GlslLexer lexer = new GlslLexer(source);
+            while (lexer.next() != GlslLexer.Token.END) {
+                if (lexer.token() == GlslLexer.Token.DIRECTIVE) {
+                    collectDefine(source.substring(lexer.start(), lexer.end()));
+                } else {
+                    kinds.add(lexer.token());
+                    texts.add(lexer.text());
+                }
+            }
+        }
+
+        Estimate run() {
+            matchBrackets();
+            collectFunctionsAndConstants();
+            String entry = functions.containsKey("mainImage") ? "mainImage" : "main";
+            if (!functions.containsKey(entry)) {
+                return new Estimate(0.0, 0.0, 0.0);
+            }
+            double[] total = functionCost(entry);
+            return new Estimate(total[0], total[1], total[2]);
+        }
+
+        private void collectDefine(String directive) {
+            GlslLexer words = new GlslLexer(directive, 1, directive.length());
+            if (words.next() != GlslLexer.Token.IDENTIFIER || !words.is("define")
+                || words.next() != GlslLexer.Token.IDENTIFIER) {
+                return;
+            }
+            String name = words.text();
+            if (words.next() == GlslLexer.Token.NUMBER) {
+                double value = parseNumber(words.text());
+                if (!Double.isNaN(value) && words.next() == GlslLexer.Token.END) {
+                    constants.put(name, value);
+                }
+            }
+        }
+
+        private void matchBrackets() {
+            match = new int[texts.size()];
+            int[] stack = new int[texts.size() + 1];
+            int depth = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                match[i] = -1;
+                if (kinds.get(i) != GlslLexer.Token.OPERATOR) {
+                    continue;
+                }
+                String text = texts.get(i);
+                if (text.equals("(") || text.equals("[") || text.equals("{")) {
+                    stack[depth++] = i;
+                } else if ((text.equals(")") || text.equals("]") || text.equals("}")) && depth > 0) {
+                    int open = stack[--depth];
+                    match[open] = i;
+                    match[i] = open;
+                }
+            }
+        }
+
+        /**
+         * Finds function bodies at file scope and {@code const} scalars anywhere, which loop bounds often use.
+         */
+        private void collectFunctionsAndConstants() {
+            int depth = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                String text = texts.get(i);
+                if (kinds.get(i) == GlslLexer.Token.OPERATOR) {
+                    if (text.equals("{")) {
+                        depth++;
+                    } else if (text.equals("}")) {
+                        depth = Math.max(0, depth - 1);
+                    }
+                    continue;
+                }
+                if (kinds.get(i) != GlslLexer.Token.IDENTIFIER) {
+                    continue;
+                }
+                // const <type> <name> = [-]<value>;
+                if (text.equals("const") && isOperator(i + 3, "=")) {
+                    int semicolon = i + (isOperator(i + 4, "-") ? 6 : 5);
+                    double value = constantValue(i + 4);
+                    if (!Double.isNaN(value) && isOperator(semicolon, ";")) {
+                        constants.put(texts.get(i + 2), value);
+                    }
+                }
+                if (depth == 0 && i > 0 && kinds.get(i - 1) == GlslLexer.Token.IDENTIFIER && isOperator(i + 1, "(")) {
+                    int close = match[i + 1];
+                    if (close > 0 && isOperator(close + 1, "{") && match[close + 1] > 0) {
+                        functions.put(text, new int[] {close + 2, match[close + 1]});
+                    }
+                }
+            }
+        }
+
+        /**
+         * {cost, texture fetches, transcendentals} of one call to {@code name}.
+         */
+        private double[] functionCost(String name) {
+            double[] cached = costs.get(name);
+            if (cached != null) {
+                return cached;
+            }
+            // Recursion is illegal in GLSL; the placeholder only stops a malformed source from looping here
+            costs.put(name, new double[3]);
+            int[] body = functions.get(name);
+            double[] cost = rangeCost(body[0], body[1]);
+            costs.put(name, cost);
+            return cost;
+        }
+
+        private double[] rangeCost(int from, int to) {
+            double[] cost = new double[3];
+            int i = from;
+            while (i < to) {
+                String text = texts.get(i);
+                GlslLexer.Token kind = kinds.get(i);
+                if (kind == GlslLexer.Token.IDENTIFIER && (text.equals("for") || text.equals("while")) && isOperator(i + 1, "(")) {
+                    int headerEnd = match[i + 1];
+                    if (headerEnd < 0 || headerEnd >= to) {
+                        break;
+                    }
+                    int bodyEnd = statementEnd(headerEnd + 1, to);
+                    double trips = text.equals("for") ? tripCount(i + 2, headerEnd) : UNKNOWN_TRIPS;
+                    addScaled(cost, rangeCost(i + 2, headerEnd), trips);
+                    addScaled(cost, rangeCost(headerEnd + 1, bodyEnd), trips);
+                    i = bodyEnd;
+                    continue;
+                }
+                if (kind == GlslLexer.Token.IDENTIFIER && text.equals("do")) {
+                    int bodyEnd = statementEnd(i + 1, to);
+                    addScaled(cost, rangeCost(i + 1, bodyEnd), UNKNOWN_TRIPS);
+                    // Skip the trailing while (...) so it is not counted as a second loop
+                    if (bodyEnd < to && texts.get(bodyEnd).equals("while") && isOperator(bodyEnd + 1, "(")
+                        && match[bodyEnd + 1] > 0) {
+                        addScaled(cost, rangeCost(bodyEnd + 2, match[bodyEnd + 1]), UNKNOWN_TRIPS);
+                        bodyEnd = match[bodyEnd + 1] + 1;
+                    }
+                    i = bodyEnd;
+                    continue;
+                }
+                if (kind == GlslLexer.Token.IDENTIFIER && isOperator(i + 1, "(")) {
+                    if (TEXTURE_FUNCTIONS.contains(text)) {
+                        cost[0] += TEXTURE_COST;
+                        cost[1]++;
+                    } else if (TRANSCENDENTAL_FUNCTIONS.contains(text)) {
+                        cost[0] += TRANSCENDENTAL_COST;
+                        cost[2]++;
+                    } else if (functions.containsKey(text)) {
+                        addScaled(cost, functionCost(text), 1.0);
+                    }
+                } else if (kind == GlslLexer.Token.OPERATOR && ARITHMETIC.contains(text)) {
+                    cost[0]++;
+                }
+                i++;
+            }
+            return cost;
+        }
+
+        /**
+         * End (exclusive) of the statement starting at {@code from}: a block, or everything up to the next
+         * {@code ;} outside brackets, following {@code else} branches.
+         */
+        private int statementEnd(int from, int to) {
+            int i = from;
+            while (i < to) {
+                if (isOperator(i, "{") && match[i] > 0) {
+                    i = match[i] + 1;
+                    if (i < to && texts.get(i).equals("else")) {
+                        i++;
+                        continue;
+                    }
+                    return i;
+                }
+                if (isOperator(i, "(") && match[i] > 0) {
+                    i = match[i] + 1;
+                    continue;
+                }
+                if (isOperator(i, ";")) {
+                    i++;
+                    if (i < to && texts.get(i).equals("else")) {
+                        i++;
+                        continue;
+                    }
+                    return i;
+                }
+                i++;
+            }
+            return to;
+        }
+
+        /**
+         * Trip count of a {@code for} header spanning tokens {@code [from, to)}, or {@link #UNKNOWN_TRIPS} when its
+         * shape is not the plain counter pattern.
+         */
+        private double tripCount(int from, int to) {
+            int firstSemicolon = indexOf(";", from, to);
+            int secondSemicolon = firstSemicolon < 0 ? -1 : indexOf(";", firstSemicolon + 1, to);
+            if (secondSemicolon < 0) {
+                return UNKNOWN_TRIPS;
+            }
+
+            // init: [type] i = start
+            int assign = indexOf("=", from, firstSemicolon);
+            if (assign < 1 || kinds.get(assign - 1) != GlslLexer.Token.IDENTIFIER) {
+                return UNKNOWN_TRIPS;
+            }
+            String counter = texts.get(assign - 1);
+            double start = constantValue(assign + 1);
+
+            // condition: i < end, i <= end, i > end, i >= end, i != end
+            int condition = firstSemicolon + 1;
+            if (condition + 2 >= secondSemicolon || !texts.get(condition).equals(counter)) {
+                return UNKNOWN_TRIPS;
+            }
+            String comparison = texts.get(condition + 1);
+            double end = constantValue(condition + 2);
+
+            // increment: i++, ++i, i--, --i, i += step, i -= step
+            double step = Double.NaN;
+            int increment = secondSemicolon + 1;
+            if (increment < to) {
+                String first = texts.get(increment);
+                String second = increment + 1 < to ? texts.get(increment + 1) : "";
+                if ((first.equals(counter) && (second.equals("++") || second.equals("--")))
+                    || ((first.equals("++") || first.equals("--")) && second.equals(counter))) {
+                    step = 1.0;
+                } else if (first.equals(counter) && (second.equals("+=") || second.equals("-="))) {
+                    step = Math.abs(constantValue(increment + 2));
+                }
+            }
+
+            if (Double.isNaN(start) || Double.isNaN(end) || Double.isNaN(step) || step == 0.0) {
+                return UNKNOWN_TRIPS;
+            }
+            double trips = Math.ceil(Math.abs(end - start) / step);
+            if (comparison.equals("<=") || comparison.equals(">=")) {
+                trips++;
+            } else if (!comparison.equals("<") && !comparison.equals(">") && !comparison.equals("!=")) {
+                return UNKNOWN_TRIPS;
+            }
+            return Math.max(1.0, Math.min(MAX_TRIPS, trips));
+        }
+
+        /**
+         * Value of a literal or known constant at {@code index}, allowing a leading minus, or {@code NaN}.
+         */
+        private double constantValue(int index) {
+            if (index >= texts.size()) {
+                return Double.NaN;
+            }
+            double sign = 1.0;
+            if (isOperator(index, "-") && index + 1 < texts.size()) {
+                sign = -1.0;
+                index++;
+            }
+            String text = texts.get(index);
+            if (kinds.get(index) == GlslLexer.Token.NUMBER) {
+                return sign * parseNumber(text);
+            }
+            Double constant = constants.get(text);
+            return constant != null ? sign * constant : Double.NaN;
+        }
+
+        private int indexOf(String text, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (kinds.get(i) == GlslLexer.Token.OPERATOR && texts.get(i).equals(text)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isOperator(int index, String text) {
+            return index >= 0 && index < texts.size() && kinds.get(index) == GlslLexer.Token.OPERATOR
+                && texts.get(index).equals(text);
+        }
+
+        private static void addScaled(double[] into, double[] cost, double scale) {
+            for (int i = 0; i < into.length; i++) {
+                into[i] += cost[i] * scale;
+            }
+        }
+    }
+
+    static double parseNumber(String text) {
+        String number = text.toLowerCase(Locale.ROOT);
+        try {
+            if (number.startsWith("0x")) {
+                return Long.parseLong(number.substring(2).replace("u", ""), 16);
+            }
+            if (number.endsWith("lf")) {
+                number = number.substring(0, number.length() - 2);
+            } else if (number.endsWith("u") || number.endsWith("f")) {
+                number = number.substring(0, number.length() - 1);
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL41;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A linked shader program together with the locations of every built-in uniform the renderer feeds.
+ * Only talks to raw GL, so the same compile and upload logic runs in the client and in headless tooling.
+ */
+public final class ShaderProgram implements AutoCloseable {
+    /**
+     * Value of {@code iSampleRate}, the standard audio sample rate.
+     */
+    public static final float SAMPLE_RATE = 44100.0f;
+
+    private final int program;
+    private final long approximateSize;
+
+    private final int timeUniform;
+    private final int resolutionUniform;
+    private final int mouseUniform;
+    private final int frameUniform;
+    private final int persistentFrameUniform;
+    private final int speedUniform;
+    private final int iTimeUniform;
+    private final int iResolutionUniform;
+    private final int iMouseUniform;
+    private final int iFrameUniform;
+    private final int iTimeDeltaUniform;
+    private final int iDateUniform;
+    private final int iSampleRateUniform;
+    private final int[] channelUniforms = new int[ChannelTextures.COUNT];
+    private final int[] channelResolutionUniforms = new int[ChannelTextures.COUNT];
+    private final int[] channelTimeUniforms = new int[ChannelTextures.COUNT];
+    private final Map<String, Integer> tweakUniforms = new HashMap<>();
+
+    private ShaderProgram(int program, long approximateSize) {
+        this.program = program;
+        this.approximateSize = approximateSize;
+        timeUniform = GL20.glGetUniformLocation(program, "time");
+        resolutionUniform = GL20.glGetUniformLocation(program, "resolution");
+        mouseUniform = GL20.glGetUniformLocation(program, "mouse");
+        frameUniform = GL20.glGetUniformLocation(program, "frame");
+        persistentFrameUniform = GL20.glGetUniformLocation(program, "persistent_frame");
+        speedUniform = GL20.glGetUniformLocation(program, "speed");
+        iTimeUniform = GL20.glGetUniformLocation(program, "iTime");
+        iResolutionUniform = GL20.glGetUniformLocation(program, "iResolution");
+        iMouseUniform = GL20.glGetUniformLocation(program, "iMouse");
+        iFrameUniform = GL20.glGetUniformLocation(program, "iFrame");
+        iTimeDeltaUniform = GL20.glGetUniformLocation(program, "iTimeDelta");
+        iDateUniform = GL20.glGetUniformLocation(program, "iDate");
+        iSampleRateUniform = GL20.glGetUniformLocation(program, "iSampleRate");
+        for (int i = 0; i < ChannelTextures.COUNT; i++) {
+            channelUniforms[i] = GL20.glGetUniformLocation(program, "iChannel" + i);
+            channelResolutionUniforms[i] = GL20.glGetUniformLocation(program, "iChannelResolution[" + i + "]");
+            channelTimeUniforms[i] = GL20.glGetUniformLocation(program, "iChannelTime[" + i + "]");
+        }
+    }
+
+    /**
+     * Compiles and links already patched sources. A {@code null} vertex source links against the
+     * {@link SharedVertexStage}.
+     *
+     * @throws IllegalStateException carrying the driver's info log when compilation or linking fails
+     */
+    public static ShaderProgram link(String vertexSource, String fragmentSource) {
+        int vertexShader = vertexSource != null ? compileShaderPart(vertexSource, GL20.GL_VERTEX_SHADER) : -1;
+        int fragmentShader;
+        try {
+            fragmentShader = compileShaderPart(fragmentSource, GL20.GL_FRAGMENT_SHADER);
+        } catch (IllegalStateException ex) {
+            if (vertexShader != -1) {
+                GL20.glDeleteShader(vertexShader);
+            }
+            throw ex;
+        }
+
+        int program = GL20.glCreateProgram();
+        if (vertexShader != -1) {
+            GL20.glAttachShader(program, vertexShader);
+            GL20.glAttachShader(program, fragmentShader);
+            GL20.glLinkProgram(program);
+            GL20.glDetachShader(program, vertexShader);
+            GL20.glDetachShader(program, fragmentShader);
+            GL20.glDeleteShader(vertexShader);
+        } else {
+            SharedVertexStage.link(program, fragmentShader);
+        }
+        GL20.glDeleteShader(fragmentShader);
+
+        if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+            String log = GL20.glGetProgramInfoLog(program, 1024);
+            GL20.glDeleteProgram(program);
+            throw new IllegalStateException("Failed to link shader program! Caused by: " + log);
+        }
+
+        return new ShaderProgram(program, estimateSize(program, fragmentSource));
+    }
+
+    private static long estimateSize(int program, String fragmentSource) {
+        GLCapabilities caps = GL.getCapabilities();
+        if (caps.OpenGL41 || caps.GL_ARB_get_program_binary) {
+            int length = GL20.glGetProgrami(program, GL41.GL_PROGRAM_BINARY_LENGTH);
+            if (length > 0) {
+                return length;
+            }
+        }
+        // No program binaries: driver-side code size roughly follows the source
+        return fragmentSource.length();
+    }
+
+    private static int compileShaderPart(String source, int type) {
+        int shader = GL20.glCreateShader(type);
+        GL20.glShaderSource(shader, source);
+        GL20.glCompileShader(shader);
+
+        if (GL20.glGetShaderi(shader, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+            String log = GL20.glGetShaderInfoLog(shader, 1024);
+            String shaderType = (type == GL20.GL_VERTEX_SHADER) ? "vertex" : "fragment";
+            GL20.glDeleteShader(shader);
+            throw new IllegalStateException("Failed to compile " + shaderType + " shader! Caused by: " + log);
+        }
+
+        return shader;
+    }
+
+    public int id() {
+        return program;
+    }
+
+    /**
+     * Driver-reported program binary size in bytes, or the source length when the driver doesn't expose binaries.
+     */
+    public long approximateSize() {
+        return approximateSize;
+    }
+
+    public void use() {
+        GL20.glUseProgram(program);
+    }
+
+    public boolean usesChannel(int channel) {
+        return channelUniforms[channel] != -1;
+    }
+
+    public boolean usesDate() {
+        return iDateUniform != -1;
+    }
+
+    /**
+     * Uploads every built-in uniform the program declares. Expects the program to be bound; sampler uniforms
+     * point at texture unit {@code n} for {@code iChannel<n>}, binding the textures is left to the caller.
+     * Built-ins the patcher specialised into constants have no location and are skipped.
+     */
+    public void applyUniforms(FrameUniforms frame, ChannelTextures channels) {
+        if (timeUniform != -1) {
+            GL20.glUniform1f(timeUniform, frame.time());
+        }
+        if (iTimeUniform != -1) {
+            GL20.glUniform1f(iTimeUniform, frame.time());
+        }
+
+        if (resolutionUniform != -1) {
+            GL20.glUniform2f(resolutionUniform, (float) frame.width(), (float) frame.height());
+        }
+        if (iResolutionUniform != -1) {
+            GL20.glUniform3f(iResolutionUniform, (float) frame.width(), (float) frame.height(), 1.0f);
+        }
+
+        if (mouseUniform != -1) {
+            GL20.glUniform2f(mouseUniform, frame.normalizedMouseX(), frame.normalizedMouseY());
+        }
+        if (iMouseUniform != -1) {
+            GL20.glUniform4f(iMouseUniform, frame.mouseX(), frame.mouseY(), frame.clickX(), frame.clickY());
+        }
+
+        if (frameUniform != -1) {
+            GL20.glUniform1i(frameUniform, frame.frame());
+        }
+        if (iFrameUniform != -1) {
+            GL20.glUniform1i(iFrameUniform, frame.frame());
+        }
+        if (persistentFrameUniform != -1) {
+            GL20.glUniform1i(persistentFrameUniform, frame.persistentFrame());
+        }
+        if (speedUniform != -1) {
+            GL20.glUniform1f(speedUniform, frame.speed());
+        }
+        if (iTimeDeltaUniform != -1) {
+            GL20.glUniform1f(iTimeDeltaUniform, frame.timeDelta());
+        }
+
+        // Set iDate uniform (year, month [0-11], day, time in seconds)
+        LocalDateTime date = frame.date();
+        if (iDateUniform != -1 && date != null) {
+            float timeOfDay = date.getHour() * 3600f + date.getMinute() * 60f + date.getSecond() + date.getNano() / 1_000_000_000f;
+            GL20.glUniform4f(iDateUniform,
+                date.getYear(),
+                date.getMonthValue() - 1,  // Shadertoy uses 0-11 for months
+                date.getDayOfMonth(),
+                timeOfDay);
+        }
+
+        // Set iSampleRate uniform (standard audio sample rate)
+        if (iSampleRateUniform != -1) {
+            GL20.glUniform1f(iSampleRateUniform, SAMPLE_RATE);
+        }
+
+        for (int channel = 0; channel < ChannelTextures.COUNT; channel++) {
+            if (channelUniforms[channel] != -1) {
+                GL20.glUniform1i(channelUniforms[channel], channel);
+            }
+
+            if (channelResolutionUniforms[channel] != -1) {
+                GL20.glUniform3f(
+                    channelResolutionUniforms[channel],
+                    channels.width(channel),
+                    channels.height(channel),
+                    0f
+                );
+            }
+
+            if (channelTimeUniforms[channel] != -1) {
+                GL20.glUniform1f(channelTimeUniforms[channel], frame.time());
+            }
+        }
+    }
+
+    /**
+     * Uploads the current value of every {@link ShaderTweaks} uniform. Expects the program to be bound.
+     */
+    public void applyTweaks(List<ShaderTweaks.Tweak> tweaks, float[] values) {
+        for (int i = 0; i < tweaks.size(); i++) {
+            ShaderTweaks.Tweak tweak = tweaks.get(i);
+            int location = tweakUniforms.computeIfAbsent(tweak.uniform(), name -> GL20.glGetUniformLocation(program, name));
+            if (location == -1) {
+                continue;
+            }
+            if (tweak.integer()) {
+                GL20.glUniform1i(location, Math.round(values[i]));
+            } else {
+                GL20.glUniform1f(location, values[i]);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        GL20.glDeleteProgram(program);
+    }
+}
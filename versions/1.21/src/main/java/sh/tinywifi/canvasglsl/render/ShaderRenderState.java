@@ -0,0 +1,163 @@
+package sh.tinywifi.canvasglsl.render;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * GL state bracket around the shader background pass.
+ *
+ * Adapted for 1.21 - issues raw GL and saves/restores everything the pass touches, since RenderSystem's
+ * cached state is not re-applied before every draw on this version.
+ */
+public final class ShaderRenderState {
+    private static final int GL_BLEND_SRC_RGB = 0x80C9;
+    private static final int GL_BLEND_DST_RGB = 0x80C8;
+    private static final int GL_BLEND_SRC_ALPHA = 0x80CB;
+    private static final int GL_BLEND_DST_ALPHA = 0x80CA;
+    private static final int GL_BLEND_EQUATION_RGB = 0x8009;
+    private static final int GL_BLEND_EQUATION_ALPHA = 0x883D;
+
+    private final IntBuffer viewportBuffer = BufferUtils.createIntBuffer(4);
+    private final IntBuffer scissorBuffer = BufferUtils.createIntBuffer(4);
+    private final ByteBuffer colorMaskBuffer = BufferUtils.createByteBuffer(4);
+
+    private boolean scissorEnabled;
+    private boolean framebufferSrgbEnabled;
+    private boolean depthTestEnabled;
+    private boolean blendEnabled;
+    private boolean cullEnabled;
+    private boolean depthMaskEnabled;
+    private int prevBlendSrcRgb;
+    private int prevBlendDstRgb;
+    private int prevBlendSrcAlpha;
+    private int prevBlendDstAlpha;
+    private int prevBlendEqRgb;
+    private int prevBlendEqAlpha;
+    private int prevActiveTexture;
+    private int prevProgram;
+    private int prevVAO;
+    private int prevTexture2D;
+    private int prevArrayBuffer;
+
+    private ShaderRenderState() {}
+
+    public static ShaderRenderState capture() {
+        ShaderRenderState state = new ShaderRenderState();
+        GL11.glGetIntegerv(GL11.GL_VIEWPORT, state.viewportBuffer);
+        GL11.glGetIntegerv(GL11.GL_SCISSOR_BOX, state.scissorBuffer);
+        state.scissorEnabled = GL11.glIsEnabled(GL11.GL_SCISSOR_TEST);
+        GL11.glGetBooleanv(GL11.GL_COLOR_WRITEMASK, state.colorMaskBuffer);
+        state.framebufferSrgbEnabled = GL11.glIsEnabled(GL30.GL_FRAMEBUFFER_SRGB);
+
+        state.depthTestEnabled = GL11.glIsEnabled(GL11.GL_DEPTH_TEST);
+        state.blendEnabled = GL11.glIsEnabled(GL11.GL_BLEND);
+        state.cullEnabled = GL11.glIsEnabled(GL11.GL_CULL_FACE);
+        state.depthMaskEnabled = GL11.glGetBoolean(GL11.GL_DEPTH_WRITEMASK);
+        state.prevBlendSrcRgb = GL11.glGetInteger(GL_BLEND_SRC_RGB);
+        state.prevBlendDstRgb = GL11.glGetInteger(GL_BLEND_DST_RGB);
+        state.prevBlendSrcAlpha = GL11.glGetInteger(GL_BLEND_SRC_ALPHA);
+        state.prevBlendDstAlpha = GL11.glGetInteger(GL_BLEND_DST_ALPHA);
+        state.prevBlendEqRgb = GL11.glGetInteger(GL_BLEND_EQUATION_RGB);
+        state.prevBlendEqAlpha = GL11.glGetInteger(GL_BLEND_EQUATION_ALPHA);
+
+        // Save additional state that complex shaders might modify
+        state.prevActiveTexture = GL11.glGetInteger(GL13.GL_ACTIVE_TEXTURE);
+        state.prevProgram = GL11.glGetInteger(GL20.GL_CURRENT_PROGRAM);
+        state.prevVAO = GL11.glGetInteger(GL30.GL_VERTEX_ARRAY_BINDING);
+        state.prevTexture2D = GL11.glGetInteger(GL11.GL_TEXTURE_BINDING_2D);
+        state.prevArrayBuffer = GL15.glGetInteger(GL15.GL_ARRAY_BUFFER_BINDING);
+        return state;
+    }
+
+    public static void bindTexture(int unit, int texture) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+    }
+
+    public void beginPass(int width, int height) {
+        GL11.glViewport(0, 0, width, height);
+
+        // Disable depth test, scissor and enable blending for fullscreen quad
+        GL11.glDisable(GL11.GL_DEPTH_TEST);
+        GL11.glDepthMask(false);
+        GL11.glEnable(GL11.GL_BLEND);
+        GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+        GL11.glDisable(GL11.GL_CULL_FACE);
+        if (scissorEnabled) {
+            GL11.glDisable(GL11.GL_SCISSOR_TEST);
+        }
+        GL11.glColorMask(true, true, true, true);
+        if (framebufferSrgbEnabled) {
+            GL11.glDisable(GL30.GL_FRAMEBUFFER_SRGB);
+        }
+    }
+
+    public void restore() {
+        // Restore viewport
+        GL11.glViewport(viewportBuffer.get(0), viewportBuffer.get(1), viewportBuffer.get(2), viewportBuffer.get(3));
+
+        // Restore blend state
+        GL14.glBlendFuncSeparate(prevBlendSrcRgb, prevBlendDstRgb, prevBlendSrcAlpha, prevBlendDstAlpha);
+        GL20.glBlendEquationSeparate(prevBlendEqRgb, prevBlendEqAlpha);
+        if (blendEnabled) {
+            GL11.glEnable(GL11.GL_BLEND);
+        } else {
+            GL11.glDisable(GL11.GL_BLEND);
+        }
+
+        // Restore depth state
+        GL11.glDepthMask(depthMaskEnabled);
+        if (depthTestEnabled) {
+            GL11.glEnable(GL11.GL_DEPTH_TEST);
+        } else {
+            GL11.glDisable(GL11.GL_DEPTH_TEST);
+        }
+
+        // Restore cull face
+        if (cullEnabled) {
+            GL11.glEnable(GL11.GL_CULL_FACE);
+        } else {
+            GL11.glDisable(GL11.GL_CULL_FACE);
+        }
+
+        // Restore colour mask
+        GL11.glColorMask(
+            colorMaskBuffer.get(0) != 0,
+            colorMaskBuffer.get(1) != 0,
+            colorMaskBuffer.get(2) != 0,
+            colorMaskBuffer.get(3) != 0
+        );
+
+        // Restore framebuffer sRGB state
+        if (framebufferSrgbEnabled) {
+            GL11.glEnable(GL30.GL_FRAMEBUFFER_SRGB);
+        } else {
+            GL11.glDisable(GL30.GL_FRAMEBUFFER_SRGB);
+        }
+
+        // Restore scissor test and box
+        GL11.glScissor(scissorBuffer.get(0), scissorBuffer.get(1), scissorBuffer.get(2), scissorBuffer.get(3));
+        if (scissorEnabled) {
+            GL11.glEnable(GL11.GL_SCISSOR_TEST);
+        } else {
+            GL11.glDisable(GL11.GL_SCISSOR_TEST);
+        }
+
+        // Restore texture state
+        GL13.glActiveTexture(prevActiveTexture);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, prevTexture2D);
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, prevArrayBuffer);
+
+        // Restore shader program
+        GL20.glUseProgram(prevProgram);
+        GL30.glBindVertexArray(prevVAO);
+    }
+}